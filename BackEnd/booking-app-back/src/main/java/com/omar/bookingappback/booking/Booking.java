@@ -39,6 +39,12 @@ public class Booking extends AbstractAuditingEntity<Long> {
     @Column(name = "fk_listing", nullable = false)
     private UUID fkListing;
 
+    /**
+     * Whether the stay has been completed for a while and moved to the archived bookings.
+     */
+    @Column(name = "archived", nullable = false)
+    private boolean archived;
+
     // Explicitly implement the abstract getId() method from AbstractAuditingEntity
     @Override
     public Long getId() {
@@ -104,4 +110,12 @@ public class Booking extends AbstractAuditingEntity<Long> {
     public void setFkListing(UUID fkListing) {
         this.fkListing = fkListing;
     }
+
+    public boolean isArchived() {
+        return archived;
+    }
+
+    public void setArchived(boolean archived) {
+        this.archived = archived;
+    }
 }
@@ -1,6 +1,8 @@
 package com.omar.bookingappback.booking;
 
+import com.omar.bookingappback.booking.dto.BookedPeriodDTO;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
@@ -15,48 +17,46 @@ public interface BookingRepository extends JpaRepository<Booking, Long> {
      * Checks if there are any bookings that overlap with the specified time interval
      * for a given listing.
      *
+     * The overlap is checked with `periods_overlap`, an index lookup in the GiST index of the exclusion
+     * constraint rejecting overlapping bookings. Only the current bookings are checked, the archived ones
+     * being stays completed for a while.
+     *
      * @param startDate the start date of the interval to check
      * @param endDate   the end date of the interval to check
      * @param fkListing the public ID of the listing to check against
      * @return true if there are overlapping bookings, false otherwise
      */
     @Query("SELECT case when count(booking) > 0 then true else false end" +
-            " from Booking  booking WHERE NOT (booking.endDate <= :startDate or booking.startDate >= :endDate)" +
-            " AND booking.fkListing = :fkListing")
+            " from Booking  booking WHERE periods_overlap(booking.startDate, booking.endDate, :startDate, :endDate)" +
+            " AND booking.fkListing = :fkListing AND booking.archived = false")
     boolean bookingExistsAtInterval(OffsetDateTime startDate, OffsetDateTime endDate, UUID fkListing);
 
     /**
-     * Retrieves all bookings associated with a specific listing.
-     *
-     * @param fkListing the public ID of the listing
-     * @return a list of bookings for the given listing
-     */
-    List<Booking> findAllByFkListing(UUID fkListing);
-
-    /**
-     * Retrieves all bookings associated with a specific tenant.
+     * Retrieves the current bookings associated with a specific tenant, the archived ones being left out:
+     * only the partition of the current bookings is scanned.
      *
      * @param fkTenant the public ID of the tenant
-     * @return a list of bookings for the given tenant
+     * @return a list of the current bookings for the given tenant
      */
-    List<Booking> findAllByFkTenant(UUID fkTenant);
+    List<Booking> findAllByFkTenantAndArchivedFalse(UUID fkTenant);
 
     /**
-     * Retrieves all bookings for listings matching the specified public IDs.
+     * Retrieves the current bookings for listings matching the specified public IDs, the archived ones
+     * being left out: only the partition of the current bookings is scanned.
      *
      * @param allPropertyPublicIds a list of public IDs of the properties
-     * @return a list of bookings for the specified properties
+     * @return a list of the current bookings for the specified properties
      */
-    List<Booking> findAllByFkListingIn(List<UUID> allPropertyPublicIds);
+    List<Booking> findAllByFkListingInAndArchivedFalse(List<UUID> allPropertyPublicIds);
 
     /**
      * Deletes a booking associated with a specific tenant and booking public ID.
      *
      * @param tenantPublicId  the public ID of the tenant
      * @param bookingPublicId the public ID of the booking to delete
-     * @return the number of bookings deleted
+     * @return the bookings deleted
      */
-    int deleteBookingByFkTenantAndPublicId(UUID tenantPublicId, UUID bookingPublicId);
+    List<Booking> deleteBookingByFkTenantAndPublicId(UUID tenantPublicId, UUID bookingPublicId);
 
 
     /**
@@ -64,23 +64,77 @@ public interface BookingRepository extends JpaRepository<Booking, Long> {
      *
      * @param bookingPublicId the public ID of the booking to delete
      * @param listingPublicId the public ID of the listing associated with the booking
-     * @return the number of bookings deleted
+     * @return the bookings deleted
+     */
+    List<Booking> deleteBookingByPublicIdAndFkListing(UUID bookingPublicId, UUID listingPublicId);
+
+
+    /**
+     * Retrieves the periods of the bookings overlapping the specified interval, without loading the bookings.
+     *
+     * @param startDate the start date of the interval
+     * @param endDate   the end date of the interval
+     * @return the listing public ID and the dates of each booking overlapping the interval
+     */
+    @Query("SELECT new com.omar.bookingappback.booking.dto.BookedPeriodDTO(booking.fkListing, booking.startDate, booking.endDate)" +
+            " FROM Booking booking WHERE periods_overlap(booking.startDate, booking.endDate, :startDate, :endDate)" +
+            " AND booking.archived = false")
+    List<BookedPeriodDTO> findAllBookedPeriodsMatchWithDate(OffsetDateTime startDate, OffsetDateTime endDate);
+
+
+    /**
+     * Retrieves the periods of the bookings of several listings overlapping the specified interval,
+     * without loading the bookings.
+     *
+     * The periods are ordered by listing then by start date, so the periods of each listing can be merged
+     * in a single pass over the result.
+     *
+     * @param fkListings the public IDs of the listings
+     * @param startDate  the start date of the interval
+     * @param endDate    the end date of the interval
+     * @return the listing public ID and the dates of each booking of the listings overlapping the interval
      */
-    int deleteBookingByPublicIdAndFkListing(UUID bookingPublicId, UUID listingPublicId);
+    @Query("SELECT new com.omar.bookingappback.booking.dto.BookedPeriodDTO(booking.fkListing, booking.startDate, booking.endDate)" +
+            " FROM Booking booking WHERE booking.fkListing IN :fkListings" +
+            " AND periods_overlap(booking.startDate, booking.endDate, :startDate, :endDate) AND booking.archived = false" +
+            " ORDER BY booking.fkListing, booking.startDate")
+    List<BookedPeriodDTO> findAllBookedPeriodsByFkListingInMatchWithDate(List<UUID> fkListings, OffsetDateTime startDate,
+                                                                         OffsetDateTime endDate);
 
 
     /**
-     * Finds all bookings that match the specified date range for a list of listings.
+     * Retrieves the years (UTC) of the start dates of the current bookings ended before a date,
+     * the years of the partitions the archival of these bookings needs.
      *
-     * @param fkListings a list of public IDs for the listings to check
-     * @param startDate  the start date of the interval to check
-     * @param endDate    the end date of the interval to check
-     * @return a list of bookings that match the date range for the specified listings
+     * @param endDate the date before which the stays have ended
+     * @return the distinct years of the start dates of these bookings
      */
-    @Query("SELECT booking FROM Booking booking WHERE " +
-            "NOT (booking.endDate <= :startDate or booking.startDate >= :endDate) " +
-            "AND booking.fkListing IN :fkListings")
-    List<Booking> findAllMatchWithDate(List<UUID> fkListings, OffsetDateTime startDate, OffsetDateTime endDate);
+    @Query(value = "SELECT DISTINCT CAST(EXTRACT(YEAR FROM booking.start_date AT TIME ZONE 'UTC') AS int)" +
+            " FROM {h-schema}booking booking WHERE booking.archived = false AND booking.end_date < :endDate",
+            nativeQuery = true)
+    List<Integer> findAllStartYearsToArchive(OffsetDateTime endDate);
 
+    /**
+     * Creates the partition of the archived bookings starting in a year, if it doesn't exist yet.
+     *
+     * @param year the year (UTC) of the start dates of the bookings of the partition
+     */
+    @Modifying
+    @Query(value = "CALL {h-schema}create_booking_archive_partition(:year)", nativeQuery = true)
+    void createArchivePartition(int year);
 
+    /**
+     * Archives a batch of the current bookings ended before a date, moving them to the partition of
+     * the archived bookings of their year. The bookings being archived by another node are skipped.
+     *
+     * @param endDate the date before which the stays have ended
+     * @param limit   the maximum number of bookings to archive
+     * @return the number of bookings archived
+     */
+    @Modifying
+    @Query(value = "UPDATE {h-schema}booking SET archived = true WHERE archived = false AND id IN" +
+            " (SELECT booking.id FROM {h-schema}booking booking WHERE booking.archived = false" +
+            " AND booking.end_date < :endDate ORDER BY booking.id LIMIT :limit FOR UPDATE SKIP LOCKED)",
+            nativeQuery = true)
+    int archiveAllEndedBefore(OffsetDateTime endDate, int limit);
 }
@@ -0,0 +1,97 @@
+package com.omar.bookingappback.booking;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * The booked nights and the revenue of a listing over a month (UTC).
+ *
+ * The nights of a booking are counted in the month of their start day, and the total price of the booking
+ * is spread over its nights, so the revenue of the months of a booking sums to its total price.
+ * The aggregates are only written with native queries of the {@link ListingOccupancyRepository}.
+ */
+@Entity
+@Table(name = "listing_occupancy")
+@IdClass(ListingOccupancyId.class)
+public class ListingOccupancy implements Serializable {
+
+    @Id
+    @Column(name = "fk_listing")
+    private UUID fkListing;
+
+    /**
+     * The first day of the month.
+     */
+    @Id
+    @Column(name = "month")
+    private LocalDate month;
+
+    @Column(name = "booked_nights", nullable = false)
+    private int bookedNights;
+
+    @Column(name = "revenue", nullable = false)
+    private long revenue;
+
+    public UUID getFkListing() {
+        return fkListing;
+    }
+
+    public void setFkListing(UUID fkListing) {
+        this.fkListing = fkListing;
+    }
+
+    public LocalDate getMonth() {
+        return month;
+    }
+
+    public void setMonth(LocalDate month) {
+        this.month = month;
+    }
+
+    public int getBookedNights() {
+        return bookedNights;
+    }
+
+    public void setBookedNights(int bookedNights) {
+        this.bookedNights = bookedNights;
+    }
+
+    public long getRevenue() {
+        return revenue;
+    }
+
+    public void setRevenue(long revenue) {
+        this.revenue = revenue;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ListingOccupancy that = (ListingOccupancy) o;
+        return Objects.equals(fkListing, that.fkListing) && Objects.equals(month, that.month);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fkListing, month);
+    }
+
+    @Override
+    public String toString() {
+        return "ListingOccupancy{" +
+                "fkListing=" + fkListing +
+                ", month=" + month +
+                ", bookedNights=" + bookedNights +
+                ", revenue=" + revenue +
+                '}';
+    }
+}
@@ -0,0 +1,45 @@
+package com.omar.bookingappback.booking;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * The identifier of a {@link ListingOccupancy}: the listing and the month.
+ */
+public class ListingOccupancyId implements Serializable {
+
+    private UUID fkListing;
+
+    private LocalDate month;
+
+    public ListingOccupancyId() {
+    }
+
+    public ListingOccupancyId(UUID fkListing, LocalDate month) {
+        this.fkListing = fkListing;
+        this.month = month;
+    }
+
+    public UUID getFkListing() {
+        return fkListing;
+    }
+
+    public LocalDate getMonth() {
+        return month;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ListingOccupancyId that = (ListingOccupancyId) o;
+        return Objects.equals(fkListing, that.fkListing) && Objects.equals(month, that.month);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fkListing, month);
+    }
+}
@@ -0,0 +1,114 @@
+package com.omar.bookingappback.booking;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface ListingOccupancyRepository extends JpaRepository<ListingOccupancy, ListingOccupancyId> {
+
+    /**
+     * Splits the stays of `stay` (fk_listing, start_date, total_price, nights) into their nights: the month (UTC)
+     * of the start day of each night, and its share of the total price. The share of the n-th night is
+     * `total_price * (n + 1) / nights - total_price * n / nights`, so the shares of a stay sum to its total price.
+     */
+    String NIGHTS_OF_STAY = " CROSS JOIN LATERAL (SELECT" +
+            " CAST(date_trunc('month', (stay.start_date + n * interval '24 hours') AT TIME ZONE 'UTC') AS date) AS month," +
+            " stay.total_price * (n + 1) / stay.nights - stay.total_price * n / stay.nights AS revenue" +
+            " FROM generate_series(0, stay.nights - 1) AS n) night";
+
+    /**
+     * Adds the nights and the revenue of a booking to the aggregates of the months of its stay,
+     * or subtracts them when the booking is cancelled.
+     *
+     * @param fkListing  the public ID of the listing
+     * @param startDate  the start date of the stay
+     * @param nights     the number of nights of the stay
+     * @param totalPrice the total price of the booking
+     * @param sign       1 to add the booking, -1 to subtract it
+     */
+    @Modifying
+    @Query(value = "INSERT INTO {h-schema}listing_occupancy AS occupancy (fk_listing, month, booked_nights, revenue)" +
+            " SELECT stay.fk_listing, night.month, :sign * count(*), :sign * sum(night.revenue)" +
+            " FROM (SELECT CAST(:fkListing AS uuid) AS fk_listing, CAST(:startDate AS timestamptz) AS start_date," +
+            " CAST(:totalPrice AS bigint) AS total_price, CAST(:nights AS int) AS nights) stay" + NIGHTS_OF_STAY +
+            " GROUP BY stay.fk_listing, night.month" +
+            " ON CONFLICT (fk_listing, month) DO UPDATE SET booked_nights = occupancy.booked_nights + excluded.booked_nights," +
+            " revenue = occupancy.revenue + excluded.revenue",
+            nativeQuery = true)
+    void addStay(UUID fkListing, OffsetDateTime startDate, int nights, int totalPrice, int sign);
+
+    /**
+     * Takes the lock of the reconciliation job until the end of the transaction, so a single node runs it at a time.
+     *
+     * @return true if the lock was taken, false if the job is running on another node
+     */
+    @Query(value = "SELECT pg_try_advisory_xact_lock(hashtext('listing_occupancy_reconciliation'))", nativeQuery = true)
+    boolean tryLockReconciliation();
+
+    /**
+     * Retrieves a page of the public IDs of the listings, ordered by public ID.
+     *
+     * @param after the public ID after which the page starts
+     * @param limit the maximum number of public IDs
+     * @return the public IDs of the listings following `after`
+     */
+    @Query(value = "SELECT public_id FROM {h-schema}listing WHERE public_id > :after ORDER BY public_id LIMIT :limit",
+            nativeQuery = true)
+    List<UUID> findAllListingPublicIdsAfter(UUID after, int limit);
+
+    /**
+     * Locks a listing until the end of the transaction, so no booking of the listing is added or subtracted
+     * while its aggregates are rebuilt. Inserting a booking or an aggregate checks its foreign key to the listing,
+     * which waits for this lock, and the bookings being cancelled wait on the aggregates deleted by the rebuild.
+     *
+     * @param fkListing the public ID of the listing
+     * @return the public ID of the listing, or an empty list if it has been deleted
+     */
+    @Query(value = "SELECT public_id FROM {h-schema}listing WHERE public_id = :fkListing FOR UPDATE", nativeQuery = true)
+    List<UUID> lockListing(UUID fkListing);
+
+    /**
+     * Deletes the aggregates of a listing, before they are rebuilt.
+     *
+     * @param fkListing the public ID of the listing
+     */
+    @Modifying
+    @Query(value = "DELETE FROM {h-schema}listing_occupancy WHERE fk_listing = :fkListing", nativeQuery = true)
+    void deleteAllByFkListing(UUID fkListing);
+
+    /**
+     * Rebuilds the aggregates of a listing from its bookings, current and archived, with the same split of the stays
+     * into nights as {@link #addStay}.
+     *
+     * @param fkListing the public ID of the listing
+     * @return the number of aggregates rebuilt
+     */
+    @Modifying
+    @Query(value = "INSERT INTO {h-schema}listing_occupancy (fk_listing, month, booked_nights, revenue)" +
+            " SELECT stay.fk_listing, night.month, count(*), sum(night.revenue)" +
+            " FROM (SELECT booking.fk_listing, booking.start_date, CAST(booking.total_price AS bigint) AS total_price," +
+            " CAST(floor(extract(epoch FROM booking.end_date - booking.start_date) / 86400) AS int) AS nights" +
+            " FROM {h-schema}booking booking WHERE booking.fk_listing = :fkListing) stay" + NIGHTS_OF_STAY +
+            " GROUP BY stay.fk_listing, night.month",
+            nativeQuery = true)
+    int rebuildByFkListing(UUID fkListing);
+
+    /**
+     * Retrieves the aggregates of listings over a range of months.
+     *
+     * @param fkListings the public IDs of the listings
+     * @param fromMonth  the first day of the first month
+     * @param toMonth    the first day of the last month
+     * @return the aggregates of the months having bookings, the months without bookings having no aggregate
+     */
+    List<ListingOccupancy> findAllByFkListingInAndMonthBetween(Collection<UUID> fkListings, LocalDate fromMonth,
+                                                               LocalDate toMonth);
+}
@@ -0,0 +1,64 @@
+package com.omar.bookingappback.booking.archival;
+
+import com.omar.bookingappback.booking.service.BookingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+
+/**
+ * Archives in the background the bookings of the stays completed for a while.
+ *
+ * The bookings are partitioned between the current bookings and the archived bookings, the latter being
+ * partitioned by year of start date. The reads of the tenants and landlords and the availability checks
+ * only scan the partition of the current bookings, which this job keeps limited to the recent, ongoing and
+ * upcoming stays. The bookings are moved in small batches, each one in its own transaction.
+ *
+ * The archived stays must have ended before the earliest start date accepted for a new booking, so the
+ * new bookings are only checked against the current bookings: the archival delay must exceed a day.
+ */
+@Component
+public class BookingArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(BookingArchiver.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private final BookingService bookingService;
+
+    private final Duration archiveAfter;
+
+    /**
+     * Constructor for BookingArchiver.
+     *
+     * @param bookingService Service archiving the bookings.
+     * @param archiveAfter How long after the end of a stay its booking is archived, fetched from the application's configuration.
+     */
+    public BookingArchiver(BookingService bookingService,
+                           @Value("${application.booking-archival.archive-after}") Duration archiveAfter) {
+        this.bookingService = bookingService;
+        this.archiveAfter = archiveAfter;
+    }
+
+    /**
+     * Moves the bookings of the stays ended for longer than the archival delay to the archived bookings.
+     */
+    @Scheduled(fixedDelayString = "${application.booking-archival.delay}")
+    public void archive() {
+        OffsetDateTime endedBefore = OffsetDateTime.now().minus(archiveAfter);
+        bookingService.createArchivePartitions(endedBefore);
+        int archived;
+        int total = 0;
+        do {
+            archived = bookingService.archive(endedBefore, BATCH_SIZE);
+            total += archived;
+        } while (archived == BATCH_SIZE);
+        if (total > 0) {
+            log.info("Archived {} bookings of completed stays", total);
+        }
+    }
+}
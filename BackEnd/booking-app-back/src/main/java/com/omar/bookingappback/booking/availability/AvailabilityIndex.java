@@ -0,0 +1,399 @@
+package com.omar.bookingappback.booking.availability;
+
+import com.omar.bookingappback.booking.BookingRepository;
+import com.omar.bookingappback.booking.dto.BookedPeriodDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Node-local index of the booked days of the listings, over a rolling horizon starting today.
+ *
+ * Each listing having bookings in the horizon has a bitset of its booked days, a day (UTC) being booked
+ * if any booking of the listing overlaps it. A day marked as booked may still be partly free.
+ *
+ * The index is built from the bookings at startup, updated when bookings are created and cancelled
+ * through this node, and rebuilt periodically to catch up with the bookings created or cancelled
+ * through other nodes, and to move its horizon forward. A booking created through this node is marked
+ * as soon as it is committed. The listings whose bookings are cancelled through this node are queued,
+ * and their booked days recomputed shortly after by a background task, in a single query for the queued
+ * listings: the cancelling requests neither hold a second connection nor wait for the index. Until it is built, nothing is known as free.
+ * In between, the bookings created through other nodes are missing from the index: a day not marked
+ * is only free as of the last rebuild. A booking created on the strength of a period known free is thus
+ * guarded by the exclusion constraint on the booking periods, which rejects it if the index missed an
+ * overlapping booking.
+ *
+ * The checks answered by the index are counted, and the callers report the periods found free by the
+ * database although the index reported them as possibly booked, and the bookings rejected by the database
+ * although the index reported their period as free. The rate of false positives of the index and the bookings
+ * it missed are thus exposed along with its memory footprint.
+ */
+@Component
+public class AvailabilityIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(AvailabilityIndex.class);
+
+    /**
+     * Estimated size of the entry of a listing, besides the words of its bitset: map node, UUID key,
+     * BitSet object and array header.
+     */
+    private static final long ENTRY_OVERHEAD_BYTES = 112;
+
+    /**
+     * Maximum number of queued listings refreshed by a single query.
+     */
+    private static final int REFRESH_BATCH_SIZE = 500;
+
+    private final BookingRepository bookingRepository;
+
+    private final TransactionTemplate refreshTransaction;
+
+    private final int horizonDays;
+
+    private volatile Snapshot snapshot;
+
+    private final Counter freeChecks;
+
+    private final Counter possiblyBookedChecks;
+
+    private final Counter falsePositives;
+
+    private final Counter missedBookings;
+
+    /**
+     * Changes applied while the index is being rebuilt, replayed on the rebuilt index. Null when not rebuilding.
+     */
+    private List<Consumer<Snapshot>> pendingChanges;
+
+    /**
+     * Listings whose bookings have been cancelled through this node, waiting for their booked days to be recomputed.
+     */
+    private final Set<UUID> listingsToRefresh = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Bookings marked while the bookings of the queued listings are read, replayed on the recomputed booked days.
+     * Null when not refreshing.
+     */
+    private List<BookedPeriodDTO> markedWhileRefreshing;
+
+    /**
+     * Constructor for AvailabilityIndex.
+     *
+     * @param bookingRepository Repository of the bookings the index is built from.
+     * @param transactionManager The transaction manager reading the bookings of the queued listings.
+     * @param horizon How far ahead of today the booked days are indexed, fetched from the application's configuration.
+     * @param meterRegistry The registry exposing the metrics of the index.
+     */
+    public AvailabilityIndex(BookingRepository bookingRepository,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${application.availability-index.horizon}") Duration horizon,
+                             MeterRegistry meterRegistry) {
+        this.bookingRepository = bookingRepository;
+        this.refreshTransaction = new TransactionTemplate(transactionManager);
+        this.refreshTransaction.setReadOnly(true);
+        this.horizonDays = (int) horizon.toDays();
+
+        Gauge.builder("availability.index.size", this, AvailabilityIndex::getSize).baseUnit("bytes")
+                .description("Estimated memory footprint of the availability index").register(meterRegistry);
+        Gauge.builder("availability.index.listings", this, AvailabilityIndex::getListingCount)
+                .description("Number of listings having booked days in the availability index").register(meterRegistry);
+        this.freeChecks = Counter.builder("availability.index.checks").tag("result", "free")
+                .description("Periods known as free by the availability index").register(meterRegistry);
+        this.possiblyBookedChecks = Counter.builder("availability.index.checks").tag("result", "possibly-booked")
+                .description("Periods possibly booked according to the availability index").register(meterRegistry);
+        this.falsePositives = Counter.builder("availability.index.false-positives")
+                .description("Periods possibly booked according to the availability index but found free by the database")
+                .register(meterRegistry);
+        this.missedBookings = Counter.builder("availability.index.missed-bookings")
+                .description("Periods free according to the availability index but rejected as booked by the database")
+                .register(meterRegistry);
+        Gauge.builder("availability.index.false-positive.rate", this, AvailabilityIndex::getFalsePositiveRate)
+                .description("Share of the periods possibly booked according to the availability index found free by the database")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Rebuilds the index from the bookings overlapping the horizon, starting today.
+     */
+    @Scheduled(fixedDelayString = "${application.availability-index.refresh-delay}")
+    public void rebuild() {
+        synchronized (this) {
+            pendingChanges = new ArrayList<>();
+        }
+        try {
+            Snapshot rebuilt = new Snapshot(LocalDate.now(ZoneOffset.UTC).toEpochDay(), horizonDays);
+            List<BookedPeriodDTO> bookedPeriods = bookingRepository
+                    .findAllBookedPeriodsMatchWithDate(rebuilt.getStartDate(), rebuilt.getEndDate());
+            bookedPeriods.forEach(rebuilt::mark);
+            synchronized (this) {
+                pendingChanges.forEach(change -> change.accept(rebuilt));
+                snapshot = rebuilt;
+            }
+            log.debug("Availability index rebuilt from {} bookings", bookedPeriods.size());
+        } finally {
+            synchronized (this) {
+                pendingChanges = null;
+            }
+        }
+    }
+
+    /**
+     * Checks if a listing is free over a period, as far as the index knows.
+     *
+     * @param listingPublicId The public ID of the listing.
+     * @param startDate The start of the period.
+     * @param endDate The end of the period, exclusive.
+     * @return true if no booking known to the index overlaps the period, false if a booking may overlap it,
+     *         or if the period is not in the horizon of the index.
+     */
+    public boolean isFree(UUID listingPublicId, OffsetDateTime startDate, OffsetDateTime endDate) {
+        boolean free = isKnownFree(listingPublicId, startDate, endDate);
+        (free ? freeChecks : possiblyBookedChecks).increment();
+        return free;
+    }
+
+    /**
+     * Reports periods possibly booked according to the index, but found free by the database.
+     *
+     * @param count The number of such periods.
+     */
+    public void recordFalsePositives(int count) {
+        falsePositives.increment(count);
+    }
+
+    /**
+     * Reports periods free according to the index, but rejected as booked by the database: the index missed
+     * bookings created through other nodes since it was rebuilt.
+     *
+     * @param count The number of such periods.
+     */
+    public void recordMissedBookings(int count) {
+        missedBookings.increment(count);
+    }
+
+    private boolean isKnownFree(UUID listingPublicId, OffsetDateTime startDate, OffsetDateTime endDate) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return false;
+        }
+        int fromIndex = current.indexOf(startDate);
+        int toIndex = current.indexOf(endDate.minusNanos(1)) + 1;
+        if (fromIndex < 0 || toIndex > current.days) {
+            return false;
+        }
+        BitSet bookedDays = current.bookedDays.get(listingPublicId);
+        if (bookedDays == null) {
+            return true;
+        }
+        synchronized (bookedDays) {
+            int nextBookedDay = bookedDays.nextSetBit(fromIndex);
+            return nextBookedDay < 0 || nextBookedDay >= toIndex;
+        }
+    }
+
+    /**
+     * Marks a new booking in the index, once the current transaction is committed.
+     *
+     * @param listingPublicId The public ID of the booked listing.
+     * @param startDate The start of the booking.
+     * @param endDate The end of the booking, exclusive.
+     */
+    public void markBooked(UUID listingPublicId, OffsetDateTime startDate, OffsetDateTime endDate) {
+        BookedPeriodDTO bookedPeriod = new BookedPeriodDTO(listingPublicId, startDate, endDate);
+        runAfterCommit(() -> mark(bookedPeriod));
+    }
+
+    /**
+     * Queues a listing for its booked days to be recomputed from its bookings, once the current transaction
+     * is committed, so the bookings cancelled by the current transaction are gone when they are read.
+     * Until then, the days of the cancelled bookings are still marked as booked.
+     *
+     * @param listingPublicId The public ID of the listing.
+     */
+    public void refresh(UUID listingPublicId) {
+        runAfterCommit(() -> listingsToRefresh.add(listingPublicId));
+    }
+
+    /**
+     * Recomputes the booked days of the queued listings from their bookings.
+     *
+     * The bookings are read without holding the index, the changes being applied meanwhile. A booking committed
+     * before the read is part of it, and a booking marked after the read started is replayed on the recomputed
+     * booked days, so none is lost.
+     */
+    @Scheduled(fixedDelayString = "${application.availability-index.cancellation-refresh-delay}")
+    public void refreshQueued() {
+        Snapshot current;
+        synchronized (this) {
+            current = snapshot;
+            if (current == null || listingsToRefresh.isEmpty()) {
+                return;
+            }
+            markedWhileRefreshing = new ArrayList<>();
+        }
+        try {
+            List<UUID> listingPublicIds = new ArrayList<>();
+            Iterator<UUID> queued = listingsToRefresh.iterator();
+            while (listingPublicIds.size() < REFRESH_BATCH_SIZE && queued.hasNext()) {
+                listingPublicIds.add(queued.next());
+                queued.remove();
+            }
+            List<BookedPeriodDTO> bookedPeriods = refreshTransaction.execute(status -> bookingRepository
+                    .findAllBookedPeriodsByFkListingInMatchWithDate(listingPublicIds, current.getStartDate(),
+                            current.getEndDate()));
+            Map<UUID, List<BookedPeriodDTO>> bookedPeriodsByListing = new HashMap<>();
+            listingPublicIds.forEach(listingPublicId -> bookedPeriodsByListing.put(listingPublicId, new ArrayList<>()));
+            bookedPeriods.forEach(bookedPeriod -> bookedPeriodsByListing.get(bookedPeriod.listingPublicId()).add(bookedPeriod));
+            synchronized (this) {
+                markedWhileRefreshing.stream()
+                        .filter(bookedPeriod -> bookedPeriodsByListing.containsKey(bookedPeriod.listingPublicId()))
+                        .forEach(bookedPeriod -> bookedPeriodsByListing.get(bookedPeriod.listingPublicId()).add(bookedPeriod));
+                bookedPeriodsByListing.forEach((listingPublicId, listingBookedPeriods) ->
+                        apply(rebuilt -> rebuilt.replace(listingPublicId, listingBookedPeriods)));
+            }
+        } finally {
+            synchronized (this) {
+                markedWhileRefreshing = null;
+            }
+        }
+    }
+
+    private synchronized void mark(BookedPeriodDTO bookedPeriod) {
+        apply(current -> current.mark(bookedPeriod));
+        if (markedWhileRefreshing != null) {
+            markedWhileRefreshing.add(bookedPeriod);
+        }
+    }
+
+    private void runAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private synchronized void apply(Consumer<Snapshot> change) {
+        if (snapshot != null) {
+            change.accept(snapshot);
+        }
+        if (pendingChanges != null) {
+            pendingChanges.add(change);
+        }
+    }
+
+    private long getSize() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return 0;
+        }
+        long size = 0;
+        for (BitSet bookedDays : current.bookedDays.values()) {
+            size += ENTRY_OVERHEAD_BYTES + bookedDays.size() / Byte.SIZE;
+        }
+        return size;
+    }
+
+    private double getFalsePositiveRate() {
+        double checks = possiblyBookedChecks.count();
+        return checks == 0 ? 0 : falsePositives.count() / checks;
+    }
+
+    private int getListingCount() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.bookedDays.size();
+    }
+
+    /**
+     * The booked days of the listings over a horizon.
+     */
+    private static final class Snapshot {
+
+        /**
+         * The first day of the horizon, as an epoch day.
+         */
+        private final long firstDay;
+
+        private final int days;
+
+        private final Map<UUID, BitSet> bookedDays = new ConcurrentHashMap<>();
+
+        private Snapshot(long firstDay, int days) {
+            this.firstDay = firstDay;
+            this.days = days;
+        }
+
+        private OffsetDateTime getStartDate() {
+            return LocalDate.ofEpochDay(firstDay).atStartOfDay().atOffset(ZoneOffset.UTC);
+        }
+
+        private OffsetDateTime getEndDate() {
+            return LocalDate.ofEpochDay(firstDay + days).atStartOfDay().atOffset(ZoneOffset.UTC);
+        }
+
+        /**
+         * @return The index of the day of an instant in the horizon, negative if before the horizon.
+         */
+        private int indexOf(OffsetDateTime date) {
+            long day = date.withOffsetSameInstant(ZoneOffset.UTC).toLocalDate().toEpochDay();
+            return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, day - firstDay));
+        }
+
+        private void mark(BookedPeriodDTO bookedPeriod) {
+            BitSet listingBookedDays = bookedDays.computeIfAbsent(bookedPeriod.listingPublicId(), listingPublicId -> new BitSet());
+            synchronized (listingBookedDays) {
+                set(listingBookedDays, bookedPeriod);
+            }
+        }
+
+        /**
+         * Replaces the booked days of a listing at once, so they are never seen partly computed.
+         */
+        private void replace(UUID listingPublicId, List<BookedPeriodDTO> bookedPeriods) {
+            BitSet listingBookedDays = new BitSet();
+            bookedPeriods.forEach(bookedPeriod -> set(listingBookedDays, bookedPeriod));
+            if (listingBookedDays.isEmpty()) {
+                bookedDays.remove(listingPublicId);
+            } else {
+                bookedDays.put(listingPublicId, listingBookedDays);
+            }
+        }
+
+        private void set(BitSet listingBookedDays, BookedPeriodDTO bookedPeriod) {
+            int fromIndex = Math.max(0, indexOf(bookedPeriod.startDate()));
+            int toIndex = Math.min(days, indexOf(bookedPeriod.endDate().minusNanos(1)) + 1);
+            if (fromIndex < toIndex) {
+                listingBookedDays.set(fromIndex, toIndex);
+            }
+        }
+    }
+}
@@ -3,18 +3,30 @@ package com.omar.bookingappback.booking.controller;
 
 import com.omar.bookingappback.booking.dto.BookedDateDTO;
 import com.omar.bookingappback.booking.dto.BookedListingDTO;
+import com.omar.bookingappback.booking.dto.CompactAvailabilityDTO;
+import com.omar.bookingappback.booking.dto.ListingAvailabilityDTO;
+import com.omar.bookingappback.booking.dto.ListingOccupancyDTO;
 import com.omar.bookingappback.booking.dto.NewBookingDTO;
+import com.omar.bookingappback.booking.service.BookingAdmissionService;
 import com.omar.bookingappback.booking.service.BookingService;
+import com.omar.bookingappback.booking.service.ListingOccupancyService;
 import com.omar.bookingappback.config.SecurityUtils;
 import com.omar.bookingappback.shared.state.State;
 import com.omar.bookingappback.shared.state.StatusNotification;
 import jakarta.validation.Valid;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ProblemDetail;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
 import java.util.List;
 import java.util.UUID;
 
@@ -28,10 +40,23 @@ import java.util.UUID;
 @RequestMapping("/api/booking")
 public class BookingController {
 
+    /**
+     * SQLState of an exclusion constraint violation, raised by the database when a booking overlaps
+     * another booking of the same listing.
+     */
+    private static final String EXCLUSION_VIOLATION_SQL_STATE = "23P01";
+
     private final BookingService bookingService;
 
-    public BookingController(BookingService bookingService) {
+    private final BookingAdmissionService bookingAdmissionService;
+
+    private final ListingOccupancyService listingOccupancyService;
+
+    public BookingController(BookingService bookingService, BookingAdmissionService bookingAdmissionService,
+                             ListingOccupancyService listingOccupancyService) {
         this.bookingService = bookingService;
+        this.bookingAdmissionService = bookingAdmissionService;
+        this.listingOccupancyService = listingOccupancyService;
     }
 
     /**
@@ -39,28 +64,109 @@ public class BookingController {
      *
      * @param newBookingDTO The DTO containing details for the new booking.
      * @return A ResponseEntity containing a Boolean indicating the success of the operation.
-     *         If an error occurs during creation, a BAD_REQUEST status and error details are returned.
+     *         If an error occurs during creation, a BAD_REQUEST status and error details are returned,
+     *         including when a concurrent booking of the same dates has been created first.
+     *         If the listing is busy with other bookings for too long, a SERVICE_UNAVAILABLE status
+     *         and a `Retry-After` header are returned.
      */
     @PostMapping("create")
     public ResponseEntity<Boolean> create(@Valid @RequestBody NewBookingDTO newBookingDTO) {
-        State<Void, String> createState = bookingService.create(newBookingDTO);
+        State<Void, String> createState;
+        try {
+            createState = bookingAdmissionService.create(newBookingDTO);
+        } catch (DataIntegrityViolationException dive) {
+            if (!(NestedExceptionUtils.getMostSpecificCause(dive) instanceof SQLException sqlException)
+                    || !EXCLUSION_VIOLATION_SQL_STATE.equals(sqlException.getSQLState())) {
+                throw dive;
+            }
+            createState = State.<Void, String>builder().forError("One booking already exists");
+        }
         if (createState.getStatus().equals(StatusNotification.ERROR)) {
             ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, createState.getError());
             return ResponseEntity.of(problemDetail).build();
+        } else if (createState.getStatus().equals(StatusNotification.UNAVAILABLE)) {
+            ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, createState.getError());
+            return ResponseEntity.of(problemDetail)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(bookingAdmissionService.getRetryAfter().toSeconds()))
+                    .build();
         } else {
             return ResponseEntity.ok(true);
         }
     }
 
     /**
-     * Checks the availability of dates for a specific listing.
+     * Checks the availability of dates for a specific listing over a window of dates.
      *
      * @param listingPublicId The public ID of the listing to check availability for.
-     * @return A ResponseEntity containing a list of booked dates for the specified listing.
+     * @param startDate The start date of the window, today if absent.
+     * @param endDate The end date of the window, the end of the default window of the configuration if absent.
+     * @return A ResponseEntity containing the booked dates of the specified listing within the window,
+     *         overlapping and adjacent bookings being merged, or a BAD_REQUEST status and error details
+     *         if the window is invalid.
      */
     @GetMapping("check-availability")
-    public ResponseEntity<List<BookedDateDTO>> checkAvailability(@RequestParam UUID listingPublicId) {
-        return ResponseEntity.ok(bookingService.checkAvailability(listingPublicId));
+    public ResponseEntity<List<BookedDateDTO>> checkAvailability(
+            @RequestParam UUID listingPublicId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime endDate) {
+        State<List<BookedDateDTO>, String> availabilityState = bookingService
+                .checkAvailability(listingPublicId, startDate, endDate);
+        if (availabilityState.getStatus().equals(StatusNotification.ERROR)) {
+            ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, availabilityState.getError());
+            return ResponseEntity.of(problemDetail).build();
+        } else {
+            return ResponseEntity.ok(availabilityState.getValue());
+        }
+    }
+
+    /**
+     * Checks the availability of dates for a specific listing over a window of dates, in a compact encoding:
+     * a Base64 bitmap of the booked days of the window, whose size only depends on the length of the window.
+     *
+     * @param listingPublicId The public ID of the listing to check availability for.
+     * @param startDate The start date of the window, today if absent.
+     * @param endDate The end date of the window, the end of the default window of the configuration if absent.
+     * @return A ResponseEntity containing the booked days of the specified listing within the window,
+     *         or a BAD_REQUEST status and error details if the window is invalid.
+     */
+    @GetMapping("check-availability-compact")
+    public ResponseEntity<CompactAvailabilityDTO> checkAvailabilityCompact(
+            @RequestParam UUID listingPublicId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime endDate) {
+        State<CompactAvailabilityDTO, String> availabilityState = bookingService
+                .checkAvailabilityCompact(listingPublicId, startDate, endDate);
+        if (availabilityState.getStatus().equals(StatusNotification.ERROR)) {
+            ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, availabilityState.getError());
+            return ResponseEntity.of(problemDetail).build();
+        } else {
+            return ResponseEntity.ok(availabilityState.getValue());
+        }
+    }
+
+    /**
+     * Retrieves the availability calendar of several listings at once, for instance the listings of a page of
+     * search results, over a window of dates.
+     *
+     * @param listingPublicIds The public IDs of the listings.
+     * @param startDate The start date of the window, today if absent.
+     * @param endDate The end date of the window, the end of the default window of the configuration if absent.
+     * @return A ResponseEntity containing the busy ranges of each listing within the window, merged and sorted,
+     *         or a BAD_REQUEST status and error details if too many listings are requested or the window is invalid.
+     */
+    @GetMapping("availability-calendar")
+    public ResponseEntity<List<ListingAvailabilityDTO>> getAvailabilityCalendar(
+            @RequestParam List<UUID> listingPublicIds,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime endDate) {
+        State<List<ListingAvailabilityDTO>, String> calendarState = bookingService
+                .getAvailabilityCalendar(listingPublicIds, startDate, endDate);
+        if (calendarState.getStatus().equals(StatusNotification.ERROR)) {
+            ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, calendarState.getError());
+            return ResponseEntity.of(problemDetail).build();
+        } else {
+            return ResponseEntity.ok(calendarState.getValue());
+        }
     }
 
     /**
@@ -107,6 +213,29 @@ public class BookingController {
         return ResponseEntity.ok(bookingService.getBookedListingForLandlord());
     }
 
+    /**
+     * Retrieves the occupancy rate and the revenue of the listings of the landlord, by month.
+     *
+     * @param fromMonth The first month of the report, formatted as `yyyy-MM`.
+     * @param toMonth The last month of the report, formatted as `yyyy-MM`.
+     * @return A ResponseEntity containing the occupancy of each listing for each month of the range,
+     *         or a BAD_REQUEST status and error details if the range of months is invalid or too long.
+     *         Access to this endpoint is restricted to users with the landlord role.
+     */
+    @GetMapping("get-occupancy-for-landlord")
+    @PreAuthorize("hasAnyRole('" + SecurityUtils.ROLE_LANDLORD + "')")
+    public ResponseEntity<List<ListingOccupancyDTO>> getOccupancyForLandlord(@RequestParam YearMonth fromMonth,
+                                                                             @RequestParam YearMonth toMonth) {
+        State<List<ListingOccupancyDTO>, String> occupancyState = listingOccupancyService
+                .getOccupancyForLandlord(fromMonth, toMonth);
+        if (occupancyState.getStatus().equals(StatusNotification.ERROR)) {
+            ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, occupancyState.getError());
+            return ResponseEntity.of(problemDetail).build();
+        } else {
+            return ResponseEntity.ok(occupancyState.getValue());
+        }
+    }
+
 
 
 
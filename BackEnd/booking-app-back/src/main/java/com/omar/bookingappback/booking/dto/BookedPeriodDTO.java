@@ -0,0 +1,11 @@
+package com.omar.bookingappback.booking.dto;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+public record BookedPeriodDTO(
+        UUID listingPublicId,
+        OffsetDateTime startDate,
+        OffsetDateTime endDate
+) {
+}
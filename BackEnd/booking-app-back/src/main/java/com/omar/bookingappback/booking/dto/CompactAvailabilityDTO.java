@@ -0,0 +1,10 @@
+package com.omar.bookingappback.booking.dto;
+
+import java.time.OffsetDateTime;
+
+public record CompactAvailabilityDTO(
+        OffsetDateTime startDate,
+        int days,
+        String bookedDays
+) {
+}
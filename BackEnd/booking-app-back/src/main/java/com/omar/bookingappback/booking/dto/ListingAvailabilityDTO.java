@@ -0,0 +1,10 @@
+package com.omar.bookingappback.booking.dto;
+
+import java.util.List;
+import java.util.UUID;
+
+public record ListingAvailabilityDTO(
+        UUID listingPublicId,
+        List<BookedDateDTO> bookedDates
+) {
+}
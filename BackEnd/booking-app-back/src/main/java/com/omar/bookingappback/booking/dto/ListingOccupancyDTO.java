@@ -0,0 +1,13 @@
+package com.omar.bookingappback.booking.dto;
+
+import java.time.YearMonth;
+import java.util.UUID;
+
+public record ListingOccupancyDTO(
+        UUID listingPublicId,
+        YearMonth month,
+        int bookedNights,
+        double occupancyRate,
+        long revenue
+) {
+}
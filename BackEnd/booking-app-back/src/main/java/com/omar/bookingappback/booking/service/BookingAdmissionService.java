@@ -0,0 +1,138 @@
+package com.omar.bookingappback.booking.service;
+
+import com.omar.bookingappback.booking.dto.NewBookingDTO;
+import com.omar.bookingappback.shared.state.State;
+import com.omar.bookingappback.shared.state.StatusNotification;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission of the booking creations, in front of {@link BookingService#create(NewBookingDTO)}.
+ *
+ * The creations of the bookings of a listing are serialized through a fixed set of stripes, the listing
+ * public ID selecting the stripe, so a burst of requests for a popular listing is queued on this node
+ * while the other listings are booked in parallel. A request waits for its stripe before its transaction
+ * is opened: queued requests hold no database connection, and a request still queued after the queue
+ * timeout is rejected as unavailable.
+ *
+ * The intervals recently booked through this node are remembered for a short time, see {@link TakenIntervals},
+ * so the requests queued behind a successful booking of the same dates are rejected without querying the database.
+ * The database remains the reference: the exclusion constraint on the booking periods rejects the overlapping
+ * bookings created through other nodes.
+ */
+@Service
+public class BookingAdmissionService {
+
+    private final BookingService bookingService;
+
+    private final TakenIntervals takenIntervals;
+
+    private final Semaphore[] stripes;
+
+    private final Duration queueTimeout;
+
+    private final Duration retryAfter;
+
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+
+    private final Counter takenRejections;
+
+    private final Counter unavailableRejections;
+
+    /**
+     * Constructor for BookingAdmissionService.
+     *
+     * @param bookingService Service creating the bookings.
+     * @param takenIntervals The intervals recently booked through this node.
+     * @param stripes The number of stripes the listings are spread over, fetched from the application's configuration.
+     * @param queueTimeout How long a request waits for its stripe before being rejected,
+     *                     fetched from the application's configuration.
+     * @param retryAfter The delay after which rejected clients are told to retry, fetched from the application's configuration.
+     * @param meterRegistry The registry exposing the metrics of the admission.
+     */
+    public BookingAdmissionService(BookingService bookingService, TakenIntervals takenIntervals,
+                                   @Value("${application.booking-admission.stripes}") int stripes,
+                                   @Value("${application.booking-admission.queue-timeout}") Duration queueTimeout,
+                                   @Value("${application.booking-admission.retry-after}") Duration retryAfter,
+                                   MeterRegistry meterRegistry) {
+        this.bookingService = bookingService;
+        this.takenIntervals = takenIntervals;
+        this.stripes = new Semaphore[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Semaphore(1, true);
+        }
+        this.queueTimeout = queueTimeout;
+        this.retryAfter = retryAfter;
+
+        Gauge.builder("booking.admission.queued.requests", queuedRequests, AtomicInteger::get)
+                .description("Booking requests waiting for their listing").register(meterRegistry);
+        this.takenRejections = Counter.builder("booking.admission.rejected").tag("reason", "taken")
+                .description("Booking requests rejected without querying the database").register(meterRegistry);
+        this.unavailableRejections = Counter.builder("booking.admission.rejected").tag("reason", "unavailable")
+                .description("Booking requests rejected because their listing was busy").register(meterRegistry);
+    }
+
+    /**
+     * Creates a booking once the previous creations for the same listing are done.
+     *
+     * @param newBookingDTO the DTO containing booking details
+     * @return a State indicating the success or failure of the operation, or an unavailable state
+     *         if the listing is still busy after the queue timeout
+     */
+    public State<Void, String> create(NewBookingDTO newBookingDTO) {
+        if (takenIntervals.isTaken(newBookingDTO)) {
+            takenRejections.increment();
+            return State.<Void, String>builder().forError("One booking already exists");
+        }
+
+        Semaphore stripe = stripes[Math.floorMod(newBookingDTO.listingPublicId().hashCode(), stripes.length)];
+        if (!acquire(stripe)) {
+            unavailableRejections.increment();
+            return State.<Void, String>builder().forUnavailable("Too many booking requests for this listing, retry later");
+        }
+        try {
+            // The dates may have been booked by a request queued before this one
+            if (takenIntervals.isTaken(newBookingDTO)) {
+                takenRejections.increment();
+                return State.<Void, String>builder().forError("One booking already exists");
+            }
+            State<Void, String> createState = bookingService.create(newBookingDTO);
+            if (createState.getStatus().equals(StatusNotification.OK)) {
+                takenIntervals.remember(newBookingDTO);
+            }
+            return createState;
+        } finally {
+            stripe.release();
+        }
+    }
+
+    /**
+     * @return the delay after which the clients rejected as unavailable should retry
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    private boolean acquire(Semaphore stripe) {
+        if (stripe.tryAcquire()) {
+            return true;
+        }
+        queuedRequests.incrementAndGet();
+        try {
+            return stripe.tryAcquire(queueTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            queuedRequests.decrementAndGet();
+        }
+    }
+}
@@ -2,8 +2,11 @@ package com.omar.bookingappback.booking.service;
 
 import com.omar.bookingappback.booking.Booking;
 import com.omar.bookingappback.booking.BookingRepository;
+import com.omar.bookingappback.booking.availability.AvailabilityIndex;
 import com.omar.bookingappback.booking.dto.BookedDateDTO;
 import com.omar.bookingappback.booking.dto.BookedListingDTO;
+import com.omar.bookingappback.booking.dto.CompactAvailabilityDTO;
+import com.omar.bookingappback.booking.dto.ListingAvailabilityDTO;
 import com.omar.bookingappback.booking.dto.NewBookingDTO;
 import com.omar.bookingappback.booking.mapper.BookingMapper;
 import com.omar.bookingappback.config.SecurityUtils;
@@ -12,13 +15,28 @@ import com.omar.bookingappback.listing.dto.ListingCreateBookingDTO;
 import com.omar.bookingappback.listing.dto.vo.PriceVO;
 import com.omar.bookingappback.listing.service.LandlordService;
 import com.omar.bookingappback.shared.state.State;
+import com.omar.bookingappback.shared.state.StatusNotification;
 import com.omar.bookingappback.user.dto.ReadUserDTO;
 import com.omar.bookingappback.user.service.UserService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.Period;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -31,10 +49,24 @@ import java.util.UUID;
 @Service
 public class BookingService {
 
+    /**
+     * Maximum number of listings of an availability calendar, bounding the size of the response.
+     */
+    static final int MAX_CALENDAR_LISTINGS = 100;
+
+    /**
+     * Maximum number of days of an availability calendar.
+     */
+    static final int MAX_CALENDAR_DAYS = 366;
+
     private final BookingRepository bookingRepository;
     private final BookingMapper bookingMapper;
     private final UserService userService;
     private final LandlordService landlordService;
+    private final AvailabilityIndex availabilityIndex;
+    private final ListingOccupancyService listingOccupancyService;
+    private final TakenIntervals takenIntervals;
+    private final Period defaultAvailabilityWindow;
 
     /**
      * Constructs a BookingService with the required dependencies.
@@ -43,13 +75,25 @@ public class BookingService {
      * @param bookingMapper the mapper for converting between Booking entities and DTOs
      * @param userService the service for managing user-related operations
      * @param landlordService the service for managing landlord-related operations
+     * @param availabilityIndex the in-memory index of the booked days of the listings
+     * @param listingOccupancyService the service maintaining the monthly occupancy of the listings
+     * @param takenIntervals the intervals recently booked through this node
+     * @param defaultAvailabilityWindow the window of the availability checks without end date,
+     *                                  fetched from the application's configuration
      */
     public BookingService(BookingRepository bookingRepository, BookingMapper bookingMapper,
-                          UserService userService, LandlordService landlordService) {
+                          UserService userService, LandlordService landlordService,
+                          AvailabilityIndex availabilityIndex, ListingOccupancyService listingOccupancyService,
+                          TakenIntervals takenIntervals,
+                          @Value("${application.availability-calendar.default-window}") Period defaultAvailabilityWindow) {
         this.bookingRepository = bookingRepository;
         this.bookingMapper = bookingMapper;
         this.userService = userService;
         this.landlordService = landlordService;
+        this.availabilityIndex = availabilityIndex;
+        this.listingOccupancyService = listingOccupancyService;
+        this.takenIntervals = takenIntervals;
+        this.defaultAvailabilityWindow = defaultAvailabilityWindow;
     }
 
     /**
@@ -58,9 +102,15 @@ public class BookingService {
      * This method performs the following steps:
      * 1. Maps the NewBookingDTO to a Booking entity.
      * 2. Retrieves the corresponding listing to ensure it exists.
-     * 3. Checks if there are already existing bookings for the specified date range.
+     * 3. Checks if there are already existing bookings for the specified date range. The database is only
+     *    queried if the availability index reports the dates as possibly booked: dates known free by the index
+     *    skip the check.
      * 4. Sets the necessary properties on the Booking entity (including total price).
-     * 5. Saves the Booking entity to the repository.
+     * 5. Saves the Booking entity to the repository, and adds it to the monthly occupancy of the listing.
+     *
+     * Two concurrent bookings of the same dates may both pass the check of step 3, and the index may miss
+     * the bookings created through other nodes since it was rebuilt: the database then rejects the overlapping
+     * booking with the exclusion constraint on the booking periods of a listing, when the booking is flushed.
      *
      * @param newBookingDTO the DTO containing booking details
      * @return a State indicating the success or failure of the operation, along with any relevant messages
@@ -68,6 +118,14 @@ public class BookingService {
     @Transactional
     public State<Void, String> create(NewBookingDTO newBookingDTO) {
 
+        if (!newBookingDTO.startDate().isBefore(newBookingDTO.endDate())) {
+            return State.<Void, String>builder().forError("End date must be after start date");
+        }
+        // A day of tolerance for the time zones, the booking must not overlap the archived stays
+        if (newBookingDTO.startDate().isBefore(OffsetDateTime.now().minusDays(1))) {
+            return State.<Void, String>builder().forError("Start date must not be in the past");
+        }
+
         Booking booking = bookingMapper.newBookingToBooking(newBookingDTO);
 
         Optional<ListingCreateBookingDTO> listingOpt = landlordService.getByListingPublicId(newBookingDTO.listingPublicId());
@@ -76,10 +134,12 @@ public class BookingService {
             return State.<Void, String>builder().forError("Landlord public id not found");
         }
 
-        boolean alreadyBooked = bookingRepository.bookingExistsAtInterval(newBookingDTO.startDate(), newBookingDTO.endDate(), newBookingDTO.listingPublicId());
-
-        if (alreadyBooked) {
-            return State.<Void, String>builder().forError("One booking already exists");
+        boolean knownFree = availabilityIndex.isFree(newBookingDTO.listingPublicId(), newBookingDTO.startDate(), newBookingDTO.endDate());
+        if (!knownFree) {
+            if (bookingRepository.bookingExistsAtInterval(newBookingDTO.startDate(), newBookingDTO.endDate(), newBookingDTO.listingPublicId())) {
+                return State.<Void, String>builder().forError("One booking already exists");
+            }
+            availabilityIndex.recordFalsePositives(1);
         }
 
         ListingCreateBookingDTO listingCreateBookingDTO = listingOpt.get();
@@ -91,33 +151,195 @@ public class BookingService {
         long numberOfNights = ChronoUnit.DAYS.between(booking.getStartDate(), booking.getEndDate());
         booking.setTotalPrice((int) (numberOfNights * listingCreateBookingDTO.price().value()));
 
-        bookingRepository.save(booking);
+        try {
+            bookingRepository.saveAndFlush(booking);
+        } catch (DataIntegrityViolationException dive) {
+            if (knownFree) {
+                // Booked through another node since the index was rebuilt
+                availabilityIndex.recordMissedBookings(1);
+            }
+            throw dive;
+        }
+        listingOccupancyService.addBooking(booking);
+        availabilityIndex.markBooked(booking.getFkListing(), booking.getStartDate(), booking.getEndDate());
 
         return State.<Void, String>builder().forSuccess();
 
     }
 
     /**
-     * Checks the availability of bookings for a specific listing.
+     * Checks the availability of bookings for a specific listing over a window of dates.
      *
-     * This method retrieves all bookings associated with the given listing public ID
-     * and maps them to a list of BookedDateDTO objects, which represent the dates
-     * that are booked for the listing.
+     * Only the bookings overlapping the window are retrieved, clipped to the window, and the overlapping
+     * or adjacent ones are merged, so the size of the response is bounded by the window rather than by
+     * the booking history of the listing. Without start date, the window starts today; without end date,
+     * it lasts for the default window of the configuration.
      *
      * @param publicId the public ID of the listing to check for availability
-     * @return a list of BookedDateDTO representing the booked dates for the specified listing
+     * @param startDate the start date of the window, or null to start today
+     * @param endDate the end date of the window, or null to use the default window
+     * @return a State containing the busy ranges of the listing within the window, sorted by start date,
+     *         or an error if the window is invalid
+     */
+    @Transactional(readOnly = true)
+    public State<List<BookedDateDTO>, String> checkAvailability(UUID publicId, OffsetDateTime startDate,
+                                                                OffsetDateTime endDate) {
+        State<List<ListingAvailabilityDTO>, String> calendarState = getAvailabilityCalendar(List.of(publicId),
+                startDate, endDate);
+        if (calendarState.getStatus().equals(StatusNotification.ERROR)) {
+            return State.<List<BookedDateDTO>, String>builder().forError(calendarState.getError());
+        }
+        return State.<List<BookedDateDTO>, String>builder().forSuccess(calendarState.getValue().get(0).bookedDates());
+    }
+
+    /**
+     * Checks the availability of bookings for a specific listing over a window of dates, encoded as a bitmap
+     * of the days of the window, whose size only depends on the length of the window.
+     *
+     * The days of the window start at the time of day of its start date. Bit `i` of the bitmap,
+     * that is bit `i % 8` of byte `i / 8`, is set if the listing is booked at any time of day `i`.
+     * The bitmap is encoded in Base64.
+     *
+     * @param publicId the public ID of the listing to check for availability
+     * @param startDate the start date of the window, or null to start today
+     * @param endDate the end date of the window, or null to use the default window
+     * @return a State containing the booked days of the listing within the window, or an error if the window is invalid
+     */
+    @Transactional(readOnly = true)
+    public State<CompactAvailabilityDTO, String> checkAvailabilityCompact(UUID publicId, OffsetDateTime startDate,
+                                                                          OffsetDateTime endDate) {
+        BookedDateDTO window = resolveAvailabilityWindow(startDate, endDate);
+        State<List<BookedDateDTO>, String> availabilityState = checkAvailability(publicId, window.startDate(),
+                window.endDate());
+        if (availabilityState.getStatus().equals(StatusNotification.ERROR)) {
+            return State.<CompactAvailabilityDTO, String>builder().forError(availabilityState.getError());
+        }
+
+        int days = (int) ceilDays(window.startDate(), window.endDate());
+        BitSet bookedDays = new BitSet(days);
+        for (BookedDateDTO busyRange : availabilityState.getValue()) {
+            bookedDays.set((int) floorDays(window.startDate(), busyRange.startDate()),
+                    (int) ceilDays(window.startDate(), busyRange.endDate()));
+        }
+        byte[] bitmap = Arrays.copyOf(bookedDays.toByteArray(), (days + 7) / 8);
+        return State.<CompactAvailabilityDTO, String>builder()
+                .forSuccess(new CompactAvailabilityDTO(window.startDate(), days, Base64.getEncoder().encodeToString(bitmap)));
+    }
+
+
+    /**
+     * Creates the partitions of the archived bookings needed to archive the bookings of the stays ended before a date.
+     *
+     * @param endedBefore the date before which the stays to archive have ended
+     */
+    @Transactional
+    public void createArchivePartitions(OffsetDateTime endedBefore) {
+        bookingRepository.findAllStartYearsToArchive(endedBefore).forEach(bookingRepository::createArchivePartition);
+    }
+
+    /**
+     * Archives a batch of the bookings of the stays ended before a date, moving them from the partition of the
+     * current bookings to the partitions of the archived bookings, which must have been created first.
+     *
+     * @param endedBefore the date before which the stays to archive have ended
+     * @param batchSize the maximum number of bookings to archive
+     * @return the number of bookings archived
+     */
+    @Transactional
+    public int archive(OffsetDateTime endedBefore, int batchSize) {
+        return bookingRepository.archiveAllEndedBefore(endedBefore, batchSize);
+    }
+
+    /**
+     * Retrieves the availability calendar of several listings over a window of dates, for instance
+     * the listings of a page of search results.
+     *
+     * The bookings of the listings overlapping the window are fetched with a single query, ordered by
+     * listing then by start date. The bookings of each listing are clipped to the window, and the overlapping
+     * or adjacent ones are merged, so each listing gets the minimal list of its busy ranges: the listing is
+     * free over the rest of the window. Without start date, the window starts today; without end date,
+     * it lasts for the default window of the configuration.
+     *
+     * The database is always queried: the availability index misses the bookings created through other nodes
+     * until it is rebuilt, and a calendar showing their dates as free would only lead to rejected bookings.
+     *
+     * @param listingPublicIds the public IDs of the listings, at most {@value #MAX_CALENDAR_LISTINGS}
+     * @param startDate the start date of the window, or null to start today
+     * @param endDate the end date of the window, or null to use the default window
+     * @return a State containing the busy ranges of each requested listing, in the requested order,
+     *         or an error if too many listings are requested or the window is invalid,
+     *         the window being at most {@value #MAX_CALENDAR_DAYS} days long
      */
     @Transactional(readOnly = true)
-    public List<BookedDateDTO> checkAvailability(UUID publicId) {
-        return bookingRepository.findAllByFkListing(publicId)
-                .stream().map(bookingMapper::bookingToCheckAvailability).toList();
+    public State<List<ListingAvailabilityDTO>, String> getAvailabilityCalendar(List<UUID> listingPublicIds,
+                                                                              OffsetDateTime startDate,
+                                                                              OffsetDateTime endDate) {
+        BookedDateDTO window = resolveAvailabilityWindow(startDate, endDate);
+        if (listingPublicIds.isEmpty() || listingPublicIds.size() > MAX_CALENDAR_LISTINGS) {
+            return State.<List<ListingAvailabilityDTO>, String>builder()
+                    .forError(String.format("Between 1 and %d listings must be requested", MAX_CALENDAR_LISTINGS));
+        }
+        if (!window.endDate().isAfter(window.startDate())
+                || window.endDate().isAfter(window.startDate().plusDays(MAX_CALENDAR_DAYS))) {
+            return State.<List<ListingAvailabilityDTO>, String>builder()
+                    .forError(String.format("End date must be after start date and within %d days", MAX_CALENDAR_DAYS));
+        }
+
+        Map<UUID, List<BookedDateDTO>> busyRangesByListing = new LinkedHashMap<>();
+        listingPublicIds.forEach(listingPublicId -> busyRangesByListing.put(listingPublicId, new ArrayList<>()));
+        bookingRepository.findAllBookedPeriodsByFkListingInMatchWithDate(
+                        List.copyOf(busyRangesByListing.keySet()), window.startDate(), window.endDate())
+                .forEach(bookedPeriod -> mergeBusyRange(busyRangesByListing.get(bookedPeriod.listingPublicId()),
+                        bookedPeriod.startDate(), bookedPeriod.endDate(), window));
+
+        List<ListingAvailabilityDTO> calendar = busyRangesByListing.entrySet().stream()
+                .map(busyRanges -> new ListingAvailabilityDTO(busyRanges.getKey(), busyRanges.getValue()))
+                .toList();
+        return State.<List<ListingAvailabilityDTO>, String>builder().forSuccess(calendar);
     }
 
+    /**
+     * Completes the window of an availability check: it starts today at midnight UTC without start date,
+     * and lasts for the default window without end date.
+     */
+    private BookedDateDTO resolveAvailabilityWindow(OffsetDateTime startDate, OffsetDateTime endDate) {
+        OffsetDateTime windowStart = startDate != null ? startDate
+                : OffsetDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+        OffsetDateTime windowEnd = endDate != null ? endDate : windowStart.plus(defaultAvailabilityWindow);
+        return new BookedDateDTO(windowStart, windowEnd);
+    }
+
+    private static long floorDays(OffsetDateTime from, OffsetDateTime to) {
+        return Math.floorDiv(Duration.between(from, to).toSeconds(), Duration.ofDays(1).toSeconds());
+    }
+
+    private static long ceilDays(OffsetDateTime from, OffsetDateTime to) {
+        return -Math.floorDiv(-Duration.between(from, to).toSeconds(), Duration.ofDays(1).toSeconds());
+    }
+
+    /**
+     * Appends a booked period, clipped to the window, to a list of busy ranges sorted by start date,
+     * merging it into the last range if they overlap or are adjacent.
+     */
+    private static void mergeBusyRange(List<BookedDateDTO> busyRanges, OffsetDateTime startDate,
+                                       OffsetDateTime endDate, BookedDateDTO window) {
+        OffsetDateTime clippedStart = startDate.isBefore(window.startDate()) ? window.startDate() : startDate;
+        OffsetDateTime clippedEnd = endDate.isAfter(window.endDate()) ? window.endDate() : endDate;
+        int last = busyRanges.size() - 1;
+        if (last >= 0 && !clippedStart.isAfter(busyRanges.get(last).endDate())) {
+            if (clippedEnd.isAfter(busyRanges.get(last).endDate())) {
+                busyRanges.set(last, new BookedDateDTO(busyRanges.get(last).startDate(), clippedEnd));
+            }
+        } else {
+            busyRanges.add(new BookedDateDTO(clippedStart, clippedEnd));
+        }
+    }
 
     /**
      * Retrieves a list of booked listings for the currently authenticated user.
      * This method gathers the user's bookings and the corresponding listing details
-     * to return a comprehensive view of their booked listings.
+     * to return a comprehensive view of their booked listings. The archived bookings,
+     * stays completed for a while, are left out.
      *
      * @return List of BookedListingDTO containing information about each booked listing.
      */
@@ -127,7 +349,7 @@ public class BookingService {
         ReadUserDTO connectedUser = userService.getAuthenticatedUserFromSecurityContext();
 
         // Retrieve all bookings associated with the authenticated user (tenant)
-        List<Booking> allBookings = bookingRepository.findAllByFkTenant(connectedUser.publicId());
+        List<Booking> allBookings = bookingRepository.findAllByFkTenantAndArchivedFalse(connectedUser.publicId());
 
         // Extract all listing public IDs from the bookings
         List<UUID> allListingPublicIDs = allBookings.stream().map(Booking::getFkListing).toList();
@@ -189,19 +411,25 @@ public class BookingService {
     public State<UUID, String> cancel(UUID bookingPublicId, UUID listingPublicId, boolean byLandlord) {
         // Retrieve the currently authenticated user
         ReadUserDTO connectedUser = userService.getAuthenticatedUserFromSecurityContext();
-        int deleteSuccess = 0;
+        List<Booking> deletedBookings;
 
         // If the current user has the 'ROLE_LANDLORD' authority and the cancellation is by the landlord
         if (SecurityUtils.hasCurrentUserAnyOfAuthorities(SecurityUtils.ROLE_LANDLORD)
                 && byLandlord) {
             // Handle booking deletion for the landlord
-            deleteSuccess = handleDeletionForLandlord(bookingPublicId, listingPublicId, connectedUser, deleteSuccess);
+            deletedBookings = handleDeletionForLandlord(bookingPublicId, listingPublicId, connectedUser);
         } else {
             // Handle booking deletion for the tenant (by the tenant)
-            deleteSuccess = bookingRepository.deleteBookingByFkTenantAndPublicId(connectedUser.publicId(), bookingPublicId);
+            deletedBookings = bookingRepository.deleteBookingByFkTenantAndPublicId(connectedUser.publicId(), bookingPublicId);
         }
+        // Subtract the cancelled bookings from the monthly occupancy of their listing
+        deletedBookings.forEach(listingOccupancyService::removeBooking);
+        // Free the days of the cancelled bookings in the availability index
+        deletedBookings.forEach(booking -> availabilityIndex.refresh(booking.getFkListing()));
+        // Stop rejecting the cancelled dates on this node once the deletion is committed
+        forgetTakenIntervalsAfterCommit(deletedBookings);
         // Return success if the deletion was successful, otherwise return an error state
-        if (deleteSuccess >= 1) {
+        if (!deletedBookings.isEmpty()) {
             return State.<UUID, String>builder().forSuccess(bookingPublicId);
         } else {
             return State.<UUID, String>builder().forError("Booking not found");
@@ -210,6 +438,18 @@ public class BookingService {
     }
 
 
+    private void forgetTakenIntervalsAfterCommit(List<Booking> deletedBookings) {
+        if (deletedBookings.isEmpty()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                deletedBookings.forEach(booking -> takenIntervals.forget(booking.getFkListing()));
+            }
+        });
+    }
+
     /**
      * Handles the deletion of a booking when the request comes from a landlord.
      * Verifies that the listing belongs to the landlord before proceeding with the deletion.
@@ -217,27 +457,25 @@ public class BookingService {
      * @param bookingPublicId   The public ID of the booking to be deleted.
      * @param listingPublicId   The public ID of the listing associated with the booking.
      * @param connectedUser     The authenticated user making the deletion request (landlord).
-     * @param deleteSuccess     An integer representing the result of the deletion operation.
-     * @return An integer indicating the success of the deletion (1 or more for success, 0 for failure).
+     * @return The deleted bookings, empty if the listing doesn't belong to the landlord or the booking doesn't exist.
      */
-    private int handleDeletionForLandlord(UUID bookingPublicId,
-                                          UUID listingPublicId,
-                                          ReadUserDTO connectedUser,
-                                          int deleteSuccess)
+    private List<Booking> handleDeletionForLandlord(UUID bookingPublicId,
+                                                    UUID listingPublicId,
+                                                    ReadUserDTO connectedUser)
     {
         // Verify if the listing exists and belongs to the currently authenticated landlord
         Optional<DisplayCardListingDTO> listingVerificationOpt = landlordService.getByPublicIdAndLandlordPublicId(listingPublicId, connectedUser.publicId());
         // If the listing exists, proceed to delete the booking associated with the listing
         if (listingVerificationOpt.isPresent()) {
-            deleteSuccess = bookingRepository.deleteBookingByPublicIdAndFkListing(bookingPublicId, listingVerificationOpt.get().publicId());
+            return bookingRepository.deleteBookingByPublicIdAndFkListing(bookingPublicId, listingVerificationOpt.get().publicId());
         }
-        return deleteSuccess;
+        return List.of();
     }
 
     /**
      * Retrieves all booked listings for the currently authenticated landlord.
-     * This method finds all properties owned by the landlord and fetches all bookings
-     * associated with these properties.
+     * This method finds all properties owned by the landlord and fetches all the current bookings
+     * associated with these properties, the archived bookings being left out.
      *
      * @return A list of booked listings (`BookedListingDTO`) associated with the landlord's properties.
      */
@@ -253,27 +491,9 @@ public class BookingService {
                 .map(DisplayCardListingDTO::publicId)
                 .toList();
         // Fetch all bookings associated with the landlord's properties
-        List<Booking> allBookings = bookingRepository.findAllByFkListingIn(allPropertyPublicIds);
+        List<Booking> allBookings = bookingRepository.findAllByFkListingInAndArchivedFalse(allPropertyPublicIds);
         // Map the bookings to booked listings and return them
         return mapBookingToBookedListing(allBookings, allProperties);
     }
 
-    /**
-     * Gets the IDs of bookings that match the specified listings and booked date range.
-     *
-     * This method utilizes the `findAllMatchWithDate` repository method to find all
-     * bookings that overlap with the provided booked date range and maps the results
-     * to their corresponding listing IDs.
-     *
-     * @param listingsId The list of listing IDs to check for overlapping bookings.
-     * @param bookedDateDTO The booked date range containing start and end dates.
-     * @return A list of listing IDs that have bookings overlapping with the specified date range.
-     */
-    public List<UUID> getBookingMatchByListingIdsAndBookedDate(List<UUID> listingsId, BookedDateDTO bookedDateDTO) {
-        return bookingRepository.findAllMatchWithDate(listingsId, bookedDateDTO.startDate(), bookedDateDTO.endDate())
-                .stream()
-                .map(Booking::getFkListing)
-                .toList();
-    }
-
 }
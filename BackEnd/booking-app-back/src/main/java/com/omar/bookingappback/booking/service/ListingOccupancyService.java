@@ -0,0 +1,195 @@
+package com.omar.bookingappback.booking.service;
+
+import com.omar.bookingappback.booking.Booking;
+import com.omar.bookingappback.booking.ListingOccupancy;
+import com.omar.bookingappback.booking.ListingOccupancyRepository;
+import com.omar.bookingappback.booking.dto.ListingOccupancyDTO;
+import com.omar.bookingappback.listing.dto.DisplayCardListingDTO;
+import com.omar.bookingappback.listing.service.LandlordService;
+import com.omar.bookingappback.shared.state.State;
+import com.omar.bookingappback.user.dto.ReadUserDTO;
+import com.omar.bookingappback.user.service.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Service class maintaining the occupancy and the revenue of the listings by month.
+ *
+ * The aggregates are updated in the transactions creating and cancelling the bookings, so the analytics of
+ * a landlord read a row per listing and month instead of the bookings. The reconciliation job rebuilds them
+ * from the bookings, correcting any drift, for instance after bookings deleted outside of the cancellations.
+ *
+ * The job runs on a single node at a time, and rebuilds the aggregates of one listing per transaction, so the
+ * bookings of a listing only wait for the rebuild of its own aggregates.
+ */
+@Service
+public class ListingOccupancyService {
+
+    private static final Logger log = LoggerFactory.getLogger(ListingOccupancyService.class);
+
+    /**
+     * Maximum number of months of an occupancy report, bounding the size of the response.
+     */
+    static final int MAX_REPORT_MONTHS = 36;
+
+    /**
+     * Number of listings whose public IDs are read at once by the reconciliation job.
+     */
+    private static final int RECONCILIATION_PAGE_SIZE = 500;
+
+    private final ListingOccupancyRepository listingOccupancyRepository;
+    private final UserService userService;
+    private final LandlordService landlordService;
+    private final TransactionTemplate reconciliationTransaction;
+    private final TransactionTemplate listingReconciliationTransaction;
+
+    /**
+     * Constructs a ListingOccupancyService with the required dependencies.
+     *
+     * @param listingOccupancyRepository the repository of the monthly aggregates of the listings
+     * @param userService the service for managing user-related operations
+     * @param landlordService the service for managing landlord-related operations
+     * @param transactionManager the transaction manager of the reconciliation job
+     */
+    public ListingOccupancyService(ListingOccupancyRepository listingOccupancyRepository,
+                                   UserService userService, LandlordService landlordService,
+                                   PlatformTransactionManager transactionManager) {
+        this.listingOccupancyRepository = listingOccupancyRepository;
+        this.userService = userService;
+        this.landlordService = landlordService;
+        this.reconciliationTransaction = new TransactionTemplate(transactionManager);
+        this.listingReconciliationTransaction = new TransactionTemplate(transactionManager);
+        this.listingReconciliationTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Adds a new booking to the aggregates of the months of its stay, in the transaction creating the booking.
+     *
+     * @param booking the booking created
+     */
+    public void addBooking(Booking booking) {
+        addStay(booking, 1);
+    }
+
+    /**
+     * Subtracts a cancelled booking from the aggregates of the months of its stay, in the transaction
+     * deleting the booking.
+     *
+     * @param booking the booking cancelled
+     */
+    public void removeBooking(Booking booking) {
+        addStay(booking, -1);
+    }
+
+    private void addStay(Booking booking, int sign) {
+        int nights = (int) ChronoUnit.DAYS.between(booking.getStartDate(), booking.getEndDate());
+        if (nights > 0) {
+            listingOccupancyRepository.addStay(booking.getFkListing(), booking.getStartDate(), nights,
+                    booking.getTotalPrice(), sign);
+        }
+    }
+
+    /**
+     * Retrieves the occupancy and the revenue of the listings of the authenticated landlord, by month.
+     *
+     * Every month of the range is reported for every listing, the months without bookings with no booked night.
+     * The occupancy rate is the share of the nights of the month that are booked.
+     *
+     * @param fromMonth the first month of the report
+     * @param toMonth   the last month of the report
+     * @return a State containing the occupancy of each listing and month, ordered by listing then by month,
+     *         or an error if the range of months is invalid or too long
+     */
+    public State<List<ListingOccupancyDTO>, String> getOccupancyForLandlord(YearMonth fromMonth, YearMonth toMonth) {
+        if (fromMonth.isAfter(toMonth)) {
+            return State.<List<ListingOccupancyDTO>, String>builder().forError("Last month must not be before first month");
+        }
+        if (fromMonth.until(toMonth, ChronoUnit.MONTHS) >= MAX_REPORT_MONTHS) {
+            return State.<List<ListingOccupancyDTO>, String>builder()
+                    .forError(String.format("Report must not exceed %d months", MAX_REPORT_MONTHS));
+        }
+
+        ReadUserDTO connectedUser = userService.getAuthenticatedUserFromSecurityContext();
+        List<UUID> allPropertyPublicIds = landlordService.getAllProperties(connectedUser)
+                .stream()
+                .map(DisplayCardListingDTO::publicId)
+                .toList();
+        if (allPropertyPublicIds.isEmpty()) {
+            return State.<List<ListingOccupancyDTO>, String>builder().forSuccess(List.of());
+        }
+
+        Map<String, ListingOccupancy> occupancies = listingOccupancyRepository
+                .findAllByFkListingInAndMonthBetween(allPropertyPublicIds, fromMonth.atDay(1), toMonth.atDay(1))
+                .stream()
+                .collect(Collectors.toMap(occupancy -> occupancy.getFkListing() + "-" + YearMonth.from(occupancy.getMonth()),
+                        Function.identity()));
+
+        List<ListingOccupancyDTO> report = new ArrayList<>();
+        for (UUID listingPublicId : allPropertyPublicIds) {
+            for (YearMonth month = fromMonth; !month.isAfter(toMonth); month = month.plusMonths(1)) {
+                ListingOccupancy occupancy = occupancies.get(listingPublicId + "-" + month);
+                int bookedNights = occupancy != null ? occupancy.getBookedNights() : 0;
+                long revenue = occupancy != null ? occupancy.getRevenue() : 0;
+                report.add(new ListingOccupancyDTO(listingPublicId, month, bookedNights,
+                        (double) bookedNights / month.lengthOfMonth(), revenue));
+            }
+        }
+        return State.<List<ListingOccupancyDTO>, String>builder().forSuccess(report);
+    }
+
+    /**
+     * Rebuilds the aggregates from all the bookings, periodically, listing by listing.
+     *
+     * The lock of the job is held by a transaction lasting for the whole job, and each listing is rebuilt in its
+     * own transaction, locking the listing: the bookings of the listing created or cancelled meanwhile wait for
+     * the end of the rebuild of its aggregates. The job is skipped if it is already running on another node.
+     */
+    @Scheduled(initialDelayString = "${application.listing-occupancy.reconciliation-initial-delay}",
+            fixedDelayString = "${application.listing-occupancy.reconciliation-delay}")
+    public void reconcile() {
+        reconciliationTransaction.executeWithoutResult(status -> {
+            if (!listingOccupancyRepository.tryLockReconciliation()) {
+                log.debug("Occupancy reconciliation already running on another node");
+                return;
+            }
+            int listings = 0;
+            int rebuilt = 0;
+            List<UUID> listingPublicIds;
+            UUID after = new UUID(0, 0);
+            do {
+                listingPublicIds = listingOccupancyRepository.findAllListingPublicIdsAfter(after, RECONCILIATION_PAGE_SIZE);
+                for (UUID listingPublicId : listingPublicIds) {
+                    rebuilt += listingReconciliationTransaction.execute(listingStatus -> reconcileListing(listingPublicId));
+                    listings++;
+                }
+                if (!listingPublicIds.isEmpty()) {
+                    after = listingPublicIds.get(listingPublicIds.size() - 1);
+                }
+            } while (listingPublicIds.size() == RECONCILIATION_PAGE_SIZE);
+            log.info("Rebuilt {} monthly occupancy aggregates of {} listings", rebuilt, listings);
+        });
+    }
+
+    private int reconcileListing(UUID listingPublicId) {
+        if (listingOccupancyRepository.lockListing(listingPublicId).isEmpty()) {
+            // Deleted meanwhile, along with its aggregates
+            return 0;
+        }
+        listingOccupancyRepository.deleteAllByFkListing(listingPublicId);
+        return listingOccupancyRepository.rebuildByFkListing(listingPublicId);
+    }
+}
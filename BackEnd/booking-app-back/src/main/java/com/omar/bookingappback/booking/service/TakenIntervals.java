@@ -0,0 +1,109 @@
+package com.omar.bookingappback.booking.service;
+
+import com.omar.bookingappback.booking.dto.NewBookingDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Intervals recently booked through this node, remembered for a short time by listing public ID so
+ * {@link BookingAdmissionService} rejects the requests for the same dates without querying the database.
+ *
+ * The intervals are node-local: a booking cancelled through another node is only forgotten there, and
+ * this node keeps rejecting its dates until the interval expires, at most the time to live after the booking.
+ */
+@Component
+public class TakenIntervals {
+
+    private final Duration ttl;
+
+    private final Map<UUID, List<TakenInterval>> takenIntervals = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for TakenIntervals.
+     *
+     * @param ttl How long a booked interval is remembered to reject the requests for the same dates,
+     *            fetched from the application's configuration.
+     */
+    public TakenIntervals(@Value("${application.booking-admission.taken-interval-ttl}") Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Remembers the interval of a booking created through this node.
+     *
+     * @param newBookingDTO the DTO containing the details of the created booking
+     */
+    public void remember(NewBookingDTO newBookingDTO) {
+        TakenInterval takenInterval = new TakenInterval(newBookingDTO.startDate(), newBookingDTO.endDate(),
+                Instant.now().plus(ttl));
+        takenIntervals.compute(newBookingDTO.listingPublicId(), (listingPublicId, intervals) -> {
+            List<TakenInterval> updatedIntervals = intervals != null ? intervals : new ArrayList<>();
+            synchronized (updatedIntervals) {
+                updatedIntervals.add(takenInterval);
+            }
+            return updatedIntervals;
+        });
+    }
+
+    /**
+     * @param newBookingDTO the DTO containing the details of the requested booking
+     * @return whether the requested dates overlap an interval recently booked through this node
+     */
+    public boolean isTaken(NewBookingDTO newBookingDTO) {
+        List<TakenInterval> intervals = takenIntervals.get(newBookingDTO.listingPublicId());
+        if (intervals == null) {
+            return false;
+        }
+        Instant now = Instant.now();
+        synchronized (intervals) {
+            return intervals.stream().anyMatch(interval -> interval.expiresAt().isAfter(now)
+                    && interval.startDate().isBefore(newBookingDTO.endDate())
+                    && interval.endDate().isAfter(newBookingDTO.startDate()));
+        }
+    }
+
+    /**
+     * Forgets the intervals recently booked for a listing, once one of its bookings has been cancelled.
+     *
+     * @param listingPublicId the public ID of the listing
+     */
+    public void forget(UUID listingPublicId) {
+        takenIntervals.remove(listingPublicId);
+    }
+
+    /**
+     * Discards the booked intervals remembered for longer than their time to live.
+     */
+    @Scheduled(fixedDelayString = "${application.booking-admission.taken-interval-ttl}")
+    public void purgeExpired() {
+        Instant now = Instant.now();
+        for (UUID listingPublicId : takenIntervals.keySet()) {
+            takenIntervals.computeIfPresent(listingPublicId, (id, intervals) -> {
+                synchronized (intervals) {
+                    intervals.removeIf(interval -> interval.expiresAt().isBefore(now));
+                    return intervals.isEmpty() ? null : intervals;
+                }
+            });
+        }
+    }
+
+    /**
+     * An interval booked through this node.
+     *
+     * @param startDate The start date of the booking.
+     * @param endDate The end date of the booking.
+     * @param expiresAt The instant until which the interval is remembered.
+     */
+    private record TakenInterval(OffsetDateTime startDate, OffsetDateTime endDate, Instant expiresAt) {
+    }
+}
@@ -0,0 +1,29 @@
+package com.omar.bookingappback.config;
+
+import org.hibernate.boot.model.FunctionContributions;
+import org.hibernate.boot.model.FunctionContributor;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * Registers the SQL functions used by the JPQL queries on bookings.
+ *
+ * Registered through `META-INF/services`, as Hibernate loads its function contributors with the ServiceLoader.
+ */
+public class BookingFunctionContributor implements FunctionContributor {
+
+    /**
+     * `periods_overlap(start1, end1, start2, end2)`: whether the half-open periods `[start1, end1)`
+     * and `[start2, end2)` overlap.
+     *
+     * It is rendered with the same `tstzrange` expression as the exclusion constraint of the booking table,
+     * so the overlap checks on bookings are index lookups in the GiST index backing the constraint.
+     */
+    public static final String PERIODS_OVERLAP = "periods_overlap";
+
+    @Override
+    public void contributeFunctions(FunctionContributions functionContributions) {
+        functionContributions.getFunctionRegistry().registerPattern(PERIODS_OVERLAP,
+                "(tstzrange(?1, ?2, '[)') && tstzrange(?3, ?4, '[)'))",
+                functionContributions.getTypeConfiguration().getBasicTypeRegistry().resolve(StandardBasicTypes.BOOLEAN));
+    }
+}
@@ -3,12 +3,18 @@ package com.omar.bookingappback.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.config.annotation.web.configurers.RequestCacheConfigurer;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper;
+import org.springframework.security.oauth2.client.web.HttpSessionOAuth2AuthorizedClientRepository;
+import org.springframework.security.oauth2.client.web.OAuth2AuthorizedClientRepository;
 import org.springframework.security.oauth2.core.OAuth2Error;
 import org.springframework.security.oauth2.core.OAuth2TokenValidator;
 import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
@@ -30,12 +36,44 @@ import java.util.Set;
  *
  * This class sets up security for the application, enabling OAuth2 login, JWT-based
  * resource server support, CSRF protection, and custom mapping of authorities.
+ *
+ * No authentication state is kept in the memory of a node: the browser logins live in the HTTP session,
+ * stored in the database by Spring Session, and the API clients send a bearer JWT validated on each request.
+ * Any node can thus serve any request, without sticky sessions, and a restart doesn't drop the logins.
  */
 @Configuration
 @EnableMethodSecurity
 public class SecurityConfiguration {
 
 
+    /**
+     * Configures the security filter chain of the public picture delivery endpoint.
+     *
+     * Pictures are served to anonymous users and cached by browsers and shared caches, so this chain
+     * is stateless and skips CSRF protection: the responses must not set any session or CSRF cookie,
+     * which would make them uncacheable.
+     *
+     * @param http The HttpSecurity object used to configure security settings.
+     * @return A SecurityFilterChain instance.
+     * @throws Exception If an error occurs during configuration.
+     */
+    @Bean
+    @Order(1)
+    public SecurityFilterChain configurePictures(HttpSecurity http) throws Exception {
+        http.securityMatcher("api/pictures/**")
+                .authorizeHttpRequests(authorize -> authorize
+                        .requestMatchers(HttpMethod.GET, "api/pictures/*").permitAll()
+                        .requestMatchers(HttpMethod.HEAD, "api/pictures/*").permitAll()
+                        .anyRequest()
+                        .denyAll())
+                .csrf(AbstractHttpConfigurer::disable)
+                .requestCache(RequestCacheConfigurer::disable)
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS));
+
+        return http.build();
+    }
+
+
     /**
      * Configures the security filter chain for handling HTTP security, including
      * authorization, CSRF protection, and OAuth2 login.
@@ -54,7 +92,10 @@ public class SecurityConfiguration {
                         .requestMatchers(HttpMethod.GET, "api/tenant-listing/get-all-by-category").permitAll()
                         .requestMatchers(HttpMethod.GET, "api/tenant-listing/get-one").permitAll()
                         .requestMatchers(HttpMethod.POST, "api/tenant-listing/search").permitAll()
+                        .requestMatchers(HttpMethod.POST, "api/tenant-listing/search-flexible").permitAll()
                         .requestMatchers(HttpMethod.GET, "api/booking/check-availability").permitAll()
+                        .requestMatchers(HttpMethod.GET, "api/booking/check-availability-compact").permitAll()
+                        .requestMatchers(HttpMethod.GET, "api/booking/availability-calendar").permitAll()
                         .requestMatchers(HttpMethod.GET, "assets/*").permitAll()
                         .anyRequest()
                         .authenticated())
@@ -71,6 +112,17 @@ public class SecurityConfiguration {
 
 
 
+    /**
+     * Keeps the authorized clients of the OAuth2 login in the HTTP session, shared by all the nodes,
+     * instead of the memory of the node where the user logged in.
+     *
+     * @return An OAuth2AuthorizedClientRepository storing the authorized clients in the HTTP session.
+     */
+    @Bean
+    public OAuth2AuthorizedClientRepository authorizedClientRepository() {
+        return new HttpSessionOAuth2AuthorizedClientRepository();
+    }
+
     /**
      * Customizes the mapping of authorities for OAuth2 users.
      *
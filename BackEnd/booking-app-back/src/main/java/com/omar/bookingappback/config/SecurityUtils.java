@@ -6,6 +6,7 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 
 
@@ -76,6 +77,22 @@ public class SecurityUtils {
         return user;
     }
 
+    /**
+     * Retrieves the claims of the authenticated user, whether they logged in through the browser
+     * or sent a bearer JWT.
+     *
+     * @param authentication The Authentication object.
+     * @return The attributes of the OAuth2 user or the claims of the JWT, or an empty map for other authentications.
+     */
+    public static Map<String, Object> getClaims(Authentication authentication) {
+        if (authentication instanceof JwtAuthenticationToken jwtAuthenticationToken) {
+            return jwtAuthenticationToken.getToken().getClaims();
+        } else if (authentication != null && authentication.getPrincipal() instanceof OAuth2User oAuth2User) {
+            return oAuth2User.getAttributes();
+        }
+        return Map.of();
+    }
+
     /**
      * Extracts authorities (roles) from JWT claims.
      *
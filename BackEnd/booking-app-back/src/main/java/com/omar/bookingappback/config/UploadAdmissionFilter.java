@@ -0,0 +1,160 @@
+package com.omar.bookingappback.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control of the picture upload requests.
+ *
+ * The upload requests in flight on this node share a budget of bytes, each request reserving its
+ * `Content-Length` (or the maximum request size when its length is unknown) until it is fully processed,
+ * pictures included. A request that doesn't fit in the budget waits for the requests in flight to complete,
+ * and is rejected with HTTP 503 (SERVICE_UNAVAILABLE) and a `Retry-After` header if it still doesn't fit
+ * after the queue timeout. Bursts of uploads are thus spread over time instead of competing for memory,
+ * disk and CPU with the rest of the traffic.
+ *
+ * Runs after the security filter chain, so only authenticated uploads reserve bytes.
+ */
+@Component
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+
+    /**
+     * The budget is accounted in KiB, so that large budgets fit in the permits of a semaphore.
+     */
+    private static final int UNIT = 1024;
+
+    private final Semaphore budget;
+
+    private final int maxPermits;
+
+    private final long maxRequestPermits;
+
+    private final Duration queueTimeout;
+
+    private final Duration retryAfter;
+
+    private final ObjectMapper objectMapper;
+
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+
+    private final Counter rejectedRequests;
+
+    /**
+     * Constructor for UploadAdmissionFilter.
+     *
+     * @param maxInFlight The total size of the upload requests in flight, fetched from the application's configuration.
+     * @param maxRequestSize The size reserved for an upload request of unknown length, fetched from the application's configuration.
+     * @param queueTimeout How long a request waits for room in the budget before being rejected,
+     *                     fetched from the application's configuration.
+     * @param retryAfter The delay after which rejected clients are told to retry, fetched from the application's configuration.
+     * @param objectMapper Mapper writing the error responses.
+     * @param meterRegistry The registry exposing the metrics of the admission control.
+     */
+    public UploadAdmissionFilter(@Value("${application.upload-admission.max-in-flight}") DataSize maxInFlight,
+                                 @Value("${spring.servlet.multipart.max-request-size}") DataSize maxRequestSize,
+                                 @Value("${application.upload-admission.queue-timeout}") Duration queueTimeout,
+                                 @Value("${application.upload-admission.retry-after}") Duration retryAfter,
+                                 ObjectMapper objectMapper,
+                                 MeterRegistry meterRegistry) {
+        this.maxPermits = (int) Math.min(Integer.MAX_VALUE, maxInFlight.toBytes() / UNIT);
+        this.budget = new Semaphore(maxPermits, true);
+        this.maxRequestPermits = toPermits(maxRequestSize.toBytes());
+        this.queueTimeout = queueTimeout;
+        this.retryAfter = retryAfter;
+        this.objectMapper = objectMapper;
+
+        Gauge.builder("upload.admission.in-flight.bytes", inFlightBytes, AtomicLong::get).baseUnit("bytes")
+                .description("Bytes reserved by the upload requests in flight").register(meterRegistry);
+        Gauge.builder("upload.admission.in-flight.requests", inFlightRequests, AtomicInteger::get)
+                .description("Upload requests in flight").register(meterRegistry);
+        Gauge.builder("upload.admission.queued.requests", queuedRequests, AtomicInteger::get)
+                .description("Upload requests waiting for room in the budget").register(meterRegistry);
+        this.rejectedRequests = Counter.builder("upload.admission.rejected")
+                .description("Upload requests rejected because the budget was exhausted").register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !(HttpMethod.POST.matches(request.getMethod()) && path.equals("/api/landlord-listing/create"))
+                && !(HttpMethod.PUT.matches(request.getMethod()) && path.startsWith("/api/picture-uploads/"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long contentLength = request.getContentLengthLong();
+        int permits = (int) Math.min(maxPermits, contentLength < 0 ? maxRequestPermits : toPermits(contentLength));
+
+        if (!acquire(permits)) {
+            rejectedRequests.increment();
+            reject(request, response);
+            return;
+        }
+        inFlightBytes.addAndGet((long) permits * UNIT);
+        inFlightRequests.incrementAndGet();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            inFlightRequests.decrementAndGet();
+            inFlightBytes.addAndGet(-(long) permits * UNIT);
+            budget.release(permits);
+        }
+    }
+
+    private boolean acquire(int permits) {
+        if (budget.tryAcquire(permits)) {
+            return true;
+        }
+        queuedRequests.incrementAndGet();
+        try {
+            return budget.tryAcquire(permits, queueTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            queuedRequests.decrementAndGet();
+        }
+    }
+
+    private void reject(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE,
+                "Too many uploads in progress, retry later");
+        problemDetail.setInstance(URI.create(request.getRequestURI()));
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter.toSeconds()));
+        response.setContentType(MediaType.APPLICATION_PROBLEM_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), problemDetail);
+    }
+
+    private static long toPermits(long bytes) {
+        return (bytes + UNIT - 1) / UNIT;
+    }
+}
@@ -2,9 +2,10 @@ package com.omar.bookingappback.listing;
 
 import com.omar.bookingappback.shared.AbstractAuditingEntity;
 import jakarta.persistence.*;
+import org.hibernate.annotations.UuidGenerator;
 
-import java.util.Arrays;
 import java.util.Objects;
+import java.util.UUID;
 
 
 @Entity
@@ -18,13 +19,25 @@ public class ListingPicture extends AbstractAuditingEntity<Long> {
     @Column(name = "id")
     private Long id;
 
+    @UuidGenerator
+    @Column(name = "public_id", nullable = false)
+    private UUID publicId;
+
     @ManyToOne
     @JoinColumn(name = "listing_fk", referencedColumnName = "id")
     private Listing listing;
 
-    @Lob
-    @Column(name = "file", nullable = false)
-    private byte[] file;
+    @Column(name = "content_digest", length = 64)
+    private String contentDigest;
+
+    @Column(name = "storage_key")
+    private String storageKey;
+
+    @Column(name = "card_storage_key")
+    private String cardStorageKey;
+
+    @Column(name = "thumbnail_storage_key")
+    private String thumbnailStorageKey;
 
     @Column(name = "file_content_type")
     private String fileContentType;
@@ -32,23 +45,32 @@ public class ListingPicture extends AbstractAuditingEntity<Long> {
     @Column(name = "is_cover")
     private boolean isCover;
 
+    /**
+     * Pictures are equal if they are the same row: pictures sharing their content are distinct pictures,
+     * each one holding its own reference to the stored variants. A picture not persisted yet is only
+     * equal to itself.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ListingPicture that = (ListingPicture) o;
-        return isCover == that.isCover && Objects.deepEquals(file, that.file) && Objects.equals(fileContentType, that.fileContentType);
+        return id != null && Objects.equals(id, that.id);
     }
 
+    /**
+     * Constant, so the hash code of a picture doesn't change once it is persisted and gets its ID.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(Arrays.hashCode(file), fileContentType, isCover);
+        return getClass().hashCode();
     }
 
     @Override
     public String toString() {
         return "ListingPicture{" +
-                "file=" + Arrays.toString(file) +
+                "contentDigest='" + contentDigest + '\'' +
+                ", storageKey='" + storageKey + '\'' +
                 ", fileContentType='" + fileContentType + '\'' +
                 ", isCover=" + isCover +
                 '}';
@@ -64,6 +86,14 @@ public class ListingPicture extends AbstractAuditingEntity<Long> {
         this.id = id;
     }
 
+    public UUID getPublicId() {
+        return publicId;
+    }
+
+    public void setPublicId(UUID publicId) {
+        this.publicId = publicId;
+    }
+
     public Listing getListing() {
         return listing;
     }
@@ -72,12 +102,36 @@ public class ListingPicture extends AbstractAuditingEntity<Long> {
         this.listing = listing;
     }
 
-    public byte[] getFile() {
-        return file;
+    public String getContentDigest() {
+        return contentDigest;
+    }
+
+    public void setContentDigest(String contentDigest) {
+        this.contentDigest = contentDigest;
+    }
+
+    public String getStorageKey() {
+        return storageKey;
+    }
+
+    public void setStorageKey(String storageKey) {
+        this.storageKey = storageKey;
+    }
+
+    public String getCardStorageKey() {
+        return cardStorageKey;
+    }
+
+    public void setCardStorageKey(String cardStorageKey) {
+        this.cardStorageKey = cardStorageKey;
+    }
+
+    public String getThumbnailStorageKey() {
+        return thumbnailStorageKey;
     }
 
-    public void setFile(byte[] file) {
-        this.file = file;
+    public void setThumbnailStorageKey(String thumbnailStorageKey) {
+        this.thumbnailStorageKey = thumbnailStorageKey;
     }
 
     public String getFileContentType() {
@@ -0,0 +1,64 @@
+package com.omar.bookingappback.listing;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Reference count of the stored variants of a picture, identified by the SHA-256 digest of the uploaded content.
+ *
+ * All the ListingPicture entities sharing the same content digest share the same stored variants,
+ * which are deleted from the picture storage once the last of them is deleted.
+ */
+@Entity
+@Table(name = "picture_blob")
+public class PictureBlob implements Serializable {
+
+    @Id
+    @Column(name = "content_digest", length = 64)
+    private String contentDigest;
+
+    @Column(name = "reference_count", nullable = false)
+    private int referenceCount;
+
+    public String getContentDigest() {
+        return contentDigest;
+    }
+
+    public void setContentDigest(String contentDigest) {
+        this.contentDigest = contentDigest;
+    }
+
+    public int getReferenceCount() {
+        return referenceCount;
+    }
+
+    public void setReferenceCount(int referenceCount) {
+        this.referenceCount = referenceCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PictureBlob that = (PictureBlob) o;
+        return Objects.equals(contentDigest, that.contentDigest);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(contentDigest);
+    }
+
+    @Override
+    public String toString() {
+        return "PictureBlob{" +
+                "contentDigest='" + contentDigest + '\'' +
+                ", referenceCount=" + referenceCount +
+                '}';
+    }
+}
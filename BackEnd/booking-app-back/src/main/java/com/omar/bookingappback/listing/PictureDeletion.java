@@ -0,0 +1,65 @@
+package com.omar.bookingappback.listing;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * A stored picture variant waiting to be deleted from the picture storage.
+ *
+ * Deleting a listing only records the storage keys of its pictures, the content is reclaimed
+ * in the background once no remaining picture references it.
+ */
+@Entity
+@Table(name = "picture_deletion")
+public class PictureDeletion implements Serializable {
+
+    @Id
+    @Column(name = "storage_key")
+    private String storageKey;
+
+    @Column(name = "requested_date", nullable = false)
+    private Instant requestedDate;
+
+    public String getStorageKey() {
+        return storageKey;
+    }
+
+    public void setStorageKey(String storageKey) {
+        this.storageKey = storageKey;
+    }
+
+    public Instant getRequestedDate() {
+        return requestedDate;
+    }
+
+    public void setRequestedDate(Instant requestedDate) {
+        this.requestedDate = requestedDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PictureDeletion that = (PictureDeletion) o;
+        return Objects.equals(storageKey, that.storageKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(storageKey);
+    }
+
+    @Override
+    public String toString() {
+        return "PictureDeletion{" +
+                "storageKey='" + storageKey + '\'' +
+                ", requestedDate=" + requestedDate +
+                '}';
+    }
+}
@@ -0,0 +1,102 @@
+package com.omar.bookingappback.listing;
+
+import com.omar.bookingappback.shared.AbstractAuditingEntity;
+import jakarta.persistence.*;
+import org.hibernate.annotations.UuidGenerator;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A resumable picture upload session.
+ *
+ * The picture is uploaded in chunks appended to a file of the upload directory, the number of bytes
+ * received so far is the size of this file. Once complete, the upload is attached to a listing at its creation.
+ */
+@Entity
+@Table(name = "picture_upload")
+public class PictureUpload extends AbstractAuditingEntity<Long> {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pictureUploadSequenceGenerator")
+    @SequenceGenerator(name = "pictureUploadSequenceGenerator", sequenceName = "picture_upload_generator", allocationSize = 1)
+    @Column(name = "id")
+    private Long id;
+
+    @UuidGenerator
+    @Column(name = "public_id", nullable = false)
+    private UUID publicId;
+
+    @Column(name = "owner_public_id", nullable = false)
+    private UUID ownerPublicId;
+
+    @Column(name = "file_content_type", nullable = false)
+    private String fileContentType;
+
+    @Column(name = "size", nullable = false)
+    private long size;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PictureUpload that = (PictureUpload) o;
+        return Objects.equals(publicId, that.publicId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(publicId);
+    }
+
+    @Override
+    public String toString() {
+        return "PictureUpload{" +
+                "publicId=" + publicId +
+                ", ownerPublicId=" + ownerPublicId +
+                ", fileContentType='" + fileContentType + '\'' +
+                ", size=" + size +
+                '}';
+    }
+
+    @Override
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public UUID getPublicId() {
+        return publicId;
+    }
+
+    public void setPublicId(UUID publicId) {
+        this.publicId = publicId;
+    }
+
+    public UUID getOwnerPublicId() {
+        return ownerPublicId;
+    }
+
+    public void setOwnerPublicId(UUID ownerPublicId) {
+        this.ownerPublicId = ownerPublicId;
+    }
+
+    public String getFileContentType() {
+        return fileContentType;
+    }
+
+    public void setFileContentType(String fileContentType) {
+        this.fileContentType = fileContentType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+}
@@ -0,0 +1,22 @@
+package com.omar.bookingappback.listing;
+
+/**
+ * Size variants generated for every listing picture at upload time.
+ *
+ * Each variant is bounded by the size of its longest side, in pixels.
+ */
+public enum PictureVariant {
+    THUMBNAIL(320),
+    CARD(720),
+    FULL(1920);
+
+    private final int maxSize;
+
+    PictureVariant(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+}
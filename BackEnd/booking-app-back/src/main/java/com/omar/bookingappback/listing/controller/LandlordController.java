@@ -5,12 +5,15 @@ import com.omar.bookingappback.config.SecurityUtils;
 import com.omar.bookingappback.listing.dto.CreatedListingDTO;
 import com.omar.bookingappback.listing.dto.DisplayCardListingDTO;
 import com.omar.bookingappback.listing.dto.SaveListingDTO;
-import com.omar.bookingappback.listing.dto.sub.PictureDTO;
+import com.omar.bookingappback.listing.dto.sub.PreparedPictureDTO;
+import com.omar.bookingappback.listing.dto.sub.SavePictureDTO;
+import com.omar.bookingappback.listing.exception.PictureProcessingException;
 import com.omar.bookingappback.listing.service.LandlordService;
+import com.omar.bookingappback.listing.service.PictureService;
+import com.omar.bookingappback.listing.service.PictureUploadService;
 import com.omar.bookingappback.shared.state.State;
 import com.omar.bookingappback.shared.state.StatusNotification;
 import com.omar.bookingappback.user.dto.ReadUserDTO;
-import com.omar.bookingappback.user.exception.UserException;
 import com.omar.bookingappback.user.service.UserService;
 import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Validator;
@@ -29,6 +32,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api/landlord-listing")
@@ -40,6 +44,10 @@ public class LandlordController {
 
     private final UserService userService;
 
+    private final PictureUploadService pictureUploadService;
+
+    private final PictureService pictureService;
+
     private ObjectMapper objectMapper = new ObjectMapper();
 
     /**
@@ -48,17 +56,26 @@ public class LandlordController {
      * @param landlordService Service handling landlord listing operations.
      * @param validator Validator for validating the listing DTO.
      * @param userService Service for managing user authentication and retrieval.
+     * @param pictureUploadService Service managing the resumable picture uploads.
+     * @param pictureService Service normalizing and storing the pictures of the listings.
      */
-    public LandlordController(LandlordService landlordService, Validator validator, UserService userService) {
+    public LandlordController(LandlordService landlordService, Validator validator, UserService userService,
+                              PictureUploadService pictureUploadService, PictureService pictureService) {
         this.landlordService = landlordService;
         this.validator = validator;
         this.userService = userService;
+        this.pictureUploadService = pictureUploadService;
+        this.pictureService = pictureService;
     }
 
 
     /**
      * Endpoint for creating a new listing. Expects a multipart form data with listing details and pictures.
      *
+     * Pictures uploaded beforehand with resumable uploads are attached to the listing after the pictures
+     * of the request, when their public IDs are listed in the `pictureUploads` field of the listing details.
+     * The uploads are discarded once the listing is created.
+     *
      * @param request The multipart HTTP request containing file data.
      * @param saveListingDTOString The string representation of the SaveListingDTO.
      * @return ResponseEntity containing the created listing DTO or error details.
@@ -69,15 +86,28 @@ public class LandlordController {
             MultipartHttpServletRequest request,
             @RequestPart(name = "dto") String saveListingDTOString
     ) throws IOException {
-        // Map the uploaded files to PictureDTO objects
-        List<PictureDTO> pictures = request.getFileMap()
+        // Map the uploaded files to SavePictureDTO objects
+        List<SavePictureDTO> pictures = request.getFileMap()
                 .values()
                 .stream()
-                .map(mapMultipartFileToPictureDTO()) // Convert each file to a PictureDTO.
+                .map(mapMultipartFileToSavePictureDTO()) // Convert each file to a SavePictureDTO.
                 .toList();
 
         // Convert the string representation of SaveListingDTO to an actual SaveListingDTO object.
         SaveListingDTO saveListingDTO = objectMapper.readValue(saveListingDTOString, SaveListingDTO.class);
+
+        // Append the pictures of the completed resumable uploads.
+        ReadUserDTO connectedUser = userService.getAuthenticatedUserFromSecurityContext();
+        List<UUID> pictureUploads = saveListingDTO.getPictureUploads() == null ? List.of() : saveListingDTO.getPictureUploads();
+        if (!pictureUploads.isEmpty()) {
+            State<List<SavePictureDTO>, String> uploadedPicturesState =
+                    pictureUploadService.getCompletedPictures(pictureUploads, connectedUser.publicId());
+            if (uploadedPicturesState.getStatus().equals(StatusNotification.ERROR)) {
+                ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, uploadedPicturesState.getError());
+                return ResponseEntity.of(problemDetail).build();
+            }
+            pictures = Stream.concat(pictures.stream(), uploadedPicturesState.getValue().stream()).toList();
+        }
         saveListingDTO.setPictures(pictures);
 
         // Validate the SaveListingDTO and collect any violations.
@@ -91,24 +121,32 @@ public class LandlordController {
             ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, violationsJoined);
             return ResponseEntity.of(problemDetail).build();
         } else {
-            return ResponseEntity.ok(landlordService.create(saveListingDTO));
+            try {
+                // The pictures are processed before the transaction creating the listing
+                List<PreparedPictureDTO> preparedPictures = pictureService.prepareAll(saveListingDTO.getPictures());
+                CreatedListingDTO createdListing = landlordService.create(saveListingDTO, preparedPictures);
+                if (!pictureUploads.isEmpty()) {
+                    pictureUploadService.deleteAll(pictureUploads, connectedUser.publicId());
+                }
+                return ResponseEntity.ok(createdListing);
+            } catch (PictureProcessingException ppe) {
+                // One of the pictures is not a valid image, the listing has not been created.
+                ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, ppe.getMessage());
+                return ResponseEntity.of(problemDetail).build();
+            }
         }
     }
 
     /**
-     * Utility function to map a MultipartFile to a PictureDTO.
+     * Utility function to map a MultipartFile to a SavePictureDTO.
      *
-     * @return A function that converts MultipartFile to PictureDTO.
+     * The content of the file is not read here: the SavePictureDTO keeps a reference to the part,
+     * which is streamed when the picture is processed.
+     *
+     * @return A function that converts MultipartFile to SavePictureDTO.
      */
-    private static Function<MultipartFile, PictureDTO> mapMultipartFileToPictureDTO() {
-        return multipartFile -> {
-            try {
-                // Convert the multipart file into a PictureDTO with byte data, content type, and set cover to false.
-                return new PictureDTO(multipartFile.getBytes(), multipartFile.getContentType(), false);
-            } catch (IOException ioe) {
-                throw new UserException(String.format("Cannot parse multipart file: %s", multipartFile.getOriginalFilename()));
-            }
-        };
+    private static Function<MultipartFile, SavePictureDTO> mapMultipartFileToSavePictureDTO() {
+        return multipartFile -> new SavePictureDTO(multipartFile, multipartFile.getContentType(), multipartFile.getSize());
     }
 
     /**
@@ -0,0 +1,120 @@
+package com.omar.bookingappback.listing.controller;
+
+import com.omar.bookingappback.listing.PictureVariant;
+import com.omar.bookingappback.listing.dto.sub.PictureContentDTO;
+import com.omar.bookingappback.listing.service.PictureService;
+import com.omar.bookingappback.listing.storage.PictureCache;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Controller serving the content of the listing pictures.
+ *
+ * Listing DTOs only carry the URL of their pictures, the bytes are streamed by this controller
+ * from the picture storage.
+ *
+ * The content of a picture never changes once uploaded, so responses are cacheable for a year
+ * by browsers and shared caches. They carry a strong ETag, conditional requests with a matching
+ * `If-None-Match` are answered with HTTP 304 (NOT_MODIFIED) and `Range` requests with the requested
+ * byte ranges, both handled by Spring MVC for `Resource` bodies.
+ *
+ * Pictures are served through the node-local {@link PictureCache}. Plain GET requests for pictures held
+ * in local files are handed over to the servlet container with sendfile, when supported, so their content
+ * is transferred from the file to the socket by the kernel without being copied through the heap.
+ */
+@RestController
+@RequestMapping("/api/pictures")
+public class PictureController {
+
+    private static final CacheControl PICTURE_CACHE_CONTROL = CacheControl.maxAge(Duration.ofDays(365))
+            .cachePublic()
+            .immutable();
+
+    /**
+     * Request attributes of the sendfile support of Tomcat.
+     */
+    private static final String SENDFILE_SUPPORTED_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    private final PictureService pictureService;
+
+    private final PictureCache pictureCache;
+
+    /**
+     * Constructor for PictureController.
+     *
+     * @param pictureService Service loading the content of the pictures.
+     * @param pictureCache Node-local cache of the served pictures.
+     */
+    public PictureController(PictureService pictureService, PictureCache pictureCache) {
+        this.pictureService = pictureService;
+        this.pictureCache = pictureCache;
+    }
+
+    /**
+     * Streams the content of a size variant of a picture.
+     *
+     * @param publicId The public ID of the picture.
+     * @param variant The size variant to stream, the full size picture by default.
+     * @param request The HTTP request, to hand the content over to the servlet container with sendfile.
+     * @return A `ResponseEntity` containing the content of the picture with its content type,
+     *         or HTTP 404 (NOT_FOUND) if the picture doesn't exist.
+     */
+    @GetMapping("/{publicId}")
+    public ResponseEntity<Resource> getOne(@PathVariable UUID publicId,
+                                           @RequestParam(defaultValue = "FULL") PictureVariant variant,
+                                           HttpServletRequest request) throws IOException {
+        Optional<PictureContentDTO> pictureContentOpt = pictureCache.get(publicId, variant,
+                () -> pictureService.getContent(publicId, variant));
+        if (pictureContentOpt.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        PictureContentDTO pictureContent = pictureContentOpt.get();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(pictureContent.eTag())
+                .cacheControl(PICTURE_CACHE_CONTROL)
+                .contentType(MediaType.parseMediaType(pictureContent.fileContentType()));
+
+        if (isSendfileEligible(request, pictureContent.content())) {
+            File file = pictureContent.content().getFile();
+            long length = file.length();
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getAbsolutePath());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, 0L);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, length);
+            return response.contentLength(length).build();
+        }
+        return response.body(pictureContent.content());
+    }
+
+    /**
+     * Checks whether the content can be sent with sendfile: the container must support it, the content must be
+     * a local file, and the request must be a plain GET. Conditional and range requests are left to Spring MVC,
+     * which may answer them without the full content.
+     */
+    private boolean isSendfileEligible(HttpServletRequest request, Resource content) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTRIBUTE))
+                && HttpMethod.GET.matches(request.getMethod())
+                && request.getHeader(HttpHeaders.RANGE) == null
+                && request.getHeader(HttpHeaders.IF_NONE_MATCH) == null
+                && request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) == null
+                && content.isFile();
+    }
+}
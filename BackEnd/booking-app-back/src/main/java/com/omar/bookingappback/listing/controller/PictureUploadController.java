@@ -0,0 +1,107 @@
+package com.omar.bookingappback.listing.controller;
+
+import com.omar.bookingappback.listing.dto.CreatePictureUploadDTO;
+import com.omar.bookingappback.listing.dto.PictureUploadDTO;
+import com.omar.bookingappback.listing.service.PictureUploadService;
+import com.omar.bookingappback.shared.state.State;
+import com.omar.bookingappback.shared.state.StatusNotification;
+import com.omar.bookingappback.user.dto.ReadUserDTO;
+import com.omar.bookingappback.user.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Controller for the resumable picture uploads.
+ *
+ * A picture is uploaded by opening an upload session, then sending its content in chunks with
+ * `PUT /api/picture-uploads/{publicId}`, the `Upload-Offset` header giving the offset of the chunk.
+ * An interrupted upload is resumed from the offset returned by `GET /api/picture-uploads/{publicId}`.
+ * Completed uploads are attached to a listing by passing their public IDs to `/api/landlord-listing/create`.
+ */
+@RestController
+@RequestMapping("/api/picture-uploads")
+public class PictureUploadController {
+
+    public static final String UPLOAD_OFFSET_HEADER = "Upload-Offset";
+
+    private final PictureUploadService pictureUploadService;
+
+    private final UserService userService;
+
+    public PictureUploadController(PictureUploadService pictureUploadService, UserService userService) {
+        this.pictureUploadService = pictureUploadService;
+        this.userService = userService;
+    }
+
+    /**
+     * Opens an upload session for a picture.
+     *
+     * @param createPictureUploadDTO The content type and the total size of the picture.
+     * @return A `ResponseEntity` containing the new upload, or HTTP 400 (BAD_REQUEST) if the picture is too large
+     *         or the user has too many open uploads.
+     */
+    @PostMapping
+    public ResponseEntity<PictureUploadDTO> create(@Valid @RequestBody CreatePictureUploadDTO createPictureUploadDTO) {
+        ReadUserDTO connectedUser = userService.getAuthenticatedUserFromSecurityContext();
+        State<PictureUploadDTO, String> createState = pictureUploadService.create(createPictureUploadDTO, connectedUser);
+        if (createState.getStatus().equals(StatusNotification.ERROR)) {
+            ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, createState.getError());
+            return ResponseEntity.of(problemDetail).build();
+        }
+        return ResponseEntity.ok(createState.getValue());
+    }
+
+    /**
+     * Retrieves the state of an upload, to resume it.
+     *
+     * @param publicId The public ID of the upload.
+     * @return A `ResponseEntity` containing the upload and the offset received so far,
+     *         or HTTP 404 (NOT_FOUND) if the upload doesn't exist.
+     */
+    @GetMapping("/{publicId}")
+    public ResponseEntity<PictureUploadDTO> getOne(@PathVariable UUID publicId) {
+        ReadUserDTO connectedUser = userService.getAuthenticatedUserFromSecurityContext();
+        Optional<PictureUploadDTO> pictureUploadOpt = pictureUploadService.getOne(publicId, connectedUser.publicId());
+        return pictureUploadOpt.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Appends a chunk to an upload.
+     *
+     * @param publicId The public ID of the upload.
+     * @param offset The offset of the chunk in the picture, which must be the offset received so far.
+     * @param request The HTTP request, whose body is the content of the chunk.
+     * @return A `ResponseEntity` containing the upload and its new offset, HTTP 404 (NOT_FOUND) if the upload
+     *         doesn't exist, or HTTP 409 (CONFLICT) with the offset to resume from if the offset doesn't match,
+     *         the chunk exceeds the picture size or the chunk was interrupted.
+     * @throws IOException If the body of the request cannot be read.
+     */
+    @PutMapping(value = "/{publicId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<PictureUploadDTO> appendChunk(@PathVariable UUID publicId,
+                                                        @RequestHeader(UPLOAD_OFFSET_HEADER) long offset,
+                                                        HttpServletRequest request) throws IOException {
+        ReadUserDTO connectedUser = userService.getAuthenticatedUserFromSecurityContext();
+        State<PictureUploadDTO, String> appendState = pictureUploadService
+                .appendChunk(publicId, connectedUser.publicId(), offset, request.getContentLengthLong(), request.getInputStream());
+        if (appendState.getStatus().equals(StatusNotification.UNAUTHORIZED)) {
+            return ResponseEntity.notFound().build();
+        } else if (appendState.getStatus().equals(StatusNotification.ERROR)) {
+            ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.CONFLICT, appendState.getError());
+            return ResponseEntity.of(problemDetail)
+                    .header(UPLOAD_OFFSET_HEADER, String.valueOf(appendState.getValue().offset()))
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET_HEADER, String.valueOf(appendState.getValue().offset()))
+                .body(appendState.getValue());
+    }
+}
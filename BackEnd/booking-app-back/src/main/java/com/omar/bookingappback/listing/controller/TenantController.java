@@ -1,8 +1,10 @@
 package com.omar.bookingappback.listing.controller;
 
 import com.omar.bookingappback.listing.BookingCategory;
+import com.omar.bookingappback.listing.dto.AvailableListingDTO;
 import com.omar.bookingappback.listing.dto.DisplayCardListingDTO;
 import com.omar.bookingappback.listing.dto.DisplayListingDTO;
+import com.omar.bookingappback.listing.dto.FlexibleSearchDTO;
 import com.omar.bookingappback.listing.dto.SearchDTO;
 import com.omar.bookingappback.listing.service.TenantService;
 import com.omar.bookingappback.shared.state.State;
@@ -86,4 +88,26 @@ public class TenantController {
                                                               @Valid @RequestBody SearchDTO searchDTO) {
         return ResponseEntity.ok(tenantService.search(pageable, searchDTO));
     }
+
+
+    /**
+     * Handles flexible-dates search requests: the listings matching the criteria that have at least one free stay
+     * of the requested number of nights within the span of dates, along with the earliest free stay of each one.
+     *
+     * @param pageable  The pagination information. The listings are ordered by their earliest free stay.
+     * @param flexibleSearchDTO The search criteria, the span of dates and the number of nights of the stay.
+     * @return A `ResponseEntity` containing a page of `AvailableListingDTO`,
+     *         or a `ProblemDetail` if the span of dates or the number of nights is invalid.
+     */
+    @PostMapping("/search-flexible")
+    public ResponseEntity<Page<AvailableListingDTO>> searchFlexible(Pageable pageable,
+                                                                    @Valid @RequestBody FlexibleSearchDTO flexibleSearchDTO) {
+        State<Page<AvailableListingDTO>, String> searchState = tenantService.searchFlexible(pageable, flexibleSearchDTO);
+        if (searchState.getStatus().equals(StatusNotification.OK)) {
+            return ResponseEntity.ok(searchState.getValue());
+        } else {
+            ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, searchState.getError());
+            return ResponseEntity.of(problemDetail).build();
+        }
+    }
 }
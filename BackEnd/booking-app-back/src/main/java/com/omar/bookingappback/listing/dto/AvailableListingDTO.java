@@ -0,0 +1,9 @@
+package com.omar.bookingappback.listing.dto;
+
+import com.omar.bookingappback.booking.dto.BookedDateDTO;
+
+public record AvailableListingDTO(
+        DisplayCardListingDTO listing,
+        BookedDateDTO earliestDates
+) {
+}
@@ -0,0 +1,11 @@
+package com.omar.bookingappback.listing.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+
+public record CreatePictureUploadDTO(
+        @NotNull @Pattern(regexp = "image/.+", message = "Picture must be an image") String fileContentType,
+        @Positive(message = "Picture must not be empty") long size
+) {
+}
@@ -0,0 +1,16 @@
+package com.omar.bookingappback.listing.dto;
+
+import com.omar.bookingappback.booking.dto.BookedDateDTO;
+import com.omar.bookingappback.listing.dto.sub.ListingInfoDTO;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+public record FlexibleSearchDTO(
+        @NotNull @Valid BookedDateDTO dates,
+        @Positive int nights,
+        @NotNull @Valid ListingInfoDTO infos,
+        @NotEmpty String location
+) {
+}
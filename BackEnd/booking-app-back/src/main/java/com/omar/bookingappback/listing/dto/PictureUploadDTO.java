@@ -0,0 +1,19 @@
+package com.omar.bookingappback.listing.dto;
+
+import java.util.UUID;
+
+/**
+ * State of a resumable picture upload.
+ *
+ * @param publicId The public ID of the upload.
+ * @param fileContentType The content type of the picture.
+ * @param size The total size of the picture in bytes.
+ * @param offset The number of bytes received so far, where the next chunk must start.
+ */
+public record PictureUploadDTO(
+        UUID publicId,
+        String fileContentType,
+        long size,
+        long offset
+) {
+}
@@ -3,12 +3,14 @@ package com.omar.bookingappback.listing.dto;
 import com.omar.bookingappback.listing.BookingCategory;
 import com.omar.bookingappback.listing.dto.sub.DescriptionDTO;
 import com.omar.bookingappback.listing.dto.sub.ListingInfoDTO;
-import com.omar.bookingappback.listing.dto.sub.PictureDTO;
+import com.omar.bookingappback.listing.dto.sub.SavePictureDTO;
 import com.omar.bookingappback.listing.dto.vo.PriceVO;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 public class SaveListingDTO {
 
@@ -27,16 +29,29 @@ public class SaveListingDTO {
     PriceVO price;
 
     @NotNull
-    List<PictureDTO> pictures;
+    List<@Valid SavePictureDTO> pictures;
 
-    public @NotNull List<PictureDTO> getPictures() {
+    /**
+     * Public IDs of the completed resumable uploads to attach to the listing, after the pictures of the request.
+     */
+    List<UUID> pictureUploads = new ArrayList<>();
+
+    public @NotNull List<SavePictureDTO> getPictures() {
         return pictures;
     }
 
-    public void setPictures(@NotNull List<PictureDTO> pictures) {
+    public void setPictures(@NotNull List<SavePictureDTO> pictures) {
         this.pictures = pictures;
     }
 
+    public List<UUID> getPictureUploads() {
+        return pictureUploads;
+    }
+
+    public void setPictureUploads(List<UUID> pictureUploads) {
+        this.pictureUploads = pictureUploads;
+    }
+
     public @NotNull @Valid PriceVO getPrice() {
         return price;
     }
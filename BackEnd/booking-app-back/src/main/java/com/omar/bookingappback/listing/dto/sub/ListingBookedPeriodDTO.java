@@ -0,0 +1,10 @@
+package com.omar.bookingappback.listing.dto.sub;
+
+import java.time.OffsetDateTime;
+
+public record ListingBookedPeriodDTO(
+        Long listingId,
+        OffsetDateTime startDate,
+        OffsetDateTime endDate
+) {
+}
@@ -0,0 +1,18 @@
+package com.omar.bookingappback.listing.dto.sub;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Content of a stored picture variant.
+ *
+ * @param content The bytes of the picture.
+ * @param fileContentType The content type of the picture.
+ * @param eTag The entity tag of the content, the storage key of the variant: a stored content is never rewritten
+ *             under the same key.
+ */
+public record PictureContentDTO(
+        Resource content,
+        String fileContentType,
+        String eTag
+) {
+}
@@ -0,0 +1,30 @@
+package com.omar.bookingappback.listing.dto.sub;
+
+/**
+ * An uploaded picture prepared before the creation of its listing: its content is digested and,
+ * unless a picture with the same content is already stored, its size variants are written to the
+ * picture storage. Only the storage keys remain to be persisted with the listing.
+ *
+ * @param source The uploaded picture, processed again if its shared content was released in the meantime.
+ * @param contentDigest The SHA-256 digest of the uploaded content.
+ * @param fileContentType The content type of the variants, null if they have not been stored.
+ * @param storageKey The storage key of the full size variant, null if it has not been stored.
+ * @param cardStorageKey The storage key of the card size variant, null if it has not been stored.
+ * @param thumbnailStorageKey The storage key of the thumbnail variant, null if it has not been stored.
+ */
+public record PreparedPictureDTO(
+        SavePictureDTO source,
+        String contentDigest,
+        String fileContentType,
+        String storageKey,
+        String cardStorageKey,
+        String thumbnailStorageKey
+) {
+
+    /**
+     * @return whether the size variants of the picture have been written to the picture storage
+     */
+    public boolean isStored() {
+        return storageKey != null;
+    }
+}
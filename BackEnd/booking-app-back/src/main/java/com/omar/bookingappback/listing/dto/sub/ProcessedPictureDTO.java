@@ -0,0 +1,19 @@
+package com.omar.bookingappback.listing.dto.sub;
+
+import com.omar.bookingappback.listing.PictureVariant;
+
+import java.util.Map;
+
+public record ProcessedPictureDTO(
+        String fileContentType,
+        Map<PictureVariant, byte[]> variants
+) {
+
+    @Override
+    public String toString() {
+        return "ProcessedPictureDTO{" +
+                "fileContentType='" + fileContentType + '\'' +
+                ", variants=" + variants.keySet() +
+                '}';
+    }
+}
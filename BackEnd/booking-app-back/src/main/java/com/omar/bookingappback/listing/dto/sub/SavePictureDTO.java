@@ -0,0 +1,17 @@
+package com.omar.bookingappback.listing.dto.sub;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+import org.springframework.core.io.InputStreamSource;
+
+/**
+ * An uploaded picture. The content is not held in memory: it is read from its source,
+ * typically a multipart part spooled to disk, only when the picture is processed.
+ */
+public record SavePictureDTO(
+        @NotNull InputStreamSource content,
+        @NotNull @Pattern(regexp = "image/.+", message = "Picture must be an image") String fileContentType,
+        @Positive(message = "Picture must not be empty") long size
+) {
+}
@@ -0,0 +1,11 @@
+package com.omar.bookingappback.listing.exception;
+
+public class PictureProcessingException extends RuntimeException {
+    public PictureProcessingException(String message) {
+        super(message);
+    }
+
+    public PictureProcessingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
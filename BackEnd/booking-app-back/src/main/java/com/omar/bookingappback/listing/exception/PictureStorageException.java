@@ -0,0 +1,11 @@
+package com.omar.bookingappback.listing.exception;
+
+public class PictureStorageException extends RuntimeException {
+    public PictureStorageException(String message) {
+        super(message);
+    }
+
+    public PictureStorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -2,6 +2,7 @@ package com.omar.bookingappback.listing.mapper;
 
 
 import com.omar.bookingappback.listing.ListingPicture;
+import com.omar.bookingappback.listing.PictureVariant;
 import com.omar.bookingappback.listing.dto.sub.PictureDTO;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
@@ -9,39 +10,25 @@ import org.mapstruct.Named;
 
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 
 
 /**
  * Mapper interface for handling the mapping between ListingPicture entities and PictureDTOs.
  *
  * This interface uses the MapStruct framework to generate the mapping implementation at compile time.
- * It provides methods for converting between PictureDTO objects and ListingPicture entities, as well
- * as handling lists and sets of these objects.
+ * The bytes of the pictures are not part of the DTOs: each PictureDTO carries the URL from which
+ * the picture is served, pointing to the size variant suited to where the picture is displayed:
+ * the thumbnail for the covers of the listing cards, the full size for the cover of a listing page
+ * and the card size for the smaller pictures around it.
  */
 @Mapper(componentModel = "spring")
 public interface ListingPictureMapper {
 
     /**
-     * Maps a list of PictureDTO objects to a set of ListingPicture entities.
-     *
-     * @param pictureDTOs The list of PictureDTOs to be mapped.
-     * @return A set of ListingPicture entities.
+     * Base URL of the endpoint serving the content of the pictures.
      */
-    Set<ListingPicture> pictureDTOsToListingPictures(List<PictureDTO> pictureDTOs);
-
-
-    /**
-     * Maps a single PictureDTO to a ListingPicture entity, ignoring certain fields.
-     *
-     * @param pictureDTO The PictureDTO to be mapped.
-     * @return A ListingPicture entity populated with the data from the DTO.
-     */
-    @Mapping(target = "id", ignore = true)
-    @Mapping(target = "listing", ignore = true)
-    @Mapping(target = "createdDate", ignore = true)
-    @Mapping(target = "lastModifiedDate", ignore = true)
-    @Mapping(target = "cover", source = "isCover")
-    ListingPicture pictureDTOToListingPicture(PictureDTO pictureDTO);
+    String PICTURE_URL = "/api/pictures/";
 
 
     /**
@@ -55,24 +42,68 @@ public interface ListingPictureMapper {
 
 
     /**
-     * Maps a single ListingPicture entity to a PictureDTO, with a specific mapping for the 'cover' field.
+     * Maps a single ListingPicture entity to a PictureDTO, with a specific mapping for the 'cover' field
+     * and the URL of the picture built from its public ID, for the pictures of a listing page.
      *
      * @param listingPicture The ListingPicture entity to be mapped.
      * @return A PictureDTO populated with the data from the ListingPicture entity.
      */
     @Mapping(target = "isCover", source = "cover")
+    @Mapping(target = "url", source = ".", qualifiedByName = "picture-url")
     PictureDTO convertToPictureDTO(ListingPicture listingPicture);
 
 
     /**
-     * Extracts the cover picture from a set of ListingPicture entities and converts it to a PictureDTO.
+     * Maps a single ListingPicture entity to a PictureDTO pointing to the thumbnail variant of the picture,
+     * for the pictures displayed in listing cards.
+     *
+     * @param listingPicture The ListingPicture entity to be mapped.
+     * @return A PictureDTO populated with the data from the ListingPicture entity.
+     */
+    @Named("thumbnail-picture")
+    @Mapping(target = "isCover", source = "cover")
+    @Mapping(target = "url", source = "publicId", qualifiedByName = "thumbnail-picture-url")
+    PictureDTO convertToThumbnailPictureDTO(ListingPicture listingPicture);
+
+
+    /**
+     * Builds the URL from which the thumbnail variant of a picture is served.
+     *
+     * @param publicId The public ID of the picture.
+     * @return The URL of the thumbnail variant of the picture.
+     */
+    @Named("thumbnail-picture-url")
+    default String mapPublicIdToThumbnailUrl(UUID publicId) {
+        return PICTURE_URL + publicId + "?variant=" + PictureVariant.THUMBNAIL;
+    }
+
+
+    /**
+     * Builds the URL from which a picture of a listing page is served: the full size content for the cover,
+     * displayed large, and the card size variant for the other pictures.
+     *
+     * @param listingPicture The ListingPicture entity.
+     * @return The URL of the picture.
+     */
+    @Named("picture-url")
+    default String mapToUrl(ListingPicture listingPicture) {
+        if (listingPicture.isCover()) {
+            return PICTURE_URL + listingPicture.getPublicId();
+        }
+        return PICTURE_URL + listingPicture.getPublicId() + "?variant=" + PictureVariant.CARD;
+    }
+
+
+    /**
+     * Extracts the cover picture from a set of ListingPicture entities and converts it to a PictureDTO
+     * pointing to the thumbnail variant of the picture.
      *
      * @param pictures The set of ListingPicture entities.
      * @return The PictureDTO representing the cover picture.
      */
     @Named("extract-cover")
     default PictureDTO extractCover(Set<ListingPicture> pictures) {
-        return pictures.stream().findFirst().map(this::convertToPictureDTO).orElseThrow();
+        return pictures.stream().findFirst().map(this::convertToThumbnailPictureDTO).orElseThrow();
     }
 
 
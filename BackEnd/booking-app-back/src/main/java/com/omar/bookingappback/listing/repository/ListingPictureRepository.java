@@ -2,8 +2,127 @@ package com.omar.bookingappback.listing.repository;
 
 import com.omar.bookingappback.listing.ListingPicture;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
 @Repository
 public interface ListingPictureRepository extends JpaRepository<ListingPicture, Long> {
+
+    /**
+     * Finds a picture by its public ID.
+     *
+     * @param publicId The UUID of the picture.
+     * @return An `Optional<ListingPicture>` that contains the picture if found, or empty if not.
+     */
+    Optional<ListingPicture> findByPublicId(UUID publicId);
+
+
+    /**
+     * Finds a picture whose uploaded content has the given digest, to reuse its stored variants.
+     *
+     * @param contentDigest The SHA-256 digest of the uploaded content.
+     * @return An `Optional<ListingPicture>` that contains a picture with this content if any.
+     */
+    Optional<ListingPicture> findFirstByContentDigest(String contentDigest);
+
+
+    /**
+     * Checks whether a picture with the given uploaded content is stored.
+     *
+     * @param contentDigest The SHA-256 digest of the uploaded content.
+     * @return true if a picture has this content, false otherwise.
+     */
+    boolean existsByContentDigest(String contentDigest);
+
+
+    /**
+     * Retrieves the public IDs of the pictures of a listing owned by a landlord, without loading the pictures.
+     *
+     * @param listingPublicId The public ID of the listing.
+     * @param landlordPublicId The public ID of the landlord.
+     * @return The public IDs of the pictures, or an empty list if the listing doesn't belong to the landlord.
+     */
+    @Query("SELECT picture.publicId FROM ListingPicture picture WHERE picture.listing.publicId = :listingPublicId" +
+            " AND picture.listing.landlordPublicId = :landlordPublicId")
+    List<UUID> findAllPublicIdsByListing(UUID listingPublicId, UUID landlordPublicId);
+
+
+    /**
+     * Retrieves, among the given storage keys, the ones still referenced by a variant of a picture.
+     *
+     * @param storageKeys The storage keys to look up.
+     * @return The storage keys referenced by at least one picture.
+     */
+    @Query("SELECT picture.storageKey FROM ListingPicture picture WHERE picture.storageKey IN :storageKeys" +
+            " UNION SELECT picture.cardStorageKey FROM ListingPicture picture WHERE picture.cardStorageKey IN :storageKeys" +
+            " UNION SELECT picture.thumbnailStorageKey FROM ListingPicture picture" +
+            " WHERE picture.thumbnailStorageKey IN :storageKeys")
+    List<String> findAllReferencedStorageKeys(Collection<String> storageKeys);
+
+
+    /**
+     * Retrieves the IDs of the pictures whose bytes are still stored in the database
+     * and have not been moved to the picture storage yet, locking them until the end of the transaction.
+     * The pictures being moved by another node are skipped, so each picture is moved once.
+     *
+     * @param limit The maximum number of IDs to retrieve.
+     * @return A list of picture IDs.
+     */
+    @Query(value = "SELECT id FROM {h-schema}listing_picture WHERE storage_key IS NULL" +
+            " ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Long> findAllIdsNotInStorage(int limit);
+
+
+    /**
+     * Reads the bytes of a picture still stored in the database.
+     *
+     * @param id The ID of the picture.
+     * @return The bytes of the picture.
+     */
+    @Query(value = "SELECT lo_get(file) FROM {h-schema}listing_picture WHERE id = :id", nativeQuery = true)
+    byte[] findFileById(Long id);
+
+
+    /**
+     * Releases the large object holding the bytes of a picture still stored in the database.
+     *
+     * @param id The ID of the picture.
+     * @return 1 if the large object has been released.
+     */
+    @Query(value = "SELECT lo_unlink(file) FROM {h-schema}listing_picture WHERE id = :id AND file IS NOT NULL",
+            nativeQuery = true)
+    Integer unlinkFileById(Long id);
+
+
+    /**
+     * Releases the large objects holding the bytes of the pictures of a listing still stored in the database.
+     *
+     * @param listingPublicId The public ID of the listing.
+     * @param landlordPublicId The public ID of the landlord owning the listing.
+     * @return One row per large object released.
+     */
+    @Query(value = "SELECT lo_unlink(picture.file) FROM {h-schema}listing_picture picture" +
+            " JOIN {h-schema}listing listing ON listing.id = picture.listing_fk" +
+            " WHERE listing.public_id = :listingPublicId AND listing.landlord_public_id = :landlordPublicId" +
+            " AND picture.file IS NOT NULL", nativeQuery = true)
+    List<Integer> unlinkFilesByListing(UUID listingPublicId, UUID landlordPublicId);
+
+
+    /**
+     * Records the storage key of a picture moved to the picture storage.
+     *
+     * @param id The ID of the picture.
+     * @param storageKey The key of the picture in the picture storage.
+     * @return The number of pictures updated.
+     */
+    @Modifying
+    @Query(value = "UPDATE {h-schema}listing_picture SET storage_key = :storageKey, file = NULL WHERE id = :id",
+            nativeQuery = true)
+    int updateStorageKey(Long id, String storageKey);
 }
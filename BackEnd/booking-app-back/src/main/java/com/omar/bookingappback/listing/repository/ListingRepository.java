@@ -2,12 +2,15 @@ package com.omar.bookingappback.listing.repository;
 
 import com.omar.bookingappback.listing.BookingCategory;
 import com.omar.bookingappback.listing.Listing;
+import com.omar.bookingappback.listing.dto.sub.ListingBookedPeriodDTO;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -40,11 +43,16 @@ public interface ListingRepository extends JpaRepository<Listing, Long> {
      * Deletes a listing by its public ID and the landlord's public ID.
      * This ensures that only the landlord who owns the listing can delete it.
      *
+     * The listing is deleted with a single statement, without loading it nor its pictures:
+     * its pictures and bookings are deleted by the database through their `ON DELETE CASCADE` foreign keys.
+     *
      * @param publicId The public UUID of the listing to be deleted.
      * @param landlordPublicId The UUID of the landlord who owns the listing.
-     * @return The number of entities deleted (1 if successful, 0 if not).
+     * @return The number of listings deleted (1 if successful, 0 if not).
      */
-    long deleteByPublicIdAndLandlordPublicId(UUID publicId, UUID landlordPublicId);
+    @Modifying
+    @Query("DELETE FROM Listing listing WHERE listing.publicId = :publicId AND listing.landlordPublicId = :landlordPublicId")
+    int deleteByPublicIdAndLandlordPublicId(UUID publicId, UUID landlordPublicId);
 
 
     /**
@@ -75,35 +83,65 @@ public interface ListingRepository extends JpaRepository<Listing, Long> {
 
 
     /**
-     * Retrieves a paginated list of listings by booking category, fetching only the cover picture.
+     * Retrieves a page of the IDs of the listings of a booking category having a cover picture.
      *
-     * This query performs a left join fetch to load the associated cover picture for each listing
-     * and filters the results based on the specified booking category.
+     * Paging over the IDs only lets the database apply the limit and offset, instead of
+     * materializing every matching listing and its pictures to slice the page in memory.
+     * The page content is then hydrated with {@link #findAllByIdInFetchCoverPicture(List)}.
      *
      * @param pageable A `Pageable` object representing pagination information.
      * @param bookingCategory The `BookingCategory` to filter listings by.
-     * @return A paginated list of `Listing` entities with only the cover picture loaded.
+     * @return A paginated list of the IDs of the listings of the category.
      */
-    @Query("SELECT listing from Listing listing LEFT JOIN FETCH listing.pictures picture" +
-            " WHERE picture.isCover = true AND listing.bookingCategory = :bookingCategory")
-    Page<Listing> findAllByBookingCategoryWithCoverOnly(Pageable pageable, BookingCategory bookingCategory);
+    @Query("SELECT listing.id FROM Listing listing WHERE listing.bookingCategory = :bookingCategory" +
+            " AND EXISTS (SELECT picture.id FROM ListingPicture picture" +
+            " WHERE picture.listing = listing AND picture.isCover = true)")
+    Page<Long> findAllIdsByBookingCategoryWithCover(Pageable pageable, BookingCategory bookingCategory);
 
 
     /**
-     * Retrieves a paginated list of listings, fetching only the cover picture.
+     * Retrieves a page of the IDs of the listings having a cover picture.
      *
-     * This query performs a left join fetch to load only the cover picture for each listing.
+     * The page content is then hydrated with {@link #findAllByIdInFetchCoverPicture(List)}.
      *
      * @param pageable A `Pageable` object representing pagination information.
-     * @return A paginated list of `Listing` entities with only their cover picture loaded.
+     * @return A paginated list of the IDs of the listings.
+     */
+    @Query("SELECT listing.id FROM Listing listing WHERE EXISTS (SELECT picture.id FROM ListingPicture picture" +
+            " WHERE picture.listing = listing AND picture.isCover = true)")
+    Page<Long> findAllIdsWithCover(Pageable pageable);
+
+
+    /**
+     * Search criteria on the listing itself, shared by the exact and the flexible searches:
+     * the listing must match the location and property details exactly and have a cover picture.
      */
-    @Query("SELECT listing from Listing listing LEFT JOIN FETCH listing.pictures picture" +
-            " WHERE picture.isCover = true")
-    Page<Listing> findAllWithCoverOnly(Pageable pageable);
+    String LISTING_CRITERIA = " WHERE listing.location = :location AND listing.bathrooms = :bathrooms" +
+            " AND listing.bedrooms = :bedrooms AND listing.guests = :guests AND listing.beds = :beds" +
+            " AND EXISTS (SELECT picture.id FROM ListingPicture picture" +
+            " WHERE picture.listing = listing AND picture.isCover = true)";
 
 
     /**
-     * Finds listings by specific attributes: location, number of bathrooms, bedrooms, guests, and beds.
+     * Search criteria shared by the availability search and its count query.
+     *
+     * - The listing must match the {@link #LISTING_CRITERIA}.
+     * - `NOT EXISTS` excludes listings having at least one booking overlapping the requested interval,
+     *   so the availability filter is evaluated by the database as an anti-join. The overlap is checked with
+     *   `periods_overlap`, an index lookup in the GiST index of the exclusion constraint of the bookings.
+     *   Only the current bookings are checked, the archived ones being stays completed for a while.
+     */
+    String AVAILABLE_LISTING_CRITERIA = " FROM Listing listing" + LISTING_CRITERIA +
+            " AND NOT EXISTS (SELECT booking.id FROM Booking booking WHERE booking.fkListing = listing.publicId" +
+            " AND periods_overlap(booking.startDate, booking.endDate, :startDate, :endDate) AND booking.archived = false)";
+
+
+    /**
+     * Retrieves a page of listing IDs matching the search criteria and free for the specified interval.
+     *
+     * Only the IDs are projected, so the page and its total count are computed without loading
+     * any listing, picture or booking. The page content is then hydrated with
+     * {@link #findAllByIdInFetchCoverPicture(List)}.
      *
      * @param pageable A `Pageable` object representing pagination information.
      * @param location The location of the listing.
@@ -111,9 +149,53 @@ public interface ListingRepository extends JpaRepository<Listing, Long> {
      * @param bedrooms The number of bedrooms in the listing.
      * @param guests The maximum number of guests the listing can accommodate.
      * @param beds The number of beds in the listing.
-     * @return A paginated list of listings matching the given criteria.
+     * @param startDate The start date of the requested stay.
+     * @param endDate The end date of the requested stay.
+     * @return A paginated list of the IDs of the available listings, with an accurate total.
+     */
+    @Query(value = "SELECT listing.id" + AVAILABLE_LISTING_CRITERIA,
+            countQuery = "SELECT count(listing)" + AVAILABLE_LISTING_CRITERIA)
+    Page<Long> findAllAvailableIdsByCriteria(Pageable pageable, String location, int bathrooms, int bedrooms,
+                                             int guests, int beds, OffsetDateTime startDate, OffsetDateTime endDate);
+
+
+    /**
+     * Retrieves the listings matching the search criteria, each one with the periods of its bookings
+     * overlapping the specified interval, for the flexible-dates search.
+     *
+     * The bookings are left joined, so a listing without booking in the interval is returned once with
+     * null dates. The rows are ordered by listing ID then by booking start date, so the free windows of
+     * every listing are found in a single pass over the result. Only the dates are projected: no listing,
+     * picture or booking entity is loaded.
+     *
+     * @param location The location of the listing.
+     * @param bathrooms The number of bathrooms in the listing.
+     * @param bedrooms The number of bedrooms in the listing.
+     * @param guests The maximum number of guests the listing can accommodate.
+     * @param beds The number of beds in the listing.
+     * @param startDate The start date of the searched interval.
+     * @param endDate The end date of the searched interval.
+     * @return The ID of each matching listing with the dates of each of its bookings overlapping the interval.
      */
-    Page<Listing> findAllByLocationAndBathroomsAndBedroomsAndGuestsAndBeds(
-            Pageable pageable, String location, int bathrooms, int bedrooms, int guests, int beds
-    );
+    @Query("SELECT new com.omar.bookingappback.listing.dto.sub.ListingBookedPeriodDTO(listing.id, booking.startDate, booking.endDate)" +
+            " FROM Listing listing LEFT JOIN Booking booking ON booking.fkListing = listing.publicId" +
+            " AND periods_overlap(booking.startDate, booking.endDate, :startDate, :endDate) AND booking.archived = false" +
+            LISTING_CRITERIA +
+            " ORDER BY listing.id, booking.startDate")
+    List<ListingBookedPeriodDTO> findAllBookedPeriodsByCriteria(String location, int bathrooms, int bedrooms,
+                                                                int guests, int beds,
+                                                                OffsetDateTime startDate, OffsetDateTime endDate);
+
+
+    /**
+     * Retrieves the listings having the given IDs, fetching only their cover picture.
+     *
+     * The order of the result is not guaranteed to follow the order of `ids`.
+     *
+     * @param ids The IDs of the listings to retrieve.
+     * @return A list of `Listing` entities with only their cover picture loaded.
+     */
+    @Query("SELECT listing FROM Listing listing LEFT JOIN FETCH listing.pictures picture" +
+            " WHERE listing.id IN :ids AND picture.isCover = true")
+    List<Listing> findAllByIdInFetchCoverPicture(List<Long> ids);
 }
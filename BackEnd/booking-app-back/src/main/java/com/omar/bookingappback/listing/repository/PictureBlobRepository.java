@@ -0,0 +1,72 @@
+package com.omar.bookingappback.listing.repository;
+
+import com.omar.bookingappback.listing.PictureBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.UUID;
+
+@Repository
+public interface PictureBlobRepository extends JpaRepository<PictureBlob, String> {
+
+    /**
+     * Adds a reference to the stored variants of a picture, creating its reference count if needed.
+     *
+     * The row of the content digest stays locked until the end of the transaction, so the variants
+     * cannot be released by a concurrent deletion while they are being reused.
+     *
+     * @param contentDigest The SHA-256 digest of the content of the picture.
+     * @return The number of references after the increment, 1 if the content has never been stored.
+     */
+    @Query(value = """
+            INSERT INTO {h-schema}picture_blob AS blob (content_digest, reference_count)
+            VALUES (:contentDigest, 1)
+            ON CONFLICT (content_digest) DO UPDATE SET reference_count = blob.reference_count + 1
+            RETURNING reference_count
+            """, nativeQuery = true)
+    int acquire(String contentDigest);
+
+
+    /**
+     * Removes the references of the pictures of a listing owned by a landlord to their stored variants,
+     * with a single update of the reference counts of their content digests.
+     *
+     * @param listingPublicId The public ID of the listing about to be deleted.
+     * @param landlordPublicId The public ID of the landlord owning the listing.
+     * @return The number of reference counts updated.
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE {h-schema}picture_blob blob SET reference_count = blob.reference_count - released.count
+            FROM (SELECT picture.content_digest, count(*) AS count
+                  FROM {h-schema}listing_picture picture
+                  JOIN {h-schema}listing listing ON listing.id = picture.listing_fk
+                  WHERE listing.public_id = :listingPublicId AND listing.landlord_public_id = :landlordPublicId
+                  AND picture.content_digest IS NOT NULL
+                  GROUP BY picture.content_digest) released
+            WHERE blob.content_digest = released.content_digest
+            """, nativeQuery = true)
+    int releaseAllByListing(UUID listingPublicId, UUID landlordPublicId);
+
+
+    /**
+     * Deletes the reference counts of the contents of the pictures of a listing owned by a landlord
+     * that are no longer referenced, once they have been released.
+     *
+     * @param listingPublicId The public ID of the listing about to be deleted.
+     * @param landlordPublicId The public ID of the landlord owning the listing.
+     * @return The number of reference counts deleted.
+     */
+    @Modifying
+    @Query(value = """
+            DELETE FROM {h-schema}picture_blob blob
+            USING {h-schema}listing_picture picture
+            JOIN {h-schema}listing listing ON listing.id = picture.listing_fk
+            WHERE blob.content_digest = picture.content_digest
+            AND listing.public_id = :listingPublicId AND listing.landlord_public_id = :landlordPublicId
+            AND blob.reference_count <= 0
+            """, nativeQuery = true)
+    int deleteAllUnreferencedByListing(UUID listingPublicId, UUID landlordPublicId);
+}
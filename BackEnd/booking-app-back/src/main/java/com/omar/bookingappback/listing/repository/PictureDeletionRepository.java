@@ -0,0 +1,54 @@
+package com.omar.bookingappback.listing.repository;
+
+import com.omar.bookingappback.listing.PictureDeletion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface PictureDeletionRepository extends JpaRepository<PictureDeletion, String> {
+
+    /**
+     * Records the storage keys of all the variants of the pictures of a listing owned by a landlord,
+     * so they are reclaimed once the listing is deleted.
+     *
+     * @param listingPublicId The public ID of the listing.
+     * @param landlordPublicId The public ID of the landlord.
+     * @return The number of storage keys recorded.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO {h-schema}picture_deletion (storage_key, requested_date)
+            SELECT DISTINCT variant.storage_key, now()
+            FROM {h-schema}listing_picture picture
+            JOIN {h-schema}listing listing ON listing.id = picture.listing_fk
+            CROSS JOIN LATERAL (VALUES (picture.storage_key), (picture.card_storage_key),
+                                       (picture.thumbnail_storage_key)) AS variant (storage_key)
+            WHERE listing.public_id = :listingPublicId AND listing.landlord_public_id = :landlordPublicId
+            AND variant.storage_key IS NOT NULL
+            ON CONFLICT (storage_key) DO NOTHING
+            """, nativeQuery = true)
+    int requestAllByListing(UUID listingPublicId, UUID landlordPublicId);
+
+
+    /**
+     * Removes a batch of the oldest pending deletions, to reclaim their content.
+     *
+     * Rows locked by another node sweeping at the same time are skipped, and the batch is put back
+     * if the transaction rolls back.
+     *
+     * @param limit The maximum number of deletions to claim.
+     * @return The storage keys of the claimed deletions.
+     */
+    @Query(value = """
+            DELETE FROM {h-schema}picture_deletion
+            WHERE storage_key IN (SELECT storage_key FROM {h-schema}picture_deletion
+                                  ORDER BY requested_date LIMIT :limit FOR UPDATE SKIP LOCKED)
+            RETURNING storage_key
+            """, nativeQuery = true)
+    List<String> claim(int limit);
+}
@@ -0,0 +1,23 @@
+package com.omar.bookingappback.listing.repository;
+
+import com.omar.bookingappback.listing.PictureUpload;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface PictureUploadRepository extends JpaRepository<PictureUpload, Long> {
+
+    Optional<PictureUpload> findByPublicIdAndOwnerPublicId(UUID publicId, UUID ownerPublicId);
+
+    List<PictureUpload> findAllByPublicIdInAndOwnerPublicId(Collection<UUID> publicIds, UUID ownerPublicId);
+
+    List<PictureUpload> findAllByCreatedDateBefore(Instant createdDate);
+
+    long countByOwnerPublicIdAndCreatedDateAfter(UUID ownerPublicId, Instant createdDate);
+}
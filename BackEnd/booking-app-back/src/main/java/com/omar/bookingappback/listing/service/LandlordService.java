@@ -5,11 +5,12 @@ import com.omar.bookingappback.listing.dto.CreatedListingDTO;
 import com.omar.bookingappback.listing.dto.DisplayCardListingDTO;
 import com.omar.bookingappback.listing.dto.ListingCreateBookingDTO;
 import com.omar.bookingappback.listing.dto.SaveListingDTO;
+import com.omar.bookingappback.listing.dto.sub.PreparedPictureDTO;
 import com.omar.bookingappback.listing.mapper.ListingMapper;
 import com.omar.bookingappback.listing.repository.ListingRepository;
 import com.omar.bookingappback.shared.state.State;
 import com.omar.bookingappback.user.dto.ReadUserDTO;
-import com.omar.bookingappback.user.service.Auth0Service;
+import com.omar.bookingappback.user.service.RoleAssignmentService;
 import com.omar.bookingappback.user.service.UserService;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -25,7 +26,7 @@ public class LandlordService {
 
     private final ListingMapper listingMapper;
     private final UserService userService;
-    private final Auth0Service auth0Service;
+    private final RoleAssignmentService roleAssignmentService;
     private final PictureService pictureService;
 
     /**
@@ -34,29 +35,35 @@ public class LandlordService {
      * @param listingRepository Repository for performing database operations on Listing entities.
      * @param listingMapper Mapper for converting between DTOs and Listing entities.
      * @param userService Service responsible for managing user-related operations.
-     * @param auth0Service Service responsible for interacting with Auth0 for role management.
+     * @param roleAssignmentService Service recording the roles to assign to the users in Auth0.
      * @param pictureService Service for managing the pictures associated with listings.
      */
-    public LandlordService(ListingRepository listingRepository, ListingMapper listingMapper, UserService userService, Auth0Service auth0Service, PictureService pictureService) {
+    public LandlordService(ListingRepository listingRepository, ListingMapper listingMapper, UserService userService, RoleAssignmentService roleAssignmentService, PictureService pictureService) {
         this.listingRepository = listingRepository;
         this.listingMapper = listingMapper;
         this.userService = userService;
-        this.auth0Service = auth0Service;
+        this.roleAssignmentService = roleAssignmentService;
         this.pictureService = pictureService;
     }
 
 
     /**
-     * Creates a new listing for a landlord, saves pictures, and assigns the landlord role to the user.
+     * Creates a new listing for a landlord, saves pictures, and requests the landlord role for the user.
      *
      * This method first maps the SaveListingDTO to a Listing entity, sets the landlord's public ID,
      * and saves the listing in the repository. It also saves the associated pictures using the PictureService,
-     * and assigns the landlord role to the authenticated user via the Auth0Service.
+     * and requests the landlord role for the authenticated user via the RoleAssignmentService: the role is
+     * assigned in Auth0 in the background, once the listing is committed.
+     *
+     * The pictures must have been prepared with {@link PictureService#prepareAll(List)} before, so they are
+     * decoded and resized without holding a database connection: only their storage keys are persisted here.
      *
      * @param saveListingDTO The DTO containing the details of the listing to be created.
+     * @param pictures The pictures of the listing, prepared from the pictures of the DTO.
      * @return A CreatedListingDTO containing the details of the newly created listing.
      */
-    public CreatedListingDTO create(SaveListingDTO saveListingDTO) {
+    @Transactional
+    public CreatedListingDTO create(SaveListingDTO saveListingDTO, List<PreparedPictureDTO> pictures) {
         Listing newListing = listingMapper.saveListingDTOToListing(saveListingDTO);
 
         ReadUserDTO userConnected = userService.getAuthenticatedUserFromSecurityContext();
@@ -64,9 +71,9 @@ public class LandlordService {
 
         Listing savedListing = listingRepository.saveAndFlush(newListing);
 
-        pictureService.saveAll(saveListingDTO.getPictures(), savedListing);
+        pictureService.saveAll(pictures, savedListing);
 
-        auth0Service.addLandlordRoleToUser(userConnected);
+        roleAssignmentService.requestLandlordRole(userConnected);
 
         return listingMapper.listingToCreatedListingDTO(savedListing);
     }
@@ -93,6 +100,10 @@ public class LandlordService {
      * If the deletion is successful, the method returns a successful state with the listing's public ID.
      * If not, it returns an unauthorized state indicating the user is not authorized to delete the listing.
      *
+     * The listing and its pictures are deleted with set-based statements, without being loaded. The references
+     * of the pictures to their stored content are released, and the content no longer referenced by any picture
+     * is deleted from the picture storage in the background.
+     *
      * This method is transactional to ensure that the delete operation is atomic and consistent.
      *
      * @param publicId The public ID of the listing to be deleted.
@@ -101,6 +112,7 @@ public class LandlordService {
      */
     @Transactional
     public State<UUID, String> delete(UUID publicId, ReadUserDTO landlord) {
+        pictureService.releaseAll(publicId, landlord.publicId());
         long deletedSuccessfuly = listingRepository.deleteByPublicIdAndLandlordPublicId(publicId, landlord.publicId());
         if (deletedSuccessfuly > 0) {
             return State.<UUID, String>builder().forSuccess(publicId);
@@ -0,0 +1,347 @@
+package com.omar.bookingappback.listing.service;
+
+import com.omar.bookingappback.listing.PictureVariant;
+import com.omar.bookingappback.listing.dto.sub.ProcessedPictureDTO;
+import com.omar.bookingappback.listing.exception.PictureProcessingException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Service class normalizing the pictures uploaded by the landlords.
+ *
+ * Every picture is decoded, turned upright according to its EXIF orientation, stripped of its metadata
+ * (EXIF, color profiles, comments...), re-encoded and resized to each {@link PictureVariant}. Opaque pictures are encoded as JPEG,
+ * pictures with transparency as PNG.
+ */
+@Service
+public class PictureProcessingService {
+
+    private static final float JPEG_QUALITY = 0.82f;
+
+    /**
+     * Maximum number of pixels of a decoded picture, once subsampled.
+     */
+    private static final long MAX_DECODED_PIXELS = 40_000_000L;
+
+    /**
+     * Maximum size of the markers read for the EXIF orientation before the image data of a JPEG picture,
+     * the EXIF data being at most 64KB.
+     */
+    private static final int MAX_EXIF_HEADER_SIZE = 256 * 1024;
+
+    private static final int JPEG_SOI = 0xFFD8;
+
+    private static final int JPEG_APP1 = 0xFFE1;
+
+    private static final int JPEG_SOS = 0xFFDA;
+
+    private static final int JPEG_EOI = 0xFFD9;
+
+    private static final int ORIENTATION_TAG = 0x0112;
+
+    /**
+     * Decodes, normalizes and resizes a picture to every {@link PictureVariant}.
+     *
+     * Large pictures are subsampled while being decoded, so the decoded image is never much larger
+     * than the biggest variant, whatever the resolution of the uploaded picture.
+     *
+     * @param content The content of the uploaded picture.
+     * @return The content type and the bytes of each variant of the picture.
+     * @throws PictureProcessingException If the picture cannot be decoded or encoded.
+     */
+    public ProcessedPictureDTO process(InputStream content) {
+        DecodedPicture decodedPicture = decode(content);
+        BufferedImage image = decodedPicture.image();
+
+        boolean hasAlpha = image.getColorModel().hasAlpha();
+        String formatName = hasAlpha ? "png" : "jpeg";
+        String contentType = hasAlpha ? MediaType.IMAGE_PNG_VALUE : MediaType.IMAGE_JPEG_VALUE;
+
+        Map<PictureVariant, byte[]> variants = new EnumMap<>(PictureVariant.class);
+        BufferedImage source = orient(normalize(image, hasAlpha), decodedPicture.orientation());
+        // Variants are generated from the largest to the smallest, each one downscaled from the previous one
+        PictureVariant[] allVariants = PictureVariant.values();
+        for (int i = allVariants.length - 1; i >= 0; i--) {
+            source = resize(source, allVariants[i].getMaxSize());
+            variants.put(allVariants[i], encode(source, formatName));
+        }
+        return new ProcessedPictureDTO(contentType, variants);
+    }
+
+    /**
+     * Decodes a picture, ignoring its metadata and subsampling it if it is much larger than the biggest variant.
+     * Only the EXIF orientation of the JPEG pictures is read beforehand.
+     *
+     * @param content The content of the picture.
+     * @return The decoded picture and its EXIF orientation.
+     */
+    private DecodedPicture decode(InputStream content) {
+        BufferedInputStream bufferedContent = new BufferedInputStream(content);
+        int orientation;
+        try {
+            orientation = readOrientation(bufferedContent);
+        } catch (IOException ioe) {
+            throw new PictureProcessingException("Cannot decode picture", ioe);
+        }
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(bufferedContent)) {
+            Iterator<ImageReader> readers = imageInputStream == null ? null : ImageIO.getImageReaders(imageInputStream);
+            if (readers == null || !readers.hasNext()) {
+                throw new PictureProcessingException("Unsupported picture format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                int largestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = Math.max(1, largestSide / PictureVariant.FULL.getMaxSize());
+                long decodedPixels = ((long) reader.getWidth(0) / subsampling) * (reader.getHeight(0) / subsampling);
+                if (decodedPixels > MAX_DECODED_PIXELS) {
+                    throw new PictureProcessingException("Picture dimensions are too large");
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return new DecodedPicture(reader.read(0, param), orientation);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException ioe) {
+            throw new PictureProcessingException("Cannot decode picture", ioe);
+        }
+    }
+
+    /**
+     * Reads the EXIF orientation of a JPEG picture from the APP1 markers preceding its image data,
+     * then rewinds the stream to the start of the picture.
+     *
+     * @param content The content of the picture, rewound once the orientation is read.
+     * @return The EXIF orientation, from 1 to 8, or 1 (upright) if the picture is not a JPEG or has none.
+     * @throws IOException If the content cannot be read.
+     */
+    private int readOrientation(BufferedInputStream content) throws IOException {
+        content.mark(MAX_EXIF_HEADER_SIZE);
+        try {
+            DataInputStream header = new DataInputStream(content);
+            if (header.readUnsignedShort() != JPEG_SOI) {
+                return 1;
+            }
+            int headerSize = 2;
+            while (headerSize < MAX_EXIF_HEADER_SIZE) {
+                int marker = header.readUnsignedShort();
+                // Markers without content, image data and padding end the metadata markers
+                if ((marker & 0xFF00) != 0xFF00 || marker == JPEG_SOS || marker == JPEG_EOI) {
+                    return 1;
+                }
+                int length = header.readUnsignedShort();
+                headerSize += 2 + length;
+                if (length < 2 || headerSize > MAX_EXIF_HEADER_SIZE) {
+                    return 1;
+                }
+                byte[] segment = new byte[length - 2];
+                header.readFully(segment);
+                if (marker == JPEG_APP1) {
+                    int orientation = readOrientation(segment);
+                    if (orientation != 0) {
+                        return orientation;
+                    }
+                }
+            }
+            return 1;
+        } catch (EOFException eofe) {
+            return 1;
+        } finally {
+            content.reset();
+        }
+    }
+
+    /**
+     * Reads the orientation tag from the first IFD of the EXIF data of an APP1 marker.
+     *
+     * @param app1 The content of the APP1 marker, starting with the `Exif` identifier.
+     * @return The EXIF orientation, from 1 to 8, or 0 if the marker holds no valid orientation.
+     */
+    private int readOrientation(byte[] app1) {
+        byte[] identifier = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+        if (app1.length < identifier.length + 8
+                || !Arrays.equals(app1, 0, identifier.length, identifier, 0, identifier.length)) {
+            return 0;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(app1, identifier.length, app1.length - identifier.length).slice();
+        if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tiff.get(0) != 'M' || tiff.get(1) != 'M') {
+            return 0;
+        }
+        long ifdOffset = Integer.toUnsignedLong(tiff.getInt(4));
+        if (ifdOffset + 2 > tiff.limit()) {
+            return 0;
+        }
+        int entries = Short.toUnsignedInt(tiff.getShort((int) ifdOffset));
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) ifdOffset + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) {
+                return 0;
+            }
+            if (Short.toUnsignedInt(tiff.getShort(entry)) == ORIENTATION_TAG) {
+                int orientation = Short.toUnsignedInt(tiff.getShort(entry + 8));
+                return orientation >= 1 && orientation <= 8 ? orientation : 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Turns a picture upright according to its EXIF orientation, so the variants display the same
+     * once their metadata is stripped.
+     *
+     * @param image The normalized picture.
+     * @param orientation The EXIF orientation of the picture, from 1 to 8.
+     * @return The upright picture, the picture itself if it is already upright.
+     */
+    private BufferedImage orient(BufferedImage image, int orientation) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // Maps the stored pixels to the displayed ones: mirrored for 2 and 4, rotated for 3, 6 and 8,
+        // transposed for 5 and 7
+        AffineTransform transform = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, height, width);
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, width);
+            default -> null;
+        };
+        if (transform == null) {
+            return image;
+        }
+        boolean swapsSides = orientation >= 5;
+        BufferedImage target = new BufferedImage(swapsSides ? height : width, swapsSides ? width : height, image.getType());
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.drawImage(image, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * Converts a picture to a plain RGB or ARGB image, dropping any custom color model.
+     *
+     * @param image The decoded picture.
+     * @param hasAlpha Whether the picture has transparency.
+     * @return The normalized picture.
+     */
+    private BufferedImage normalize(BufferedImage image, boolean hasAlpha) {
+        int type = hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        if (image.getType() == type) {
+            return image;
+        }
+        return draw(image, image.getWidth(), image.getHeight(), type);
+    }
+
+    /**
+     * Downscales a picture so that its longest side fits in the given size. Pictures already
+     * small enough are returned as is, pictures are never upscaled.
+     *
+     * The picture is halved repeatedly before the final resize, which keeps bilinear
+     * interpolation from skipping pixels and producing aliasing on large reductions.
+     *
+     * @param image The picture to downscale.
+     * @param maxSize The maximum size of the longest side of the picture.
+     * @return The downscaled picture.
+     */
+    private BufferedImage resize(BufferedImage image, int maxSize) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (Math.max(width, height) <= maxSize) {
+            return image;
+        }
+        double ratio = (double) maxSize / Math.max(width, height);
+        int targetWidth = Math.max(1, (int) Math.round(width * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(height * ratio));
+
+        BufferedImage resized = image;
+        while (width / 2 >= targetWidth && height / 2 >= targetHeight) {
+            width /= 2;
+            height /= 2;
+            resized = draw(resized, width, height, image.getType());
+        }
+        return draw(resized, targetWidth, targetHeight, image.getType());
+    }
+
+    private BufferedImage draw(BufferedImage image, int width, int height, int type) {
+        BufferedImage target = new BufferedImage(width, height, type);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * Encodes a picture without any metadata.
+     *
+     * @param image The picture to encode.
+     * @param formatName The ImageIO format name, `jpeg` or `png`.
+     * @return The bytes of the encoded picture.
+     */
+    private byte[] encode(BufferedImage image, String formatName) {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(formatName).next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(imageOutputStream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if ("jpeg".equals(formatName)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(JPEG_QUALITY);
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException ioe) {
+            throw new PictureProcessingException("Cannot encode picture", ioe);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * A decoded picture, along with its EXIF orientation.
+     *
+     * @param image The decoded picture, as stored.
+     * @param orientation The EXIF orientation of the picture, from 1 to 8.
+     */
+    private record DecodedPicture(BufferedImage image, int orientation) {
+    }
+}
@@ -2,19 +2,49 @@ package com.omar.bookingappback.listing.service;
 
 import com.omar.bookingappback.listing.Listing;
 import com.omar.bookingappback.listing.ListingPicture;
+import com.omar.bookingappback.listing.PictureVariant;
+import com.omar.bookingappback.listing.dto.sub.PictureContentDTO;
 import com.omar.bookingappback.listing.dto.sub.PictureDTO;
+import com.omar.bookingappback.listing.dto.sub.PreparedPictureDTO;
+import com.omar.bookingappback.listing.dto.sub.ProcessedPictureDTO;
+import com.omar.bookingappback.listing.dto.sub.SavePictureDTO;
+import com.omar.bookingappback.listing.exception.PictureProcessingException;
 import com.omar.bookingappback.listing.mapper.ListingPictureMapper;
 import com.omar.bookingappback.listing.repository.ListingPictureRepository;
+import com.omar.bookingappback.listing.repository.PictureBlobRepository;
+import com.omar.bookingappback.listing.repository.PictureDeletionRepository;
+import com.omar.bookingappback.listing.storage.PictureCache;
+import com.omar.bookingappback.listing.storage.PictureStorage;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
 
 /**
  * Service class for managing and saving pictures associated with listings.
  *
- * This service handles the conversion of PictureDTOs to ListingPicture entities and persists them
- * in the database. It also ensures that the first picture is marked as the cover picture.
+ * This service normalizes the pictures into their size variants, writes the bytes of the variants
+ * to the PictureStorage and persists their metadata as ListingPicture entities in the database.
+ * Identical pictures are stored once and shared, with a reference count per content digest.
+ * It also ensures that the first picture is marked as the cover picture.
  */
 @Service
 public class PictureService {
@@ -23,37 +53,309 @@ public class PictureService {
 
     private final ListingPictureMapper listingPictureMapper;
 
+    private final PictureStorage pictureStorage;
+
+    private final PictureProcessingService pictureProcessingService;
+
+    private final PictureBlobRepository pictureBlobRepository;
+
+    private final PictureCache pictureCache;
+
+    private final PictureDeletionRepository pictureDeletionRepository;
+
     /**
      * Constructor for PictureService.
      *
      * @param listingPictureRepository Repository for performing database operations on ListingPicture entities.
-     * @param listingPictureMapper Mapper for converting between PictureDTO and ListingPicture entities.
+     * @param listingPictureMapper Mapper for converting ListingPicture entities to PictureDTOs.
+     * @param pictureStorage Storage holding the bytes of the pictures.
+     * @param pictureProcessingService Service normalizing the pictures into their size variants.
+     * @param pictureBlobRepository Repository counting the references to the stored variants of the pictures.
+     * @param pictureCache Node-local cache of the served pictures.
+     * @param pictureDeletionRepository Repository recording the stored variants waiting to be deleted.
      */
-    public PictureService(ListingPictureRepository listingPictureRepository, ListingPictureMapper listingPictureMapper) {
+    public PictureService(ListingPictureRepository listingPictureRepository, ListingPictureMapper listingPictureMapper,
+                          PictureStorage pictureStorage, PictureProcessingService pictureProcessingService,
+                          PictureBlobRepository pictureBlobRepository, PictureCache pictureCache,
+                          PictureDeletionRepository pictureDeletionRepository) {
         this.listingPictureRepository = listingPictureRepository;
         this.listingPictureMapper = listingPictureMapper;
+        this.pictureStorage = pictureStorage;
+        this.pictureProcessingService = pictureProcessingService;
+        this.pictureBlobRepository = pictureBlobRepository;
+        this.pictureCache = pictureCache;
+        this.pictureDeletionRepository = pictureDeletionRepository;
+    }
+
+
+    /**
+     * Prepares the pictures of a listing about to be created, before its transaction is started.
+     *
+     * Each picture is identified by the SHA-256 digest of its uploaded content. A picture whose content
+     * is already stored will reuse the stored variants. Otherwise the picture is streamed from its source
+     * and normalized into its size variants, which are written to the picture storage. Pictures are
+     * processed one at a time, so only one of them is decoded in memory, and without holding any database
+     * connection. The variants of a listing creation that fails are purged as orphans by {@link #purgeOrphans}.
+     *
+     * @param pictures List of SavePictureDTO objects to be prepared.
+     * @return The prepared pictures, in the same order, to be saved with {@link #saveAll(List, Listing)}.
+     * @throws PictureProcessingException If a picture cannot be read or processed.
+     */
+    public List<PreparedPictureDTO> prepareAll(List<SavePictureDTO> pictures) {
+        List<PreparedPictureDTO> preparedPictures = new ArrayList<>();
+        Map<String, PreparedPictureDTO> preparedPicturesByDigest = new HashMap<>();
+
+        for (SavePictureDTO picture : pictures) {
+            String contentDigest = digest(picture);
+            PreparedPictureDTO preparedPicture = preparedPicturesByDigest.get(contentDigest);
+            if (preparedPicture == null) {
+                if (listingPictureRepository.existsByContentDigest(contentDigest)) {
+                    preparedPicture = new PreparedPictureDTO(picture, contentDigest, null, null, null, null);
+                } else {
+                    preparedPicture = store(picture, contentDigest);
+                }
+                preparedPicturesByDigest.put(contentDigest, preparedPicture);
+            }
+            preparedPictures.add(preparedPicture);
+        }
+        return preparedPictures;
     }
 
 
     /**
      * Saves all pictures associated with a listing and marks the first picture as the cover.
      *
-     * @param pictures List of PictureDTO objects to be converted and saved.
+     * A picture whose content is already stored reuses the stored variants and only adds a reference
+     * to them, the variants prepared for it being left as orphans. Otherwise the variants prepared for it
+     * are referenced. Only the storage keys and the metadata of the pictures are persisted: the pictures
+     * are only processed here if their shared content was released since they were prepared.
+     *
+     * @param pictures The pictures prepared with {@link #prepareAll(List)}.
      * @param listing The listing associated with the pictures.
      * @return List of PictureDTO objects after saving them as ListingPicture entities.
+     * @throws PictureProcessingException If a picture has to be processed again and cannot be.
      */
-    public List<PictureDTO> saveAll(List<PictureDTO> pictures, Listing listing) {
-        Set<ListingPicture> listingPictures = listingPictureMapper.pictureDTOsToListingPictures(pictures);
+    public List<PictureDTO> saveAll(List<PreparedPictureDTO> pictures, Listing listing) {
+        List<ListingPicture> listingPictures = new ArrayList<>();
+        // Pictures of this batch are not flushed yet, so they cannot be found by their digest in the database
+        Map<String, ListingPicture> listingPicturesByDigest = new HashMap<>();
 
         boolean isFirst = true;
 
-        for (ListingPicture listingPicture : listingPictures) {
+        for (PreparedPictureDTO picture : pictures) {
+            String contentDigest = picture.contentDigest();
+            ListingPicture listingPicture = new ListingPicture();
+            listingPicture.setContentDigest(contentDigest);
+
+            Optional<ListingPicture> storedPicture = Optional.empty();
+            if (pictureBlobRepository.acquire(contentDigest) > 1) {
+                storedPicture = Optional.ofNullable(listingPicturesByDigest.get(contentDigest))
+                        .or(() -> listingPictureRepository.findFirstByContentDigest(contentDigest));
+            }
+            if (storedPicture.isPresent()) {
+                listingPicture.setStorageKey(storedPicture.get().getStorageKey());
+                listingPicture.setCardStorageKey(storedPicture.get().getCardStorageKey());
+                listingPicture.setThumbnailStorageKey(storedPicture.get().getThumbnailStorageKey());
+                listingPicture.setFileContentType(storedPicture.get().getFileContentType());
+            } else {
+                PreparedPictureDTO storedVariants = picture.isStored() ? picture : store(picture.source(), contentDigest);
+                listingPicture.setStorageKey(storedVariants.storageKey());
+                listingPicture.setCardStorageKey(storedVariants.cardStorageKey());
+                listingPicture.setThumbnailStorageKey(storedVariants.thumbnailStorageKey());
+                listingPicture.setFileContentType(storedVariants.fileContentType());
+            }
             listingPicture.setCover(isFirst);
             listingPicture.setListing(listing);
+            listingPictures.add(listingPicture);
+            listingPicturesByDigest.putIfAbsent(contentDigest, listingPicture);
             isFirst = false;
         }
 
-        listingPictureRepository.saveAll(listingPictures);
-        return listingPictureMapper.listingPictureToPictureDTO(listingPictures.stream().toList());
+        listingPictureRepository.saveAllAndFlush(listingPictures);
+        return listingPictureMapper.listingPictureToPictureDTO(listingPictures);
+    }
+
+
+    /**
+     * Releases the pictures of a listing, before the listing is deleted along with its pictures.
+     *
+     * Nothing is loaded in memory: the references of the pictures to their stored variants are removed
+     * and the storage keys of the variants are recorded for deletion with set-based statements.
+     * The variants are deleted from the picture storage in the background by {@link #sweep(int)},
+     * once no remaining picture references them. The pictures are evicted from the node-local cache
+     * once the transaction is committed.
+     *
+     * @param listingPublicId The public ID of the listing about to be deleted.
+     * @param landlordPublicId The public ID of the landlord owning the listing.
+     */
+    public void releaseAll(UUID listingPublicId, UUID landlordPublicId) {
+        List<UUID> releasedPictures = listingPictureRepository.findAllPublicIdsByListing(listingPublicId, landlordPublicId);
+        if (releasedPictures.isEmpty()) {
+            return;
+        }
+        pictureDeletionRepository.requestAllByListing(listingPublicId, landlordPublicId);
+        pictureBlobRepository.releaseAllByListing(listingPublicId, landlordPublicId);
+        pictureBlobRepository.deleteAllUnreferencedByListing(listingPublicId, landlordPublicId);
+        listingPictureRepository.unlinkFilesByListing(listingPublicId, landlordPublicId);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                releasedPictures.forEach(pictureCache::evict);
+            }
+        });
+    }
+
+
+    /**
+     * Deletes a batch of the variants recorded for deletion from the picture storage.
+     *
+     * Variants still referenced by a picture sharing the same content are kept. If the transaction
+     * rolls back, the batch is swept again later, deleting a variant twice being harmless.
+     *
+     * @param batchSize The maximum number of variants to sweep.
+     * @return The number of variants swept.
+     */
+    @Transactional
+    public int sweep(int batchSize) {
+        List<String> storageKeys = pictureDeletionRepository.claim(batchSize);
+        if (storageKeys.isEmpty()) {
+            return 0;
+        }
+        Set<String> referencedStorageKeys = new HashSet<>(listingPictureRepository.findAllReferencedStorageKeys(storageKeys));
+        storageKeys.stream()
+                .filter(storageKey -> !referencedStorageKeys.contains(storageKey))
+                .forEach(pictureStorage::delete);
+        return storageKeys.size();
+    }
+
+
+    /**
+     * Deletes from the picture storage the content referenced by no picture, such as the variants stored
+     * by a listing creation that rolled back.
+     *
+     * Only content stored before the given instant is considered, so content being stored by a transaction
+     * in progress is never purged.
+     *
+     * @param storedBefore The instant before which the orphaned content must have been stored.
+     * @param batchSize The number of storage keys looked up in the database at once.
+     * @return The number of orphaned contents deleted.
+     */
+    public int purgeOrphans(Instant storedBefore, int batchSize) {
+        int purged = 0;
+        List<String> batch = new ArrayList<>(batchSize);
+        try (Stream<String> storageKeys = pictureStorage.findAllStoredBefore(storedBefore)) {
+            Iterator<String> iterator = storageKeys.iterator();
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == batchSize || !iterator.hasNext()) {
+                    Set<String> referencedStorageKeys = new HashSet<>(listingPictureRepository.findAllReferencedStorageKeys(batch));
+                    for (String storageKey : batch) {
+                        if (!referencedStorageKeys.contains(storageKey)) {
+                            pictureStorage.delete(storageKey);
+                            purged++;
+                        }
+                    }
+                    batch.clear();
+                }
+            }
+        }
+        return purged;
+    }
+
+
+    /**
+     * Computes the SHA-256 digest of the content of a picture, read from its source.
+     *
+     * @param picture The uploaded picture.
+     * @return The digest, as a lowercase hexadecimal string.
+     */
+    private String digest(SavePictureDTO picture) {
+        try (InputStream content = picture.content().getInputStream()) {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(messageDigest.digest());
+        } catch (IOException ioe) {
+            throw new PictureProcessingException("Cannot read picture", ioe);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Normalizes a picture into its size variants and writes them to the picture storage.
+     */
+    private PreparedPictureDTO store(SavePictureDTO picture, String contentDigest) {
+        ProcessedPictureDTO processedPicture = process(picture);
+        return new PreparedPictureDTO(picture, contentDigest, processedPicture.fileContentType(),
+                storeVariant(processedPicture, PictureVariant.FULL),
+                storeVariant(processedPicture, PictureVariant.CARD),
+                storeVariant(processedPicture, PictureVariant.THUMBNAIL));
+    }
+
+    private ProcessedPictureDTO process(SavePictureDTO picture) {
+        try (InputStream content = picture.content().getInputStream()) {
+            return pictureProcessingService.process(content);
+        } catch (IOException ioe) {
+            throw new PictureProcessingException("Cannot read picture", ioe);
+        }
+    }
+
+    private String storeVariant(ProcessedPictureDTO processedPicture, PictureVariant variant) {
+        return pictureStorage.store(new ByteArrayInputStream(processedPicture.variants().get(variant)));
+    }
+
+
+    /**
+     * Retrieves the content of a size variant of a picture by the public ID of the picture.
+     *
+     * Pictures uploaded before the introduction of the size variants only have their original
+     * content, which is returned for every variant.
+     *
+     * @param publicId The public ID of the picture.
+     * @param variant The size variant to retrieve.
+     * @return An `Optional<PictureContentDTO>` containing the content and the content type of the picture,
+     *         or an empty `Optional` if the picture or its content doesn't exist.
+     */
+    @Transactional(readOnly = true)
+    public Optional<PictureContentDTO> getContent(UUID publicId, PictureVariant variant) {
+        return listingPictureRepository.findByPublicId(publicId)
+                .flatMap(picture -> {
+                    String storageKey = getStorageKey(picture, variant);
+                    return pictureStorage.load(storageKey)
+                            .map(content -> new PictureContentDTO(content, picture.getFileContentType(), storageKey));
+                });
+    }
+
+    private String getStorageKey(ListingPicture picture, PictureVariant variant) {
+        String variantStorageKey = switch (variant) {
+            case THUMBNAIL -> picture.getThumbnailStorageKey();
+            case CARD -> picture.getCardStorageKey();
+            case FULL -> picture.getStorageKey();
+        };
+        return variantStorageKey != null ? variantStorageKey : picture.getStorageKey();
+    }
+
+
+    /**
+     * Moves a batch of pictures whose bytes are still stored in the database to the picture storage.
+     *
+     * @param batchSize The maximum number of pictures to move.
+     * @return The number of pictures moved.
+     */
+    @Transactional
+    public int moveToStorage(int batchSize) {
+        List<Long> pictureIds = listingPictureRepository.findAllIdsNotInStorage(batchSize);
+        for (Long pictureId : pictureIds) {
+            byte[] file = listingPictureRepository.findFileById(pictureId);
+            String storageKey = pictureStorage.store(new ByteArrayInputStream(file));
+            listingPictureRepository.unlinkFileById(pictureId);
+            listingPictureRepository.updateStorageKey(pictureId, storageKey);
+        }
+        return pictureIds.size();
     }
 }
@@ -0,0 +1,341 @@
+package com.omar.bookingappback.listing.service;
+
+import com.omar.bookingappback.listing.PictureUpload;
+import com.omar.bookingappback.listing.dto.CreatePictureUploadDTO;
+import com.omar.bookingappback.listing.dto.PictureUploadDTO;
+import com.omar.bookingappback.listing.dto.sub.SavePictureDTO;
+import com.omar.bookingappback.listing.exception.PictureStorageException;
+import com.omar.bookingappback.listing.repository.PictureUploadRepository;
+import com.omar.bookingappback.shared.state.State;
+import com.omar.bookingappback.user.dto.ReadUserDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Service class managing the resumable picture uploads.
+ *
+ * A landlord opens an upload session for each picture, sends the content of the picture in chunks,
+ * each one starting at the offset where the previous one ended, and resumes an interrupted upload from
+ * the offset received so far. Completed uploads are attached to a listing when it is created.
+ *
+ * The chunks are appended to a file of the upload directory, the size of this file being the offset
+ * received so far. No database connection is held while a chunk is received. A user has a bounded number
+ * of open uploads, so the upload directory can't be filled by opening sessions.
+ *
+ * The upload directory is the only state of an upload kept outside the database, so every node must see
+ * the same directory: when several nodes serve the API, it must be a volume shared by all of them, like the root
+ * directory of the local picture storage. Otherwise a chunk, a resumption or the creation of the listing reaching
+ * another node than the one which received the previous chunks would not find the upload content, and the load
+ * balancer must route all the requests of a user to the same node, e.g. by the session cookie.
+ */
+@Service
+public class PictureUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(PictureUploadService.class);
+
+    private final PictureUploadRepository pictureUploadRepository;
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    private final int maxOpenPerUser;
+
+    private final Duration expiration;
+
+    /**
+     * Constructor for PictureUploadService.
+     *
+     * @param pictureUploadRepository Repository for performing database operations on PictureUpload entities.
+     * @param directory The directory holding the content of the uploads, fetched from the application's configuration.
+     * @param maxSize The maximum size of an uploaded picture, fetched from the application's configuration.
+     * @param maxOpenPerUser The maximum number of uploads a user has open at once,
+     *                       fetched from the application's configuration.
+     * @param expiration The duration after which an upload not attached to a listing is discarded,
+     *                   fetched from the application's configuration.
+     */
+    public PictureUploadService(PictureUploadRepository pictureUploadRepository,
+                                @Value("${application.picture-upload.directory}") String directory,
+                                @Value("${application.picture-upload.max-size}") DataSize maxSize,
+                                @Value("${application.picture-upload.max-open-per-user}") int maxOpenPerUser,
+                                @Value("${application.picture-upload.expiration}") Duration expiration) {
+        this.pictureUploadRepository = pictureUploadRepository;
+        this.directory = Path.of(directory).toAbsolutePath().normalize();
+        this.maxSize = maxSize.toBytes();
+        this.maxOpenPerUser = maxOpenPerUser;
+        this.expiration = expiration;
+    }
+
+    /**
+     * Opens an upload session for a picture.
+     *
+     * @param createPictureUploadDTO The content type and the total size of the picture.
+     * @param owner The user uploading the picture.
+     * @return A `State` containing the new upload, or an error if the picture is too large
+     *         or the user has too many open uploads.
+     */
+    public State<PictureUploadDTO, String> create(CreatePictureUploadDTO createPictureUploadDTO, ReadUserDTO owner) {
+        if (createPictureUploadDTO.size() > maxSize) {
+            return State.<PictureUploadDTO, String>builder()
+                    .forError(String.format("Picture must not exceed %d bytes", maxSize));
+        }
+        // Expired uploads count until they are purged
+        if (pictureUploadRepository.countByOwnerPublicIdAndCreatedDateAfter(owner.publicId(),
+                Instant.now().minus(expiration)) >= maxOpenPerUser) {
+            return State.<PictureUploadDTO, String>builder()
+                    .forError(String.format("At most %d uploads may be open at once", maxOpenPerUser));
+        }
+
+        PictureUpload pictureUpload = new PictureUpload();
+        pictureUpload.setOwnerPublicId(owner.publicId());
+        pictureUpload.setFileContentType(createPictureUploadDTO.fileContentType());
+        pictureUpload.setSize(createPictureUploadDTO.size());
+        pictureUpload = pictureUploadRepository.saveAndFlush(pictureUpload);
+
+        try {
+            Files.createDirectories(directory);
+            Files.createFile(resolve(pictureUpload.getPublicId()));
+        } catch (IOException ioe) {
+            pictureUploadRepository.delete(pictureUpload);
+            throw new PictureStorageException(String.format("Cannot create upload %s", pictureUpload.getPublicId()), ioe);
+        }
+        return State.<PictureUploadDTO, String>builder().forSuccess(toPictureUploadDTO(pictureUpload, 0));
+    }
+
+    /**
+     * Retrieves the state of an upload, to resume it from the offset received so far.
+     *
+     * @param publicId The public ID of the upload.
+     * @param ownerPublicId The public ID of the user uploading the picture.
+     * @return An `Optional<PictureUploadDTO>` containing the upload, or an empty `Optional` if it doesn't exist.
+     */
+    public Optional<PictureUploadDTO> getOne(UUID publicId, UUID ownerPublicId) {
+        return pictureUploadRepository.findByPublicIdAndOwnerPublicId(publicId, ownerPublicId)
+                .map(pictureUpload -> toPictureUploadDTO(pictureUpload, getReceivedSize(pictureUpload.getPublicId())));
+    }
+
+    /**
+     * Appends a chunk to an upload.
+     *
+     * The chunk must start at the offset received so far. A chunk exceeding the picture size is rejected as a whole:
+     * before any of its bytes is written if its length is known, otherwise by discarding the bytes written.
+     * If the connection drops in the middle of the chunk, the bytes already received are kept and the upload
+     * can be resumed from the new offset.
+     *
+     * @param publicId The public ID of the upload.
+     * @param ownerPublicId The public ID of the user uploading the picture.
+     * @param offset The offset of the first byte of the chunk in the picture.
+     * @param length The length of the chunk, or -1 if unknown.
+     * @param chunk The content of the chunk.
+     * @return A `State` containing the upload with its new offset, an unauthorized state if the upload doesn't exist
+     *         or belongs to another user, or an error containing the upload with the offset received so far
+     *         if the offset doesn't match, the chunk exceeds the picture size or the chunk was interrupted.
+     */
+    public State<PictureUploadDTO, String> appendChunk(UUID publicId, UUID ownerPublicId, long offset, long length,
+                                                       InputStream chunk) {
+        Optional<PictureUpload> pictureUploadOpt = pictureUploadRepository.findByPublicIdAndOwnerPublicId(publicId, ownerPublicId);
+        if (pictureUploadOpt.isEmpty()) {
+            return State.<PictureUploadDTO, String>builder().forUnauthorized("Upload not found");
+        }
+        PictureUpload pictureUpload = pictureUploadOpt.get();
+
+        try (FileChannel file = FileChannel.open(resolve(publicId), StandardOpenOption.WRITE);
+             FileLock lock = tryLock(file)) {
+            long received = file.size();
+            if (lock == null) {
+                return State.<PictureUploadDTO, String>builder().forError("Another chunk of this upload is being received",
+                        toPictureUploadDTO(pictureUpload, received));
+            }
+            if (offset != received) {
+                return State.<PictureUploadDTO, String>builder().forError(
+                        String.format("Chunk must start at offset %d", received), toPictureUploadDTO(pictureUpload, received));
+            }
+            String tooLong = String.format("Chunk exceeds the picture size of %d bytes", pictureUpload.getSize());
+            if (length > pictureUpload.getSize() - received) {
+                return State.<PictureUploadDTO, String>builder().forError(tooLong, toPictureUploadDTO(pictureUpload, received));
+            }
+
+            ChunkInputStream source = new ChunkInputStream(chunk);
+            try {
+                ReadableByteChannel sourceChannel = Channels.newChannel(source);
+                long transferred;
+                while (received < pictureUpload.getSize()
+                        && (transferred = file.transferFrom(sourceChannel, received, pictureUpload.getSize() - received)) > 0) {
+                    received += transferred;
+                }
+                if (source.read() != -1) {
+                    file.truncate(offset);
+                    return State.<PictureUploadDTO, String>builder().forError(tooLong, toPictureUploadDTO(pictureUpload, offset));
+                }
+            } catch (IOException ioe) {
+                if (!source.isInterrupted()) {
+                    throw ioe;
+                }
+                long kept = file.size();
+                log.debug("Chunk of upload {} interrupted at offset {}", publicId, kept, ioe);
+                return State.<PictureUploadDTO, String>builder().forError(
+                        String.format("Chunk interrupted, resume from offset %d", kept), toPictureUploadDTO(pictureUpload, kept));
+            }
+            return State.<PictureUploadDTO, String>builder().forSuccess(toPictureUploadDTO(pictureUpload, received));
+        } catch (IOException ioe) {
+            throw new PictureStorageException(String.format("Cannot append chunk to upload %s", publicId), ioe);
+        }
+    }
+
+    /**
+     * Retrieves completed uploads, in the given order, to attach them to a listing.
+     *
+     * @param publicIds The public IDs of the uploads.
+     * @param ownerPublicId The public ID of the user who uploaded the pictures.
+     * @return A `State` containing the pictures, streamed from the upload directory,
+     *         or an error if one of the uploads doesn't exist or is not complete.
+     */
+    public State<List<SavePictureDTO>, String> getCompletedPictures(List<UUID> publicIds, UUID ownerPublicId) {
+        Map<UUID, PictureUpload> pictureUploads = pictureUploadRepository
+                .findAllByPublicIdInAndOwnerPublicId(publicIds, ownerPublicId)
+                .stream()
+                .collect(Collectors.toMap(PictureUpload::getPublicId, Function.identity()));
+
+        for (UUID publicId : publicIds) {
+            PictureUpload pictureUpload = pictureUploads.get(publicId);
+            if (pictureUpload == null) {
+                return State.<List<SavePictureDTO>, String>builder().forError(String.format("Upload %s not found", publicId));
+            }
+            if (getReceivedSize(publicId) != pictureUpload.getSize()) {
+                return State.<List<SavePictureDTO>, String>builder().forError(String.format("Upload %s is not complete", publicId));
+            }
+        }
+
+        List<SavePictureDTO> pictures = publicIds.stream()
+                .map(pictureUploads::get)
+                .map(pictureUpload -> new SavePictureDTO(new FileSystemResource(resolve(pictureUpload.getPublicId())),
+                        pictureUpload.getFileContentType(), pictureUpload.getSize()))
+                .toList();
+        return State.<List<SavePictureDTO>, String>builder().forSuccess(pictures);
+    }
+
+    /**
+     * Deletes uploads and their content, once they have been attached to a listing.
+     *
+     * @param publicIds The public IDs of the uploads.
+     * @param ownerPublicId The public ID of the user who uploaded the pictures.
+     */
+    public void deleteAll(List<UUID> publicIds, UUID ownerPublicId) {
+        delete(pictureUploadRepository.findAllByPublicIdInAndOwnerPublicId(publicIds, ownerPublicId));
+    }
+
+    /**
+     * Discards the uploads that have not been attached to a listing before their expiration.
+     */
+    @Scheduled(fixedDelayString = "${application.picture-upload.purge-delay}")
+    public void purgeExpired() {
+        List<PictureUpload> expiredUploads = pictureUploadRepository.findAllByCreatedDateBefore(Instant.now().minus(expiration));
+        if (!expiredUploads.isEmpty()) {
+            delete(expiredUploads);
+            log.info("Discarded {} expired picture uploads", expiredUploads.size());
+        }
+    }
+
+    private void delete(List<PictureUpload> pictureUploads) {
+        pictureUploadRepository.deleteAllInBatch(pictureUploads);
+        for (PictureUpload pictureUpload : pictureUploads) {
+            try {
+                Files.deleteIfExists(resolve(pictureUpload.getPublicId()));
+            } catch (IOException ioe) {
+                log.warn("Cannot delete upload {}", pictureUpload.getPublicId(), ioe);
+            }
+        }
+    }
+
+    /**
+     * Locks an upload file, so a single chunk is appended at a time, whichever node receives it.
+     *
+     * @return The lock, or null if another chunk is being appended.
+     */
+    private FileLock tryLock(FileChannel file) throws IOException {
+        try {
+            return file.tryLock();
+        } catch (OverlappingFileLockException ofle) {
+            return null;
+        }
+    }
+
+    private long getReceivedSize(UUID publicId) {
+        try {
+            return Files.size(resolve(publicId));
+        } catch (IOException ioe) {
+            throw new PictureStorageException(String.format("Cannot read upload %s", publicId), ioe);
+        }
+    }
+
+    private Path resolve(UUID publicId) {
+        return directory.resolve(publicId.toString());
+    }
+
+    private PictureUploadDTO toPictureUploadDTO(PictureUpload pictureUpload, long offset) {
+        return new PictureUploadDTO(pictureUpload.getPublicId(), pictureUpload.getFileContentType(),
+                pictureUpload.getSize(), offset);
+    }
+
+    /**
+     * Content of a chunk, recording whether reading it failed, e.g. because the client connection dropped,
+     * to tell these failures apart from the ones of the upload directory.
+     */
+    private static final class ChunkInputStream extends FilterInputStream {
+
+        private boolean interrupted;
+
+        private ChunkInputStream(InputStream chunk) {
+            super(chunk);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException ioe) {
+                interrupted = true;
+                throw ioe;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                return super.read(buffer, offset, length);
+            } catch (IOException ioe) {
+                interrupted = true;
+                throw ioe;
+            }
+        }
+
+        private boolean isInterrupted() {
+            return interrupted;
+        }
+    }
+}
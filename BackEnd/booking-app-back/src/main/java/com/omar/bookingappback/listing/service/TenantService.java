@@ -1,13 +1,16 @@
 package com.omar.bookingappback.listing.service;
 
 
-import com.omar.bookingappback.booking.service.BookingService;
+import com.omar.bookingappback.booking.dto.BookedDateDTO;
 import com.omar.bookingappback.listing.BookingCategory;
 import com.omar.bookingappback.listing.Listing;
+import com.omar.bookingappback.listing.dto.AvailableListingDTO;
 import com.omar.bookingappback.listing.dto.DisplayCardListingDTO;
 import com.omar.bookingappback.listing.dto.DisplayListingDTO;
+import com.omar.bookingappback.listing.dto.FlexibleSearchDTO;
 import com.omar.bookingappback.listing.dto.SearchDTO;
 import com.omar.bookingappback.listing.dto.sub.LandlordListingDTO;
+import com.omar.bookingappback.listing.dto.sub.ListingBookedPeriodDTO;
 import com.omar.bookingappback.listing.mapper.ListingMapper;
 import com.omar.bookingappback.listing.repository.ListingRepository;
 import com.omar.bookingappback.shared.state.State;
@@ -19,27 +22,36 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class TenantService {
 
+    /**
+     * Maximum span of dates of a flexible-dates search, bounding the bookings fetched per listing.
+     */
+    private static final int MAX_FLEXIBLE_SPAN_DAYS = 366;
+
     private final ListingRepository listingRepository;
 
     private final ListingMapper listingMapper;
 
     private final UserService userService;
 
-    private final BookingService bookingService;
-
-    public TenantService(ListingRepository listingRepository, ListingMapper listingMapper, UserService userService, BookingService bookingService) {
+    public TenantService(ListingRepository listingRepository, ListingMapper listingMapper, UserService userService) {
 
         this.listingRepository = listingRepository;
         this.listingMapper = listingMapper;
         this.userService = userService;
-        this.bookingService = bookingService;
 
     }
 
@@ -48,19 +60,23 @@ public class TenantService {
      * If the category is `ALL`, all listings are retrieved with only the cover picture loaded.
      * Otherwise, the listings for the specified category are returned with their cover picture.
      *
+     * The page is computed over the listing IDs first, then only the listings of the page
+     * are loaded with their cover picture.
+     *
      * @param pageable The `Pageable` object representing pagination information.
      * @param category The `BookingCategory` to filter listings by.
      * @return A paginated list of `DisplayCardListingDTO` objects representing the listings.
      */
+    @Transactional(readOnly = true)
     public Page<DisplayCardListingDTO> getAllByCategory(Pageable pageable, BookingCategory category) {
-        Page<Listing> allOrBookingCategory;
+        Page<Long> allOrBookingCategoryIds;
         if (category == BookingCategory.ALL) {
-            allOrBookingCategory = listingRepository.findAllWithCoverOnly(pageable);
+            allOrBookingCategoryIds = listingRepository.findAllIdsWithCover(pageable);
         } else {
-            allOrBookingCategory = listingRepository.findAllByBookingCategoryWithCoverOnly(pageable, category);
+            allOrBookingCategoryIds = listingRepository.findAllIdsByBookingCategoryWithCover(pageable, category);
         }
 
-        return allOrBookingCategory.map(listingMapper::listingToDisplayCardListingDTO);
+        return mapListingIdsToDisplayCardListingDTOs(allOrBookingCategoryIds);
     }
 
     /**
@@ -97,6 +113,10 @@ public class TenantService {
      * Searches for listings based on specific criteria and filters out those that are already booked
      * within the specified date range.
      *
+     * The availability filter is evaluated by the database, so the returned page is always full
+     * and its total reflects the number of available listings. Only the cover pictures of the
+     * listings in the page are loaded.
+     *
      * @param pageable   the pagination and sorting information
      * @param newSearch  the search criteria containing location, number of bathrooms, bedrooms, guests, beds, and booking dates
      * @return a paginated list of listings (DisplayCardListingDTO) that match the search criteria and are available for the specified dates
@@ -104,35 +124,135 @@ public class TenantService {
     @Transactional(readOnly = true)
     public Page<DisplayCardListingDTO> search(Pageable pageable, SearchDTO newSearch) {
 
-        // Retrieve listings that match the specified location and property details
-        Page<Listing> allMatchedListings = listingRepository.findAllByLocationAndBathroomsAndBedroomsAndGuestsAndBeds(
+        // Retrieve the IDs of the listings matching the criteria and free for the requested dates
+        Page<Long> availableListingIds = listingRepository.findAllAvailableIdsByCriteria(
                 pageable,
                 newSearch.location(),
                 newSearch.infos().baths().value(),
                 newSearch.infos().bedrooms().value(),
                 newSearch.infos().guests().value(),
-                newSearch.infos().beds().value()
+                newSearch.infos().beds().value(),
+                newSearch.dates().startDate(),
+                newSearch.dates().endDate()
         );
 
-        // Extract public IDs from the listings that matched the initial search criteria
-        List<UUID> listingUUIDs = allMatchedListings.stream()
-                .map(Listing::getPublicId)
-                .toList();
+        return mapListingIdsToDisplayCardListingDTOs(availableListingIds);
+    }
+
+    /**
+     * Searches for listings based on specific criteria having at least one free stay of the requested
+     * number of nights within a span of dates, along with the earliest free stay of each listing.
+     *
+     * The stays considered start at the time of day of the start of the span, on any day of the span,
+     * and must end by the end of the span. The bookings of all the matching listings overlapping the span
+     * are fetched with a single query, ordered by listing then by start date, and the earliest free stay
+     * of every listing is found in one pass over them, instead of searching each candidate stay.
+     *
+     * The listings are ordered by their earliest free stay, so the sorting information of `pageable`
+     * is ignored. Only the cover pictures of the listings in the page are loaded.
+     *
+     * @param pageable  the pagination information
+     * @param newSearch the search criteria containing location, property details, span of dates and number of nights
+     * @return a `State` containing a paginated list of the available listings with their earliest free stay,
+     *         or an error if the span of dates or the number of nights is invalid
+     */
+    @Transactional(readOnly = true)
+    public State<Page<AvailableListingDTO>, String> searchFlexible(Pageable pageable, FlexibleSearchDTO newSearch) {
+        OffsetDateTime spanStart = newSearch.dates().startDate();
+        OffsetDateTime spanEnd = newSearch.dates().endDate();
+        if (!spanEnd.isAfter(spanStart) || spanEnd.isAfter(spanStart.plusDays(MAX_FLEXIBLE_SPAN_DAYS))) {
+            return State.<Page<AvailableListingDTO>, String>builder()
+                    .forError(String.format("End date must be after start date and within %d days", MAX_FLEXIBLE_SPAN_DAYS));
+        }
+        if (spanStart.plusDays(newSearch.nights()).isAfter(spanEnd)) {
+            return State.<Page<AvailableListingDTO>, String>builder()
+                    .forError(String.format("Dates must span at least %d nights", newSearch.nights()));
+        }
 
-        // Get the IDs of listings that are already booked within the specified date range
-        List<UUID> bookingUUIDs = bookingService.getBookingMatchByListingIdsAndBookedDate(
-                listingUUIDs,
-                newSearch.dates()
+        List<ListingBookedPeriodDTO> bookedPeriods = listingRepository.findAllBookedPeriodsByCriteria(
+                newSearch.location(),
+                newSearch.infos().baths().value(),
+                newSearch.infos().bedrooms().value(),
+                newSearch.infos().guests().value(),
+                newSearch.infos().beds().value(),
+                spanStart,
+                spanEnd
         );
 
-        // Filter out booked listings, transform the remaining available listings to DTOs for display
-        List<DisplayCardListingDTO> listingsNotBooked = allMatchedListings.stream()
-                .filter(listing -> !bookingUUIDs.contains(listing.getPublicId()))
-                .map(listingMapper::listingToDisplayCardListingDTO)
+        // One pass over the booked periods, grouped by listing and sorted by start date
+        List<FreeStay> freeStays = new ArrayList<>();
+        OffsetDateTime stayStart = null;
+        for (int i = 0; i < bookedPeriods.size(); i++) {
+            ListingBookedPeriodDTO bookedPeriod = bookedPeriods.get(i);
+            if (i == 0 || !bookedPeriod.listingId().equals(bookedPeriods.get(i - 1).listingId())) {
+                stayStart = spanStart;
+            }
+            if (stayStart != null && bookedPeriod.startDate() != null) {
+                if (!stayStart.plusDays(newSearch.nights()).isAfter(bookedPeriod.startDate())) {
+                    // The stay ends before this booking, and the next bookings start later
+                    freeStays.add(new FreeStay(bookedPeriod.listingId(), stayStart));
+                    stayStart = null;
+                } else if (bookedPeriod.endDate().isAfter(stayStart)) {
+                    stayStart = spanStart.plusDays(ceilDays(spanStart, bookedPeriod.endDate()));
+                }
+            }
+            boolean lastOfListing = i == bookedPeriods.size() - 1
+                    || !bookedPeriod.listingId().equals(bookedPeriods.get(i + 1).listingId());
+            if (lastOfListing && stayStart != null && !stayStart.plusDays(newSearch.nights()).isAfter(spanEnd)) {
+                freeStays.add(new FreeStay(bookedPeriod.listingId(), stayStart));
+            }
+        }
+        freeStays.sort(Comparator.comparing(FreeStay::startDate));
+
+        int fromIndex = (int) Math.min(pageable.getOffset(), freeStays.size());
+        int toIndex = Math.min(fromIndex + pageable.getPageSize(), freeStays.size());
+        List<FreeStay> pageFreeStays = freeStays.subList(fromIndex, toIndex);
+
+        Map<Long, Listing> listingsById = listingRepository.findAllByIdInFetchCoverPicture(
+                        pageFreeStays.stream().map(FreeStay::listingId).toList())
+                .stream()
+                .collect(Collectors.toMap(Listing::getId, Function.identity()));
+        List<AvailableListingDTO> availableListings = pageFreeStays.stream()
+                .map(freeStay -> new AvailableListingDTO(
+                        listingMapper.listingToDisplayCardListingDTO(listingsById.get(freeStay.listingId())),
+                        new BookedDateDTO(freeStay.startDate(), freeStay.startDate().plusDays(newSearch.nights()))))
                 .toList();
 
-        // Return the filtered list as a paginated result
-        return new PageImpl<>(listingsNotBooked, pageable, listingsNotBooked.size());
+        return State.<Page<AvailableListingDTO>, String>builder()
+                .forSuccess(new PageImpl<>(availableListings, pageable, freeStays.size()));
+    }
+
+    /**
+     * Number of whole days from `from` to the first day boundary at or after `to`,
+     * the days starting at the time of day of `from`.
+     */
+    private static long ceilDays(OffsetDateTime from, OffsetDateTime to) {
+        long seconds = Duration.between(from, to).toSeconds();
+        return -Math.floorDiv(-seconds, Duration.ofDays(1).toSeconds());
+    }
+
+    /**
+     * Loads the listings of a page of listing IDs with their cover picture only and maps them
+     * to `DisplayCardListingDTO` objects, keeping the order and the pagination information of the page.
+     *
+     * @param listingIds A page of listing IDs.
+     * @return The page of `DisplayCardListingDTO` objects corresponding to the IDs.
+     */
+    private Page<DisplayCardListingDTO> mapListingIdsToDisplayCardListingDTOs(Page<Long> listingIds) {
+        Map<Long, Listing> listingsById = listingRepository.findAllByIdInFetchCoverPicture(listingIds.getContent())
+                .stream()
+                .collect(Collectors.toMap(Listing::getId, Function.identity()));
+
+        return listingIds.map(listingId -> listingMapper.listingToDisplayCardListingDTO(listingsById.get(listingId)));
+    }
+
+    /**
+     * The earliest free stay of a listing found by the flexible-dates search.
+     *
+     * @param listingId The ID of the listing.
+     * @param startDate The start date of the stay.
+     */
+    private record FreeStay(Long listingId, OffsetDateTime startDate) {
     }
 
 
@@ -0,0 +1,116 @@
+package com.omar.bookingappback.listing.storage;
+
+import com.omar.bookingappback.listing.exception.PictureStorageException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * {@link PictureStorage} keeping the pictures on the local filesystem.
+ *
+ * Each picture is written to `<root-directory>/<first two characters of the key>/<key>`, so that
+ * a single directory never holds the whole catalog.
+ */
+@Component
+@ConditionalOnProperty(name = "application.picture-storage.type", havingValue = "local", matchIfMissing = true)
+public class LocalPictureStorage implements PictureStorage {
+
+    private final Path rootDirectory;
+
+    /**
+     * Constructor for LocalPictureStorage.
+     *
+     * @param rootDirectory The directory under which the pictures are stored, fetched from the application's configuration.
+     */
+    public LocalPictureStorage(@Value("${application.picture-storage.local.root-directory}") String rootDirectory) {
+        this.rootDirectory = Path.of(rootDirectory).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Writes the content to a temporary file next to its final location, then moves it atomically,
+     * so a partially written picture is never visible under its key.
+     */
+    @Override
+    public String store(InputStream content) {
+        String storageKey = UUID.randomUUID().toString();
+        Path target = resolve(storageKey);
+        try {
+            Files.createDirectories(target.getParent());
+            Path temporary = Files.createTempFile(target.getParent(), storageKey, ".tmp");
+            try {
+                Files.copy(content, temporary, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException ioe) {
+            throw new PictureStorageException(String.format("Cannot store picture %s", storageKey), ioe);
+        }
+        return storageKey;
+    }
+
+    @Override
+    public Optional<Resource> load(String storageKey) {
+        Path path = resolve(storageKey);
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        return Optional.of(new FileSystemResource(path));
+    }
+
+    @Override
+    public void delete(String storageKey) {
+        try {
+            Files.deleteIfExists(resolve(storageKey));
+        } catch (IOException ioe) {
+            throw new PictureStorageException(String.format("Cannot delete picture %s", storageKey), ioe);
+        }
+    }
+
+    /**
+     * Walks the subdirectories of the root directory. Temporary files left by an interrupted
+     * {@link #store(InputStream)} are listed too, their name starting with their storage key.
+     */
+    @Override
+    public Stream<String> findAllStoredBefore(Instant storedBefore) {
+        if (!Files.isDirectory(rootDirectory)) {
+            return Stream.empty();
+        }
+        try {
+            return Files.find(rootDirectory, 2, (path, attributes) -> attributes.isRegularFile()
+                            && attributes.lastModifiedTime().toInstant().isBefore(storedBefore))
+                    .map(path -> path.getFileName().toString());
+        } catch (IOException ioe) {
+            throw new PictureStorageException(String.format("Cannot list pictures of %s", rootDirectory), ioe);
+        }
+    }
+
+    /**
+     * Resolves the path of a storage key, rejecting keys that would escape the root directory.
+     *
+     * @param storageKey The storage key of the picture.
+     * @return The path of the file holding the picture.
+     */
+    private Path resolve(String storageKey) {
+        if (storageKey == null || storageKey.length() < 2) {
+            throw new PictureStorageException(String.format("Invalid storage key: %s", storageKey));
+        }
+        Path path = rootDirectory.resolve(storageKey.substring(0, 2)).resolve(storageKey).normalize();
+        if (!path.startsWith(rootDirectory)) {
+            throw new PictureStorageException(String.format("Invalid storage key: %s", storageKey));
+        }
+        return path;
+    }
+}
@@ -0,0 +1,274 @@
+package com.omar.bookingappback.listing.storage;
+
+import com.omar.bookingappback.listing.PictureVariant;
+import com.omar.bookingappback.listing.dto.sub.PictureContentDTO;
+import com.omar.bookingappback.listing.exception.PictureStorageException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Node-local LRU cache of the picture variants served by the picture endpoint.
+ *
+ * A cached picture is served straight from a local file, without looking up its metadata in the database
+ * nor fetching its content from the picture storage. Content already held in a local file by the picture
+ * storage is cached by reference to that file, only its metadata being kept: copying it would only duplicate
+ * it on the same disk. Other content is copied to the cache directory. The cache is bounded by its number of
+ * pictures and by the total size of the copies, the least recently served pictures are evicted first.
+ *
+ * The copies are named with a prefix of their own, so that only them are deleted from the cache directory,
+ * including the ones left by a previous run.
+ *
+ * The content of a picture never changes once uploaded, so cached entries never go stale: they are only
+ * evicted to make room, or when the picture is deleted.
+ */
+@Component
+public class PictureCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PictureCache.class);
+
+    private static final String COPY_PREFIX = "picture-cache-";
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    private final int maxEntries;
+
+    /**
+     * Cached pictures by `<public ID>-<variant>`, in access order.
+     */
+    private final LinkedHashMap<String, CachedPicture> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long size;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    /**
+     * Constructor for PictureCache. The copies left in the cache directory by a previous run are deleted,
+     * the other files of the directory are left untouched.
+     *
+     * @param directory The directory holding the copies of the cached pictures, fetched from the application's configuration.
+     * @param maxSize The maximum total size of the copies of the cached pictures, fetched from the application's configuration.
+     * @param maxEntries The maximum number of cached pictures, fetched from the application's configuration.
+     * @param meterRegistry The registry exposing the metrics of the cache.
+     */
+    public PictureCache(@Value("${application.picture-storage.cache.directory}") String directory,
+                        @Value("${application.picture-storage.cache.max-size}") DataSize maxSize,
+                        @Value("${application.picture-storage.cache.max-entries}") int maxEntries,
+                        MeterRegistry meterRegistry) {
+        this.directory = Path.of(directory).toAbsolutePath().normalize();
+        this.maxSize = maxSize.toBytes();
+        this.maxEntries = maxEntries;
+        try {
+            Files.createDirectories(this.directory);
+            try (Stream<Path> copies = Files.list(this.directory)) {
+                for (Path copy : (Iterable<Path>) copies::iterator) {
+                    if (copy.getFileName().toString().startsWith(COPY_PREFIX) && Files.isRegularFile(copy)) {
+                        Files.deleteIfExists(copy);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            throw new PictureStorageException(String.format("Cannot initialize picture cache in %s", this.directory), ioe);
+        }
+
+        this.hits = Counter.builder("picture.cache.gets").tag("result", "hit")
+                .description("Pictures served from the node-local cache").register(meterRegistry);
+        this.misses = Counter.builder("picture.cache.gets").tag("result", "miss")
+                .description("Pictures loaded from the database and the picture storage").register(meterRegistry);
+        this.evictions = Counter.builder("picture.cache.evictions")
+                .description("Pictures evicted from the node-local cache").register(meterRegistry);
+        Gauge.builder("picture.cache.size", this, PictureCache::getSize).baseUnit("bytes")
+                .description("Total size of the copies of the cached pictures").register(meterRegistry);
+        Gauge.builder("picture.cache.entries", this, PictureCache::getEntryCount)
+                .description("Number of cached pictures").register(meterRegistry);
+    }
+
+    /**
+     * Returns the content of a picture variant from the cache, or loads it and caches it.
+     *
+     * @param publicId The public ID of the picture.
+     * @param variant The size variant of the picture.
+     * @param loader Loads the content of the picture on a cache miss.
+     * @return The content of the picture, backed by a local file when cached,
+     *         or an empty `Optional` if the loader didn't find the picture.
+     */
+    public Optional<PictureContentDTO> get(UUID publicId, PictureVariant variant,
+                                           Supplier<Optional<PictureContentDTO>> loader) {
+        String key = publicId + "-" + variant;
+        CachedPicture cachedPicture;
+        synchronized (this) {
+            cachedPicture = entries.get(key);
+        }
+        if (cachedPicture != null) {
+            if (Files.isRegularFile(cachedPicture.file())) {
+                hits.increment();
+                return Optional.of(cachedPicture.toPictureContentDTO());
+            }
+            // The file has been deleted behind the cache's back
+            remove(key, cachedPicture);
+        }
+
+        Optional<PictureContentDTO> pictureContentOpt = loader.get();
+        misses.increment();
+        return pictureContentOpt.map(pictureContent -> put(key, pictureContent));
+    }
+
+    /**
+     * Evicts all the variants of a picture, once the picture has been deleted.
+     *
+     * @param publicId The public ID of the picture.
+     */
+    public void evict(UUID publicId) {
+        for (PictureVariant variant : PictureVariant.values()) {
+            String key = publicId + "-" + variant;
+            CachedPicture cachedPicture;
+            synchronized (this) {
+                cachedPicture = entries.get(key);
+            }
+            if (cachedPicture != null) {
+                remove(key, cachedPicture);
+            }
+        }
+    }
+
+    private PictureContentDTO put(String key, PictureContentDTO pictureContent) {
+        CachedPicture cachedPicture;
+        try {
+            cachedPicture = pictureContent.content().isFile() ? reference(pictureContent) : copy(key, pictureContent);
+        } catch (IOException ioe) {
+            log.warn("Cannot cache picture {}", key, ioe);
+            return pictureContent;
+        }
+        if (cachedPicture.size() > maxSize) {
+            delete(cachedPicture);
+            return pictureContent;
+        }
+
+        Map<String, CachedPicture> evicted = new LinkedHashMap<>();
+        synchronized (this) {
+            CachedPicture previous = entries.put(key, cachedPicture);
+            if (previous != null) {
+                size -= previous.size();
+            }
+            size += cachedPicture.size();
+            Iterator<Map.Entry<String, CachedPicture>> eldest = entries.entrySet().iterator();
+            while ((size > maxSize || entries.size() > maxEntries) && eldest.hasNext()) {
+                Map.Entry<String, CachedPicture> entry = eldest.next();
+                if (entry.getValue() != cachedPicture) {
+                    size -= entry.getValue().size();
+                    evicted.put(entry.getKey(), entry.getValue());
+                    eldest.remove();
+                }
+            }
+        }
+        evicted.values().forEach(this::delete);
+        evictions.increment(evicted.size());
+        return cachedPicture.toPictureContentDTO();
+    }
+
+    /**
+     * Refers to the local file holding the content of a picture, which isn't counted in the size of the copies.
+     */
+    private CachedPicture reference(PictureContentDTO pictureContent) throws IOException {
+        File file = pictureContent.content().getFile();
+        return new CachedPicture(file.toPath(), false, 0, pictureContent.fileContentType(), pictureContent.eTag());
+    }
+
+    /**
+     * Copies the content of a picture to the cache directory.
+     */
+    private CachedPicture copy(String key, PictureContentDTO pictureContent) throws IOException {
+        Resource content = pictureContent.content();
+        Path target = directory.resolve(COPY_PREFIX + key);
+        Path temporary = Files.createTempFile(directory, COPY_PREFIX + key, ".tmp");
+        try (InputStream inputStream = content.getInputStream();
+             ReadableByteChannel source = Channels.newChannel(inputStream);
+             FileChannel destination = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            long position = 0;
+            long transferred;
+            while ((transferred = destination.transferFrom(source, position, Long.MAX_VALUE)) > 0) {
+                position += transferred;
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return new CachedPicture(target, true, Files.size(target), pictureContent.fileContentType(), pictureContent.eTag());
+    }
+
+    private void remove(String key, CachedPicture cachedPicture) {
+        synchronized (this) {
+            if (!entries.remove(key, cachedPicture)) {
+                return;
+            }
+            size -= cachedPicture.size();
+        }
+        delete(cachedPicture);
+    }
+
+    private void delete(CachedPicture cachedPicture) {
+        if (!cachedPicture.copied()) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(cachedPicture.file());
+        } catch (IOException ioe) {
+            log.warn("Cannot delete cached picture {}", cachedPicture.file(), ioe);
+        }
+    }
+
+    private synchronized long getSize() {
+        return size;
+    }
+
+    private synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * A cached picture variant.
+     *
+     * @param file The local file holding the content of the picture.
+     * @param copied Whether the file is a copy in the cache directory, or belongs to the picture storage.
+     * @param size The size of the copy in bytes, 0 if the content isn't copied.
+     * @param fileContentType The content type of the picture.
+     * @param eTag The entity tag of the content of the picture.
+     */
+    private record CachedPicture(Path file, boolean copied, long size, String fileContentType, String eTag) {
+
+        PictureContentDTO toPictureContentDTO() {
+            return new PictureContentDTO(new FileSystemResource(file), fileContentType, eTag);
+        }
+    }
+}
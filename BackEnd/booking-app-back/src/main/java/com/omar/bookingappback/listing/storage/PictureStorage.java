@@ -0,0 +1,49 @@
+package com.omar.bookingappback.listing.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Storage for the bytes of the listing pictures.
+ *
+ * The database only keeps the metadata of a picture and the key returned by {@link #store(InputStream)},
+ * the bytes themselves live in the storage. Implementations are selected with the
+ * `application.picture-storage.type` property.
+ */
+public interface PictureStorage {
+
+    /**
+     * Stores the given content and returns the key identifying it in the storage.
+     *
+     * @param content The content of the picture. The stream is read until its end but not closed.
+     * @return The storage key of the picture.
+     */
+    String store(InputStream content);
+
+    /**
+     * Loads the content stored under the given key.
+     *
+     * @param storageKey The storage key of the picture.
+     * @return An `Optional` containing the content of the picture, or empty if nothing is stored under the key.
+     */
+    Optional<Resource> load(String storageKey);
+
+    /**
+     * Deletes the content stored under the given key. Does nothing if nothing is stored under the key.
+     *
+     * @param storageKey The storage key of the picture.
+     */
+    void delete(String storageKey);
+
+    /**
+     * Lists the keys of the content stored before the given instant, to find the content no longer referenced.
+     *
+     * @param storedBefore The instant before which the content must have been stored.
+     * @return The storage keys, lazily listed. The stream must be closed.
+     */
+    Stream<String> findAllStoredBefore(Instant storedBefore);
+}
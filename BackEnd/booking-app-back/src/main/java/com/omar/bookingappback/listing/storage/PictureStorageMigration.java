@@ -0,0 +1,43 @@
+package com.omar.bookingappback.listing.storage;
+
+import com.omar.bookingappback.listing.service.PictureService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the bytes of the pictures created before the introduction of the {@link PictureStorage}
+ * from the database to the storage, at application startup.
+ *
+ * Pictures are moved in small batches, each one in its own transaction, so the migration can be
+ * interrupted and resumed on the next startup. The pictures of a batch are locked while they are moved,
+ * so nodes starting together share the pictures to move instead of moving the same ones.
+ */
+@Component
+public class PictureStorageMigration implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(PictureStorageMigration.class);
+
+    private static final int BATCH_SIZE = 20;
+
+    private final PictureService pictureService;
+
+    public PictureStorageMigration(PictureService pictureService) {
+        this.pictureService = pictureService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        int moved;
+        int total = 0;
+        do {
+            moved = pictureService.moveToStorage(BATCH_SIZE);
+            total += moved;
+        } while (moved == BATCH_SIZE);
+        if (total > 0) {
+            log.info("Moved {} pictures from the database to the picture storage", total);
+        }
+    }
+}
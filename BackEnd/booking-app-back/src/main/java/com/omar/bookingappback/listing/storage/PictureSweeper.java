@@ -0,0 +1,70 @@
+package com.omar.bookingappback.listing.storage;
+
+import com.omar.bookingappback.listing.service.PictureService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Reclaims in the background the content of the deleted pictures from the {@link PictureStorage}.
+ *
+ * The variants recorded for deletion when a listing is deleted are swept in small batches, each one
+ * in its own transaction. Less frequently, the whole storage is scanned for content referenced by no
+ * picture, left behind by a failed listing creation or an interrupted write.
+ */
+@Component
+public class PictureSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(PictureSweeper.class);
+
+    private static final int BATCH_SIZE = 100;
+
+    private final PictureService pictureService;
+
+    private final Duration orphanGracePeriod;
+
+    /**
+     * Constructor for PictureSweeper.
+     *
+     * @param pictureService Service deleting the content of the pictures.
+     * @param orphanGracePeriod How old unreferenced content must be to be purged, fetched from the application's configuration.
+     */
+    public PictureSweeper(PictureService pictureService,
+                          @Value("${application.picture-storage.sweeper.orphan-grace-period}") Duration orphanGracePeriod) {
+        this.pictureService = pictureService;
+        this.orphanGracePeriod = orphanGracePeriod;
+    }
+
+    /**
+     * Deletes the variants recorded for deletion from the picture storage.
+     */
+    @Scheduled(fixedDelayString = "${application.picture-storage.sweeper.delay}")
+    public void sweep() {
+        int swept;
+        int total = 0;
+        do {
+            swept = pictureService.sweep(BATCH_SIZE);
+            total += swept;
+        } while (swept == BATCH_SIZE);
+        if (total > 0) {
+            log.info("Swept {} deleted pictures from the picture storage", total);
+        }
+    }
+
+    /**
+     * Deletes the content of the picture storage referenced by no picture.
+     */
+    @Scheduled(initialDelayString = "${application.picture-storage.sweeper.orphan-purge-delay}",
+            fixedDelayString = "${application.picture-storage.sweeper.orphan-purge-delay}")
+    public void purgeOrphans() {
+        int purged = pictureService.purgeOrphans(Instant.now().minus(orphanGracePeriod), BATCH_SIZE);
+        if (purged > 0) {
+            log.info("Purged {} orphaned pictures from the picture storage", purged);
+        }
+    }
+}
@@ -12,6 +12,11 @@ public class StateBuilder<T, V> {
         return new State<>(this.status, this.value, this.error);
     }
 
+    public State<T, V> forError(V error, T value) {
+        this.value = value;
+        return forError(error);
+    }
+
     public State<T, V> forSuccess() {
         this.status = StatusNotification.OK;
         return new State<>(this.status, this.value, this.error);
@@ -27,4 +32,10 @@ public class StateBuilder<T, V> {
         this.status = StatusNotification.UNAUTHORIZED;
         return new State<>(this.status, this.value, this.error);
     }
+
+    public State<T, V> forUnavailable(V error) {
+        this.error = error;
+        this.status = StatusNotification.UNAVAILABLE;
+        return new State<>(this.status, this.value, this.error);
+    }
 }
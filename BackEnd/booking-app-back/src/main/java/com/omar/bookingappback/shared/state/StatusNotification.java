@@ -1,5 +1,5 @@
 package com.omar.bookingappback.shared.state;
 
 public enum StatusNotification {
-    OK, ERROR, UNAUTHORIZED;
+    OK, ERROR, UNAUTHORIZED, UNAVAILABLE;
 }
@@ -3,6 +3,7 @@ package com.omar.bookingappback.user.controller;
 import com.omar.bookingappback.user.dto.ReadUserDTO;
 import com.omar.bookingappback.user.service.UserService;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -60,6 +61,7 @@ public class UserController {
 
     /**
      * Logs out the authenticated user by invalidating their session and returning a logout URL for Okta.
+     * The session is removed from the shared session store, so the logout applies to all the nodes.
      *
      * @param request The HTTP servlet request, used to get the origin URL and invalidate the session.
      * @return A ResponseEntity containing the logout URL for the user to complete the logout process.
@@ -70,7 +72,10 @@ public class UserController {
         String originUrl = request.getHeader(HttpHeaders.ORIGIN);
         Object[] params = {issuerUri, registration.getClientId(), originUrl};
         String logoutUrl = MessageFormat.format("{0}v2/logout?client_id={1}&returnTo={2}", params);
-        request.getSession().invalidate();
+        HttpSession session = request.getSession(false);
+        if (session != null) {
+            session.invalidate();
+        }
         return ResponseEntity.ok().body(Map.of("logoutUrl", logoutUrl));
     }
 
@@ -0,0 +1,136 @@
+package com.omar.bookingappback.user.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A role waiting to be assigned to a user in Auth0.
+ *
+ * The assignments are requested in the transactions of the application and processed in the background,
+ * so the calls to Auth0 are kept out of the requests. An assignment failing is retried later, with an
+ * exponential backoff, until it succeeds.
+ */
+@Entity
+@Table(name = "role_assignment")
+public class RoleAssignment implements Serializable {
+
+    @Id
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "user_public_id", nullable = false)
+    private UUID userPublicId;
+
+    @Column(name = "email", nullable = false)
+    private String email;
+
+    @Column(name = "role_id", nullable = false)
+    private String roleId;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "next_attempt_date", nullable = false)
+    private Instant nextAttemptDate;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+    @Column(name = "requested_date", nullable = false)
+    private Instant requestedDate;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public UUID getUserPublicId() {
+        return userPublicId;
+    }
+
+    public void setUserPublicId(UUID userPublicId) {
+        this.userPublicId = userPublicId;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public String getRoleId() {
+        return roleId;
+    }
+
+    public void setRoleId(String roleId) {
+        this.roleId = roleId;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Instant getNextAttemptDate() {
+        return nextAttemptDate;
+    }
+
+    public void setNextAttemptDate(Instant nextAttemptDate) {
+        this.nextAttemptDate = nextAttemptDate;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getRequestedDate() {
+        return requestedDate;
+    }
+
+    public void setRequestedDate(Instant requestedDate) {
+        this.requestedDate = requestedDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RoleAssignment that = (RoleAssignment) o;
+        return Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return "RoleAssignment{" +
+                "id=" + id +
+                ", userPublicId=" + userPublicId +
+                ", roleId='" + roleId + '\'' +
+                ", attempts=" + attempts +
+                ", nextAttemptDate=" + nextAttemptDate +
+                '}';
+    }
+}
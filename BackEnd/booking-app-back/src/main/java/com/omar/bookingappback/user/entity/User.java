@@ -62,6 +62,14 @@ public class User extends AbstractAuditingEntity<Long> {
         this.firstName = firstName;
     }
 
+    public String getIdpSubject() {
+        return idpSubject;
+    }
+
+    public void setIdpSubject(String idpSubject) {
+        this.idpSubject = idpSubject;
+    }
+
     public UUID getPublicId() {
         return publicId;
     }
@@ -84,6 +92,9 @@ public class User extends AbstractAuditingEntity<Long> {
     @Column(name = "image_url")
     private String imageUrl;
 
+    @Column(name = "idp_subject")
+    private String idpSubject;
+
     @UuidGenerator
     @Column(name = "public_id", nullable = false)
     private UUID publicId;
@@ -0,0 +1,75 @@
+package com.omar.bookingappback.user.repository;
+
+import com.omar.bookingappback.user.entity.RoleAssignment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface RoleAssignmentRepository extends JpaRepository<RoleAssignment, Long> {
+
+    /**
+     * Requests the assignment of a role to a user, unless it is already pending.
+     *
+     * @param userPublicId The public ID of the user.
+     * @param email The email of the user, identifying them in Auth0.
+     * @param roleId The ID of the role in Auth0.
+     * @return The number of assignments requested, 0 if it was already pending.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO {h-schema}role_assignment (user_public_id, email, role_id, attempts, next_attempt_date, requested_date)
+            VALUES (:userPublicId, :email, :roleId, 0, now(), now())
+            ON CONFLICT (user_public_id, role_id) DO NOTHING
+            """, nativeQuery = true)
+    int request(UUID userPublicId, String email, String roleId);
+
+    /**
+     * Claims a batch of the assignments due, leasing them until a date: they are not claimed again before,
+     * by this node or another one, unless they are released earlier. Rows locked by another node claiming
+     * at the same time are skipped.
+     *
+     * @param leaseUntil The date until which the assignments are leased.
+     * @param limit The maximum number of assignments to claim.
+     * @return The claimed assignments.
+     */
+    @Query(value = """
+            UPDATE {h-schema}role_assignment SET next_attempt_date = :leaseUntil
+            WHERE id IN (SELECT id FROM {h-schema}role_assignment WHERE next_attempt_date <= now()
+                         ORDER BY next_attempt_date LIMIT :limit FOR UPDATE SKIP LOCKED)
+            RETURNING *
+            """, nativeQuery = true)
+    List<RoleAssignment> claim(Instant leaseUntil, int limit);
+
+    /**
+     * Schedules the next attempt of a failed assignment.
+     *
+     * @param id The ID of the assignment.
+     * @param nextAttemptDate The date of the next attempt.
+     * @param lastError The cause of the failure.
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE {h-schema}role_assignment SET attempts = attempts + 1, next_attempt_date = :nextAttemptDate,
+            last_error = :lastError WHERE id = :id
+            """, nativeQuery = true)
+    void reschedule(Long id, Instant nextAttemptDate, String lastError);
+
+    /**
+     * Stops retrying a failed assignment, keeping it with the cause of its last failure.
+     *
+     * @param id The ID of the assignment.
+     * @param lastError The cause of the failure.
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE {h-schema}role_assignment SET attempts = attempts + 1, next_attempt_date = 'infinity',
+            last_error = :lastError WHERE id = :id
+            """, nativeQuery = true)
+    void park(Long id, String lastError);
+}
@@ -2,7 +2,10 @@ package com.omar.bookingappback.user.repository;
 
 
 import com.omar.bookingappback.user.entity.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -13,5 +16,86 @@ public interface UserRepository  extends JpaRepository<User, Long> {
 
     Optional<User> findOneByEmail(String email);
 
+    /**
+     * Retrieves a user by email along with their authorities, in a single query.
+     *
+     * @param email the email of the user
+     * @return the user with their authorities loaded, or an empty Optional
+     */
+    @EntityGraph(attributePaths = "authorities")
+    Optional<User> findOneWithAuthoritiesByEmail(String email);
+
+    /**
+     * Retrieves a user by their subject at the identity provider along with their authorities, in a single query.
+     *
+     * @param idpSubject the subject of the user at the identity provider
+     * @return the user with their authorities loaded, or an empty Optional
+     */
+    @EntityGraph(attributePaths = "authorities")
+    Optional<User> findOneWithAuthoritiesByIdpSubject(String idpSubject);
+
     Optional<User> findOneByPublicId(UUID publicId);
+
+    /**
+     * Retrieves the fingerprint of the identity provider claims a user was last synchronized with.
+     *
+     * @param idpSubject the subject of the user at the identity provider
+     * @return the fingerprint, or an empty Optional if the user doesn't exist or was never fingerprinted
+     */
+    @Query(value = "SELECT idp_fingerprint FROM {h-schema}airbnb_user WHERE idp_subject = :idpSubject", nativeQuery = true)
+    Optional<String> findIdpFingerprintByIdpSubject(String idpSubject);
+
+    /**
+     * Records the subject at the identity provider of a user created before the subjects were stored,
+     * unless another user already has this subject.
+     *
+     * @param idpSubject the subject of the user at the identity provider
+     * @param email the email of the user
+     * @return the number of users updated, 0 or 1
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE {h-schema}airbnb_user SET idp_subject = :idpSubject
+            WHERE email = :email AND idp_subject IS NULL
+            AND NOT EXISTS (SELECT 1 FROM {h-schema}airbnb_user WHERE idp_subject = :idpSubject)
+            """, nativeQuery = true)
+    int claimIdpSubject(String idpSubject, String email);
+
+    /**
+     * Creates or updates a user, identified by their subject, from the identity provider claims, and applies
+     * the difference between their authorities and the given ones, in a single statement. The authorities
+     * unknown to the application are ignored.
+     *
+     * @param publicId the public ID of the user, if created
+     * @param idpSubject the subject of the user at the identity provider
+     * @param email the email of the user
+     * @param firstName the first name of the user
+     * @param lastName the last name of the user
+     * @param imageUrl the URL of the picture of the user
+     * @param idpFingerprint the fingerprint of the claims
+     * @param authorityNames the names of the authorities of the user
+     * @return the number of authorities granted to the user
+     */
+    @Modifying
+    @Query(value = """
+            WITH upserted AS (
+                INSERT INTO {h-schema}airbnb_user AS app_user (id, public_id, idp_subject, email, first_name, last_name,
+                                                              image_url, idp_fingerprint, created_date, last_modified_date)
+                VALUES (nextval('{h-schema}user_generator'), :publicId, :idpSubject, :email, :firstName, :lastName,
+                        :imageUrl, :idpFingerprint, now(), now())
+                ON CONFLICT (idp_subject) DO UPDATE SET email = excluded.email, first_name = excluded.first_name,
+                    last_name = excluded.last_name, image_url = excluded.image_url, idp_fingerprint = excluded.idp_fingerprint,
+                    last_modified_date = excluded.last_modified_date
+                RETURNING app_user.id),
+            revoked AS (
+                DELETE FROM {h-schema}user_authority user_authority USING upserted
+                WHERE user_authority.user_id = upserted.id
+                AND user_authority.authority_name <> ALL (CAST(:authorityNames AS varchar[])))
+            INSERT INTO {h-schema}user_authority (user_id, authority_name)
+            SELECT upserted.id, authority.name FROM upserted
+            JOIN {h-schema}authority authority ON authority.name = ANY (CAST(:authorityNames AS varchar[]))
+            ON CONFLICT DO NOTHING
+            """, nativeQuery = true)
+    int upsertFromIdp(UUID publicId, String idpSubject, String email, String firstName, String lastName,
+                      String imageUrl, String idpFingerprint, String[] authorityNames);
 }
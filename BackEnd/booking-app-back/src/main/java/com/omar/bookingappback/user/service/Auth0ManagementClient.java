@@ -0,0 +1,118 @@
+package com.omar.bookingappback.user.service;
+
+import com.auth0.client.auth.AuthAPI;
+import com.auth0.client.mgmt.ManagementAPI;
+import com.auth0.exception.Auth0Exception;
+import com.auth0.json.auth.TokenHolder;
+import com.auth0.net.client.Auth0HttpClient;
+import com.auth0.net.client.DefaultHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Client of the Auth0 Management API, shared by the calls of the application.
+ *
+ * The authentication and management clients are built once over a single HTTP client, so the connections to
+ * Auth0 are pooled across calls. The management token, obtained with the client credentials of the application,
+ * is cached until shortly before its expiry, and refreshed in the background once it enters the refresh-ahead
+ * window: the calls only request a token themselves for the first call, or when the background refresh failed.
+ *
+ * The Auth0 domain is configurable, so the client can be pointed at a local stand-in of the Auth0 endpoints.
+ */
+@Component
+public class Auth0ManagementClient {
+
+    private static final Logger log = LoggerFactory.getLogger(Auth0ManagementClient.class);
+
+    /**
+     * Margin before its expiry after which a token is no longer used, covering the duration of the calls.
+     */
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+
+    private final AuthAPI authAPI;
+
+    private final ManagementAPI managementAPI;
+
+    private final String audience;
+
+    private final Duration refreshAhead;
+
+    /**
+     * Expiry of the token of the management client, null until the first token is obtained.
+     */
+    private Instant tokenExpiresAt;
+
+    /**
+     * Constructor for Auth0ManagementClient.
+     *
+     * @param domain The Auth0 domain, as a host name or a base URL, fetched from the application's configuration.
+     * @param clientId Client ID for OAuth2 authentication, fetched from the application's configuration.
+     * @param clientSecret Client secret for OAuth2 authentication, fetched from the application's configuration.
+     * @param refreshAhead How long before its expiry the token is refreshed in the background,
+     *                     fetched from the application's configuration.
+     */
+    public Auth0ManagementClient(@Value("${application.auth0.domain}") String domain,
+                                 @Value("${okta.oauth2.client-id}") String clientId,
+                                 @Value("${okta.oauth2.client-secret}") String clientSecret,
+                                 @Value("${application.auth0.management-token.refresh-ahead}") Duration refreshAhead) {
+        Auth0HttpClient httpClient = DefaultHttpClient.newBuilder().build();
+        this.authAPI = AuthAPI.newBuilder(domain, clientId, clientSecret).withHttpClient(httpClient).build();
+        // The token is set before the first call
+        this.managementAPI = ManagementAPI.newBuilder(domain, "").withHttpClient(httpClient).build();
+        this.audience = (domain.endsWith("/") ? domain : domain + "/") + "api/v2/";
+        this.refreshAhead = refreshAhead;
+    }
+
+    /**
+     * Returns the management client, with a valid token.
+     *
+     * @return The management client.
+     * @throws Auth0Exception If no token is cached and a new one cannot be obtained.
+     */
+    public ManagementAPI getManagementAPI() throws Auth0Exception {
+        synchronized (this) {
+            if (tokenExpiresAt == null || Instant.now().isAfter(tokenExpiresAt.minus(EXPIRY_MARGIN))) {
+                setToken(requestToken());
+            }
+        }
+        return managementAPI;
+    }
+
+    /**
+     * Refreshes the token once it enters the refresh-ahead window. No token is requested before the first call,
+     * and the calls keep the current token while it is refreshed.
+     */
+    @Scheduled(fixedDelayString = "${application.auth0.management-token.check-delay}")
+    public void refreshAhead() {
+        synchronized (this) {
+            if (tokenExpiresAt == null || Instant.now().isBefore(tokenExpiresAt.minus(refreshAhead))) {
+                return;
+            }
+        }
+        try {
+            TokenHolder token = requestToken();
+            synchronized (this) {
+                setToken(token);
+            }
+        } catch (Auth0Exception ae) {
+            log.warn("Cannot refresh the Auth0 management token, the current one expires at {}", tokenExpiresAt, ae);
+        }
+    }
+
+    private TokenHolder requestToken() throws Auth0Exception {
+        return authAPI.requestToken(audience).execute().getBody();
+    }
+
+    private void setToken(TokenHolder token) {
+        managementAPI.setApiToken(token.getAccessToken());
+        tokenExpiresAt = token.getExpiresAt() != null
+                ? token.getExpiresAt().toInstant()
+                : Instant.now().plusSeconds(token.getExpiresIn());
+    }
+}
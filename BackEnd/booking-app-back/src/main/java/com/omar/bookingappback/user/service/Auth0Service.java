@@ -1,110 +1,74 @@
 package com.omar.bookingappback.user.service;
 
 
-import com.auth0.client.auth.AuthAPI;
-import com.auth0.client.mgmt.ManagementAPI;
 import com.auth0.client.mgmt.filter.FieldsFilter;
+import com.auth0.client.mgmt.filter.UserFilter;
+import com.auth0.exception.APIException;
 import com.auth0.exception.Auth0Exception;
-import com.auth0.json.auth.TokenHolder;
 import com.auth0.json.mgmt.users.User;
-import com.auth0.net.Response;
-import com.auth0.net.TokenRequest;
 
-import com.omar.bookingappback.config.SecurityUtils;
-import com.omar.bookingappback.user.dto.ReadUserDTO;
-import com.omar.bookingappback.user.exception.UserException;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.UUID;
+import java.util.Optional;
 
 /**
  * Service class responsible for interacting with Auth0 and managing user roles.
  *
- * This class uses Okta's OAuth2 configuration for client authentication and assigns specific roles
- * (such as the landlord role) to users in the Auth0 system.
+ * This class calls the Auth0 Management API through the shared {@link Auth0ManagementClient}, to assign
+ * specific roles (such as the landlord role) to users in the Auth0 system. The assignments requested by the
+ * application are processed in the background by the {@link RoleAssignmentWorker}.
  */
 @Service
 public class Auth0Service {
 
 
-    /**
-     * Client ID for OAuth2 authentication, fetched from the application's configuration.
-     */
-    @Value("${okta.oauth2.client-id}")
-    private String clientId;
+    private final Auth0ManagementClient auth0ManagementClient;
 
-    /**
-     * Client secret for OAuth2 authentication, fetched from the application's configuration.
-     */
-    @Value("${okta.oauth2.client-secret}")
-    private String clientSecret;
-
-    /**
-     * Domain (issuer) for OAuth2 authentication, fetched from the application's configuration.
-     */
-    @Value("${okta.oauth2.issuer}")
-    private String domain;
+    public Auth0Service(Auth0ManagementClient auth0ManagementClient) {
+        this.auth0ManagementClient = auth0ManagementClient;
+    }
 
     /**
-     * Role ID for the landlord role, fetched from the application's configuration.
+     * Finds the Auth0 ID of a user by their email.
+     *
+     * @param email The user's email to find them in Auth0.
+     * @return The Auth0 ID of the user, or an empty Optional if no user has this email.
+     * @throws Auth0Exception If an error occurs during the call to Auth0.
      */
-    @Value("${application.auth0.role-landlord-id}")
-    private String roleLandlordId;
+    public Optional<String> findUserIdByEmail(String email) throws Auth0Exception {
+        List<User> auth0usersByEmail = auth0ManagementClient.getManagementAPI()
+                .users().listByEmail(email, new FieldsFilter()).execute().getBody();
+        return auth0usersByEmail.stream().findFirst().map(User::getId);
+    }
 
     /**
-     * Adds the landlord role to a user if the user doesn't already have it.
+     * Finds a user by their Auth0 ID, the subject of their tokens.
      *
-     * @param readUserDTO The user DTO containing user information.
+     * @param userId The Auth0 ID of the user.
+     * @return The Auth0 user, or an empty Optional if no user has this ID.
+     * @throws Auth0Exception If an error occurs during the call to Auth0.
      */
-    public void addLandlordRoleToUser(ReadUserDTO readUserDTO) {
-        if (readUserDTO.authorities().stream().noneMatch(role -> role.equals(SecurityUtils.ROLE_LANDLORD))) {
-            try {
-                String accessToken = this.getAccessToken();
-                assignRoleById(accessToken, readUserDTO.email(), readUserDTO.publicId(), roleLandlordId);
-            } catch (Auth0Exception a) {
-                throw new UserException(String.format("not possible to assign %s to %s", roleLandlordId, readUserDTO.publicId()));
+    public Optional<User> findUserById(String userId) throws Auth0Exception {
+        try {
+            return Optional.ofNullable(auth0ManagementClient.getManagementAPI()
+                    .users().get(userId, new UserFilter()).execute().getBody());
+        } catch (APIException apiException) {
+            if (apiException.getStatusCode() == 404) {
+                return Optional.empty();
             }
+            throw apiException;
         }
     }
 
-
     /**
-     * Assigns a role to a user by their email and public ID.
+     * Assigns a role to several users at once.
      *
-     * @param accessToken The access token for Auth0 API calls.
-     * @param email The user's email to find them in Auth0.
-     * @param publicId The user's public ID for logging purposes.
-     * @param roleIdToAdd The role ID to assign to the user.
+     * @param roleId The role ID to assign to the users.
+     * @param userIds The Auth0 IDs of the users.
      * @throws Auth0Exception If an error occurs during the role assignment process.
      */
-    private void assignRoleById(String accessToken, String email, UUID publicId, String roleIdToAdd) throws Auth0Exception {
-        ManagementAPI mgmt = ManagementAPI.newBuilder(domain, accessToken).build();
-        Response<List<User>> auth0userByEmail = mgmt.users().listByEmail(email, new FieldsFilter()).execute();
-        User user = auth0userByEmail.getBody()
-                .stream().findFirst()
-                .orElseThrow(() -> new UserException(String.format("Cannot find user with public id %s", publicId)));
-        mgmt.roles().assignUsers(roleIdToAdd, List.of(user.getId())).execute();
+    public void assignRole(String roleId, List<String> userIds) throws Auth0Exception {
+        auth0ManagementClient.getManagementAPI().roles().assignUsers(roleId, userIds).execute();
     }
-
-
-    /**
-     * Retrieves an access token from Auth0 for making API requests.
-     *
-     * @return The access token as a String.
-     * @throws Auth0Exception If an error occurs during token retrieval.
-     */
-    private String getAccessToken() throws Auth0Exception {
-        AuthAPI authAPI = AuthAPI.newBuilder(domain, clientId, clientSecret).build();
-        TokenRequest tokenRequest = authAPI.requestToken(domain + "api/v2/");
-        TokenHolder holder = tokenRequest.execute().getBody();
-        return holder.getAccessToken();
-    }
-
-
-
-
-
-
 }
@@ -0,0 +1,140 @@
+package com.omar.bookingappback.user.service;
+
+import com.omar.bookingappback.user.dto.ReadUserDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the authenticated users, keyed by the subject of their identity provider.
+ *
+ * A user is resolved once per request, the following resolutions of the request reusing it, and the users
+ * resolved recently are kept on this node for a short time, so the requests of an authenticated user don't
+ * query the user and their authorities each time. The cache is bounded by its number of users, the least
+ * recently resolved ones are evicted first.
+ *
+ * A user is evicted when synchronized with the identity provider on this node. A synchronization on another
+ * node is only seen here once the cached user has expired.
+ */
+@Component
+public class AuthenticatedUserCache {
+
+    private static final String REQUEST_ATTRIBUTE = AuthenticatedUserCache.class.getName();
+
+    private final Duration ttl;
+
+    private final int maxSize;
+
+    /**
+     * Cached users by subject, in access order.
+     */
+    private final LinkedHashMap<String, CachedUser> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    /**
+     * Constructor for AuthenticatedUserCache.
+     *
+     * @param ttl How long a resolved user is kept, fetched from the application's configuration.
+     * @param maxSize The maximum number of cached users, fetched from the application's configuration.
+     * @param meterRegistry The registry exposing the metrics of the cache.
+     */
+    public AuthenticatedUserCache(@Value("${application.authenticated-user-cache.ttl}") Duration ttl,
+                                  @Value("${application.authenticated-user-cache.max-size}") int maxSize,
+                                  MeterRegistry meterRegistry) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+
+        this.hits = Counter.builder("authenticated.user.cache.gets").tag("result", "hit")
+                .description("Authenticated users resolved from the cache").register(meterRegistry);
+        this.misses = Counter.builder("authenticated.user.cache.gets").tag("result", "miss")
+                .description("Authenticated users loaded from the database").register(meterRegistry);
+        Gauge.builder("authenticated.user.cache.entries", this, AuthenticatedUserCache::getEntryCount)
+                .description("Number of cached authenticated users").register(meterRegistry);
+    }
+
+    /**
+     * Returns the user of a subject resolved earlier in the request or recently on this node, or loads it.
+     *
+     * @param subject The subject of the user at the identity provider.
+     * @param loader Loads the user on a cache miss.
+     * @return The user of the subject.
+     */
+    public ReadUserDTO get(String subject, Supplier<ReadUserDTO> loader) {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes != null
+                && requestAttributes.getAttribute(REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) instanceof CachedUser memoized
+                && memoized.subject().equals(subject)) {
+            hits.increment();
+            return memoized.user();
+        }
+
+        Instant now = Instant.now();
+        CachedUser cachedUser;
+        synchronized (this) {
+            cachedUser = entries.get(subject);
+        }
+        if (cachedUser != null && cachedUser.expiresAt().isAfter(now)) {
+            hits.increment();
+        } else {
+            misses.increment();
+            cachedUser = put(new CachedUser(subject, loader.get(), now.plus(ttl)));
+        }
+        if (requestAttributes != null) {
+            requestAttributes.setAttribute(REQUEST_ATTRIBUTE, cachedUser, RequestAttributes.SCOPE_REQUEST);
+        }
+        return cachedUser.user();
+    }
+
+    /**
+     * Evicts the user of a subject, once the user has been updated.
+     *
+     * @param subject The subject of the user at the identity provider.
+     */
+    public void evict(String subject) {
+        synchronized (this) {
+            entries.remove(subject);
+        }
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes != null) {
+            requestAttributes.removeAttribute(REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    private synchronized CachedUser put(CachedUser cachedUser) {
+        entries.put(cachedUser.subject(), cachedUser);
+        Iterator<Map.Entry<String, CachedUser>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxSize && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+        return cachedUser;
+    }
+
+    private synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * A resolved user.
+     *
+     * @param subject The subject of the user at the identity provider.
+     * @param user The user.
+     * @param expiresAt The instant until which the user is kept.
+     */
+    private record CachedUser(String subject, ReadUserDTO user, Instant expiresAt) {
+    }
+}
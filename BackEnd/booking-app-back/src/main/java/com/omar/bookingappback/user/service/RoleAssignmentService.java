@@ -0,0 +1,99 @@
+package com.omar.bookingappback.user.service;
+
+import com.omar.bookingappback.config.SecurityUtils;
+import com.omar.bookingappback.user.dto.ReadUserDTO;
+import com.omar.bookingappback.user.entity.RoleAssignment;
+import com.omar.bookingappback.user.repository.RoleAssignmentRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Service class managing the outbox of the roles to assign to the users in Auth0.
+ *
+ * The assignments are recorded in the transactions of the application, and assigned in Auth0 by the
+ * {@link RoleAssignmentWorker}, so the requests complete at database speed whatever the latency or the
+ * availability of Auth0, and the assignments eventually converge.
+ */
+@Service
+public class RoleAssignmentService {
+
+    private final RoleAssignmentRepository roleAssignmentRepository;
+
+    private final String roleLandlordId;
+
+    /**
+     * Constructor for RoleAssignmentService.
+     *
+     * @param roleAssignmentRepository Repository of the pending role assignments.
+     * @param roleLandlordId Role ID for the landlord role, fetched from the application's configuration.
+     */
+    public RoleAssignmentService(RoleAssignmentRepository roleAssignmentRepository,
+                                 @Value("${application.auth0.role-landlord-id}") String roleLandlordId) {
+        this.roleAssignmentRepository = roleAssignmentRepository;
+        this.roleLandlordId = roleLandlordId;
+    }
+
+    /**
+     * Requests the landlord role for a user if the user doesn't already have it, in the current transaction.
+     *
+     * @param readUserDTO The user DTO containing user information.
+     */
+    @Transactional
+    public void requestLandlordRole(ReadUserDTO readUserDTO) {
+        if (readUserDTO.authorities().stream().noneMatch(role -> role.equals(SecurityUtils.ROLE_LANDLORD))) {
+            roleAssignmentRepository.request(readUserDTO.publicId(), readUserDTO.email(), roleLandlordId);
+        }
+    }
+
+    /**
+     * Claims a batch of the assignments due.
+     *
+     * @param lease How long the claimed assignments are kept from the other claims, covering their processing.
+     * @param limit The maximum number of assignments to claim.
+     * @return The claimed assignments.
+     */
+    @Transactional
+    public List<RoleAssignment> claim(Duration lease, int limit) {
+        return roleAssignmentRepository.claim(Instant.now().plus(lease), limit);
+    }
+
+    /**
+     * Removes assignments from the outbox, once assigned in Auth0.
+     *
+     * @param roleAssignments The assignments done.
+     */
+    @Transactional
+    public void complete(List<RoleAssignment> roleAssignments) {
+        roleAssignmentRepository.deleteAllByIdInBatch(roleAssignments.stream().map(RoleAssignment::getId).toList());
+    }
+
+    /**
+     * Schedules the next attempt of a failed assignment.
+     *
+     * @param roleAssignment The assignment that failed.
+     * @param nextAttemptDate The date of the next attempt.
+     * @param error The cause of the failure.
+     */
+    @Transactional
+    public void reschedule(RoleAssignment roleAssignment, Instant nextAttemptDate, String error) {
+        roleAssignmentRepository.reschedule(roleAssignment.getId(), nextAttemptDate,
+                error != null && error.length() > 1024 ? error.substring(0, 1024) : error);
+    }
+
+    /**
+     * Stops retrying an assignment failed too many times: it is kept with its last error, but never claimed again.
+     *
+     * @param roleAssignment The assignment that failed.
+     * @param error The cause of the failure.
+     */
+    @Transactional
+    public void park(RoleAssignment roleAssignment, String error) {
+        roleAssignmentRepository.park(roleAssignment.getId(),
+                error != null && error.length() > 1024 ? error.substring(0, 1024) : error);
+    }
+}
@@ -0,0 +1,205 @@
+package com.omar.bookingappback.user.service;
+
+import com.omar.bookingappback.user.entity.RoleAssignment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Assigns in the background the roles requested in the {@link RoleAssignmentService} outbox.
+ *
+ * The assignments due are claimed in batches, the users are looked up in Auth0 by email, and the users of
+ * a role are assigned it in a single call. A failed assignment is retried after an exponential backoff,
+ * with jitter so the retries of a batch are spread over time. An assignment still failing after the maximum
+ * number of attempts, e.g. for a user who never signs up to Auth0, is parked: it is kept with its last error
+ * but never retried.
+ *
+ * A circuit breaker stops calling Auth0 after consecutive failures: once open, no assignment is claimed
+ * for the open duration, then a single assignment is tried, closing the circuit if it succeeds or opening
+ * it again otherwise. The circuit breaker is local to this node.
+ */
+@Component
+public class RoleAssignmentWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(RoleAssignmentWorker.class);
+
+    private final RoleAssignmentService roleAssignmentService;
+
+    private final Auth0Service auth0Service;
+
+    private final int batchSize;
+
+    private final Duration lease;
+
+    private final Duration initialBackoff;
+
+    private final Duration maxBackoff;
+
+    private final int maxAttempts;
+
+    private final int failureThreshold;
+
+    private final Duration openDuration;
+
+    private int consecutiveFailures;
+
+    /**
+     * Instant until which the circuit is open, null while it is closed.
+     */
+    private volatile Instant openUntil;
+
+    private final Counter assigned;
+
+    private final Counter failed;
+
+    private final Counter parked;
+
+    /**
+     * Constructor for RoleAssignmentWorker.
+     *
+     * @param roleAssignmentService Service managing the outbox of the role assignments.
+     * @param auth0Service Service calling Auth0.
+     * @param batchSize The maximum number of assignments processed at once, fetched from the application's configuration.
+     * @param lease How long claimed assignments are kept from the other nodes while processed,
+     *              fetched from the application's configuration.
+     * @param initialBackoff The delay before retrying an assignment after its first failure,
+     *                       doubled after each following failure, fetched from the application's configuration.
+     * @param maxBackoff The maximum delay before retrying an assignment, fetched from the application's configuration.
+     * @param maxAttempts The number of failed attempts after which an assignment is parked,
+     *                    fetched from the application's configuration.
+     * @param failureThreshold The number of consecutive failures opening the circuit, fetched from the application's configuration.
+     * @param openDuration How long the circuit stays open, fetched from the application's configuration.
+     * @param meterRegistry The registry exposing the metrics of the worker.
+     */
+    public RoleAssignmentWorker(RoleAssignmentService roleAssignmentService, Auth0Service auth0Service,
+                                @Value("${application.role-assignment.batch-size}") int batchSize,
+                                @Value("${application.role-assignment.lease}") Duration lease,
+                                @Value("${application.role-assignment.initial-backoff}") Duration initialBackoff,
+                                @Value("${application.role-assignment.max-backoff}") Duration maxBackoff,
+                                @Value("${application.role-assignment.max-attempts}") int maxAttempts,
+                                @Value("${application.role-assignment.circuit-breaker.failure-threshold}") int failureThreshold,
+                                @Value("${application.role-assignment.circuit-breaker.open-duration}") Duration openDuration,
+                                MeterRegistry meterRegistry) {
+        this.roleAssignmentService = roleAssignmentService;
+        this.auth0Service = auth0Service;
+        this.batchSize = batchSize;
+        this.lease = lease;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.maxAttempts = maxAttempts;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+
+        this.assigned = Counter.builder("role.assignment.processed").tag("result", "assigned")
+                .description("Roles assigned in Auth0").register(meterRegistry);
+        this.failed = Counter.builder("role.assignment.processed").tag("result", "failed")
+                .description("Role assignments failed and scheduled for a retry").register(meterRegistry);
+        this.parked = Counter.builder("role.assignment.processed").tag("result", "parked")
+                .description("Role assignments failed too many times and no longer retried").register(meterRegistry);
+        Gauge.builder("role.assignment.circuit.open", this, worker -> worker.openUntil != null ? 1 : 0)
+                .description("Whether the calls to Auth0 are suspended after consecutive failures").register(meterRegistry);
+    }
+
+    /**
+     * Processes a batch of the assignments due, unless the circuit is open.
+     */
+    @Scheduled(fixedDelayString = "${application.role-assignment.delay}")
+    public void process() {
+        Instant now = Instant.now();
+        boolean halfOpen = openUntil != null;
+        if (halfOpen && now.isBefore(openUntil)) {
+            return;
+        }
+
+        List<RoleAssignment> roleAssignments = roleAssignmentService.claim(lease, halfOpen ? 1 : batchSize);
+        Set<RoleAssignment> pending = new LinkedHashSet<>(roleAssignments);
+        try {
+            Map<String, List<RoleAssignment>> assignmentsByRole = new LinkedHashMap<>();
+            Map<RoleAssignment, String> userIds = new LinkedHashMap<>();
+            for (RoleAssignment roleAssignment : roleAssignments) {
+                Optional<String> userId = auth0Service.findUserIdByEmail(roleAssignment.getEmail());
+                if (userId.isEmpty()) {
+                    // Auth0 answered, the user is not found there (yet)
+                    retryLater(roleAssignment, "User not found in Auth0");
+                    pending.remove(roleAssignment);
+                    continue;
+                }
+                userIds.put(roleAssignment, userId.get());
+                assignmentsByRole.computeIfAbsent(roleAssignment.getRoleId(), roleId -> new ArrayList<>()).add(roleAssignment);
+            }
+
+            for (Map.Entry<String, List<RoleAssignment>> roleAssignmentsOfRole : assignmentsByRole.entrySet()) {
+                List<RoleAssignment> batch = roleAssignmentsOfRole.getValue();
+                auth0Service.assignRole(roleAssignmentsOfRole.getKey(), batch.stream().map(userIds::get).distinct().toList());
+                roleAssignmentService.complete(batch);
+                batch.forEach(pending::remove);
+                assigned.increment(batch.size());
+            }
+            onSuccess(roleAssignments.isEmpty());
+        } catch (Exception e) {
+            log.warn("Cannot assign roles in Auth0, {} assignments will be retried", pending.size(), e);
+            pending.forEach(roleAssignment -> retryLater(roleAssignment, e.toString()));
+            onFailure(now);
+        }
+    }
+
+    private void retryLater(RoleAssignment roleAssignment, String error) {
+        if (roleAssignment.getAttempts() + 1 >= maxAttempts) {
+            log.warn("Role assignment {} of {} failed {} times, no longer retried: {}", roleAssignment.getRoleId(),
+                    roleAssignment.getEmail(), roleAssignment.getAttempts() + 1, error);
+            roleAssignmentService.park(roleAssignment, error);
+            parked.increment();
+            return;
+        }
+        roleAssignmentService.reschedule(roleAssignment, Instant.now().plus(getBackoff(roleAssignment.getAttempts())), error);
+        failed.increment();
+    }
+
+    /**
+     * @param attempts The number of failed attempts of the assignment before this one.
+     * @return The delay before the next attempt, between half and all of the exponential backoff.
+     */
+    private Duration getBackoff(int attempts) {
+        Duration backoff = maxBackoff;
+        if (attempts < 31 && initialBackoff.toMillis() << attempts < maxBackoff.toMillis()) {
+            backoff = initialBackoff.multipliedBy(1L << attempts);
+        }
+        return backoff.minus(backoff.dividedBy(2).multipliedBy(ThreadLocalRandom.current().nextInt(0, 1001)).dividedBy(1000));
+    }
+
+    private void onSuccess(boolean idle) {
+        if (idle && openUntil != null) {
+            // Nothing was tried, the circuit stays half-open
+            return;
+        }
+        if (openUntil != null) {
+            log.info("Auth0 calls succeed again, closing the circuit");
+        }
+        consecutiveFailures = 0;
+        openUntil = null;
+    }
+
+    private void onFailure(Instant now) {
+        consecutiveFailures++;
+        if (openUntil != null || consecutiveFailures >= failureThreshold) {
+            openUntil = now.plus(openDuration);
+            log.warn("Auth0 calls failed {} times in a row, suspending them until {}", consecutiveFailures, openUntil);
+        }
+    }
+}
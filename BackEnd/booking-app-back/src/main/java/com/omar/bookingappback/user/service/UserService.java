@@ -2,16 +2,34 @@ package com.omar.bookingappback.user.service;
 
 import com.omar.bookingappback.config.SecurityUtils;
 import com.omar.bookingappback.user.dto.ReadUserDTO;
+import com.omar.bookingappback.user.entity.Authority;
 import com.omar.bookingappback.user.entity.User;
 import com.omar.bookingappback.user.mapper.UserMapper;
 import com.omar.bookingappback.user.repository.UserRepository;
+import com.auth0.exception.Auth0Exception;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.InsufficientAuthenticationException;
+import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
-
-import java.time.Instant;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
@@ -21,28 +39,94 @@ import java.util.UUID;
 public class UserService {
 
 
-    private static final String UPDATED_AT_KEY = "updated_at";
+    private static final String SUBJECT_KEY = "sub";
+    private static final String EMAIL_KEY = "email";
+    private static final String EMAIL_CONSTRAINT = "ux_user_email";
     private final UserRepository userRepository;
     private final UserMapper userMapper;
+    private final AuthenticatedUserCache authenticatedUserCache;
+    private final Auth0Service auth0Service;
+    private final TransactionTemplate synchronizationTransaction;
 
-    public UserService(UserRepository userRepository, UserMapper userMapper) {
+    public UserService(UserRepository userRepository, UserMapper userMapper, AuthenticatedUserCache authenticatedUserCache,
+                       Auth0Service auth0Service, PlatformTransactionManager transactionManager) {
         this.userRepository = userRepository;
         this.userMapper = userMapper;
+        this.authenticatedUserCache = authenticatedUserCache;
+        this.auth0Service = auth0Service;
+        // The user is synchronized on their first request, which may run in a read-only transaction
+        this.synchronizationTransaction = new TransactionTemplate(transactionManager);
+        this.synchronizationTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
     }
 
 
 
     /**
      * Retrieves the currently authenticated user from the security context
-     * and maps them to a ReadUserDTO. Throws an exception if the user cannot be found.
+     * and maps them to a ReadUserDTO.
+     *
+     * The user is resolved once per request and cached for a short time by subject, see {@link AuthenticatedUserCache}:
+     * the database is only queried, for the user and their authorities at once, on a cache miss.
+     * The user is identified by the subject of their OAuth2 login or of their bearer JWT, which is the only claim
+     * of the JWT identifying them. A user unknown locally, who never logged in through the browser or was created
+     * before the subjects were stored, is synchronized first: from the claims of their login, or from their profile
+     * at the identity provider for a JWT.
      *
      * @return ReadUserDTO representation of the authenticated user.
+     * @throws AuthenticationException If there is no authenticated user, or they are unknown at the identity provider.
      */
-    @Transactional(readOnly = true)
     public ReadUserDTO getAuthenticatedUserFromSecurityContext() {
-        OAuth2User principal = (OAuth2User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        User user = SecurityUtils.mapOauth2AttributesToUser(principal.getAttributes());
-        return getByEmail(user.getEmail()).orElseThrow();
+        Map<String, Object> attributes = SecurityUtils.getClaims(SecurityContextHolder.getContext().getAuthentication());
+        if (attributes.get(SUBJECT_KEY) == null) {
+            throw new AuthenticationCredentialsNotFoundException("No authenticated user");
+        }
+        String subject = String.valueOf(attributes.get(SUBJECT_KEY));
+        return authenticatedUserCache.get(subject, () -> loadAuthenticatedUser(subject, attributes));
+    }
+
+    private ReadUserDTO loadAuthenticatedUser(String subject, Map<String, Object> attributes) {
+        Optional<ReadUserDTO> user = getByIdpSubject(subject);
+        if (user.isPresent()) {
+            return user.get();
+        }
+        Map<String, Object> claims = attributes.get(EMAIL_KEY) != null ? attributes : fetchClaimsFromIdp(subject, attributes);
+        synchronizationTransaction.executeWithoutResult(status -> syncWithIdp(claims, false));
+        return getByIdpSubject(subject)
+                .orElseThrow(() -> new InsufficientAuthenticationException("Unknown user " + subject));
+    }
+
+    /**
+     * Builds the claims of a user from their profile at the identity provider, the roles being the ones of their JWT.
+     */
+    private Map<String, Object> fetchClaimsFromIdp(String subject, Map<String, Object> jwtClaims) {
+        com.auth0.json.mgmt.users.User idpUser;
+        try {
+            idpUser = auth0Service.findUserById(subject)
+                    .orElseThrow(() -> new InsufficientAuthenticationException("Unknown user " + subject));
+        } catch (Auth0Exception auth0Exception) {
+            throw new AuthenticationServiceException("Cannot fetch the user " + subject, auth0Exception);
+        }
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(SUBJECT_KEY, subject);
+        claims.put(EMAIL_KEY, idpUser.getEmail());
+        claims.put("given_name", idpUser.getGivenName());
+        claims.put("family_name", idpUser.getFamilyName());
+        claims.put("nickname", idpUser.getNickname());
+        claims.put("picture", idpUser.getPicture());
+        claims.put(SecurityUtils.CLAIMS_NAMESPACE, jwtClaims.get(SecurityUtils.CLAIMS_NAMESPACE));
+        return claims;
+    }
+
+    /**
+     * Retrieves a user by their subject at the identity provider and maps it to a ReadUserDTO.
+     *
+     * @param idpSubject The subject of the user at the identity provider.
+     * @return Optional containing the ReadUserDTO if found, or an empty Optional.
+     */
+    @Transactional(readOnly = true)
+    public Optional<ReadUserDTO> getByIdpSubject(String idpSubject) {
+        Optional<User> oneByIdpSubject = userRepository.findOneWithAuthoritiesByIdpSubject(idpSubject);
+        return oneByIdpSubject.map(userMapper::readUserDTOToUser);
     }
 
     /**
@@ -53,56 +137,94 @@ public class UserService {
      */
     @Transactional(readOnly = true)
     public Optional<ReadUserDTO> getByEmail(String email) {
-        Optional<User> oneByEmail = userRepository.findOneByEmail(email);
+        Optional<User> oneByEmail = userRepository.findOneWithAuthoritiesByEmail(email);
         return oneByEmail.map(userMapper::readUserDTOToUser);
     }
 
 
     /**
      * Synchronizes the user's information from the Identity Provider (IDP) with the local database.
-     * Updates the local user if the user has changed in the IDP or if a forced resynchronization is requested.
+     *
+     * The user is identified by their subject; a user created before the subjects were stored is matched by email.
+     * The claims are fingerprinted, and the user is only written if the fingerprint differs from the one of
+     * the last synchronization, or if a forced resynchronization is requested: a login with unchanged claims
+     * only reads the fingerprint. Otherwise the user is created or updated, and their authorities replaced by
+     * the ones of the claims, in a single statement. The cached user is evicted once the written user is committed,
+     * so a request resolving the user meanwhile can't cache it as it was before the synchronization.
+     * An identity whose email is already the one of a user with another subject is rejected: the email is unique,
+     * and the user of an email is only ever linked to the first identity logging in with it.
      *
      * @param oAuth2User The OAuth2 user attributes from the IDP.
-     * @param forceResync Whether to force synchronization even if the 'updated_at' dates match.
+     * @param forceResync Whether to force synchronization even if the claims didn't change.
+     * @throws AuthenticationException If the claims have no subject, or their email is used by another identity.
      */
+    @Transactional
     public void syncWithIdp(OAuth2User oAuth2User, boolean forceResync) {
-        Map<String, Object> attributes = oAuth2User.getAttributes();
+        syncWithIdp(oAuth2User.getAttributes(), forceResync);
+    }
+
+    private void syncWithIdp(Map<String, Object> attributes, boolean forceResync) {
+        if (attributes.get(SUBJECT_KEY) == null) {
+            throw new InsufficientAuthenticationException("No subject in the claims");
+        }
+        String subject = String.valueOf(attributes.get(SUBJECT_KEY));
         User user = SecurityUtils.mapOauth2AttributesToUser(attributes);
-        Optional<User> existingUser = userRepository.findOneByEmail(user.getEmail());
-        if (existingUser.isPresent()) {
-            if (attributes.get(UPDATED_AT_KEY) != null) {
-                Instant lastModifiedDate = existingUser.orElseThrow().getLastModifiedDate();
-                Instant idpModifiedDate;
-                if (attributes.get(UPDATED_AT_KEY) instanceof Instant instant) {
-                    idpModifiedDate = instant;
-                } else {
-                    idpModifiedDate = Instant.ofEpochSecond((Integer) attributes.get(UPDATED_AT_KEY));
-                }
-                if (idpModifiedDate.isAfter(lastModifiedDate) || forceResync) {
-                    updateUser(user);
-                }
+        String[] authorityNames = user.getAuthorities().stream().map(Authority::getName).sorted().toArray(String[]::new);
+        String fingerprint = fingerprint(user, authorityNames);
+        Optional<String> lastFingerprint = userRepository.findIdpFingerprintByIdpSubject(subject);
+        if (!forceResync && lastFingerprint.filter(fingerprint::equals).isPresent()) {
+            return;
+        }
+        if (lastFingerprint.isEmpty()) {
+            userRepository.claimIdpSubject(subject, user.getEmail());
+        }
+        try {
+            userRepository.upsertFromIdp(UUID.randomUUID(), subject, user.getEmail(), user.getFirstName(), user.getLastName(),
+                    user.getImageUrl(), fingerprint, authorityNames);
+        } catch (DataIntegrityViolationException dive) {
+            if (!isEmailConflict(dive)) {
+                throw dive;
             }
-        } else {
-            userRepository.saveAndFlush(user);
+            throw new InsufficientAuthenticationException("The email of the user " + subject
+                    + " is already used by another identity", dive);
         }
+        evictAuthenticatedUser(subject);
+    }
+
+    private static boolean isEmailConflict(DataIntegrityViolationException dive) {
+        for (Throwable cause = dive; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException constraintViolation) {
+                return EMAIL_CONSTRAINT.equalsIgnoreCase(constraintViolation.getConstraintName());
+            }
+        }
+        return false;
+    }
+
+    private void evictAuthenticatedUser(String subject) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                authenticatedUserCache.evict(subject);
+            }
+        });
     }
 
     /**
-     * Updates the local user record in the database with new details from the IDP.
-     *
-     * @param user The user object containing updated information.
+     * @return The hex SHA-256 digest of the claims of a user stored locally.
      */
-    private void updateUser(User user) {
-        Optional<User> userToUpdateOpt = userRepository.findOneByEmail(user.getEmail());
-        if (userToUpdateOpt.isPresent()) {
-            User userToUpdate = userToUpdateOpt.get();
-            userToUpdate.setEmail(user.getEmail());
-            userToUpdate.setFirstName(user.getFirstName());
-            userToUpdate.setLastName(user.getLastName());
-            userToUpdate.setAuthorities(user.getAuthorities());
-            userToUpdate.setImageUrl(user.getImageUrl());
-            userRepository.saveAndFlush(userToUpdate);
+    private static String fingerprint(User user, String[] sortedAuthorityNames) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+        for (String claim : List.of(String.valueOf(user.getEmail()), String.valueOf(user.getFirstName()),
+                String.valueOf(user.getLastName()), String.valueOf(user.getImageUrl()), String.join(",", sortedAuthorityNames))) {
+            digest.update(claim.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
         }
+        return HexFormat.of().formatHex(digest.digest());
     }
 
     /**
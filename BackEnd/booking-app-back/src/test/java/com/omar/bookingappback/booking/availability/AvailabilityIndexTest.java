@@ -0,0 +1,200 @@
+package com.omar.bookingappback.booking.availability;
+
+import com.omar.bookingappback.booking.BookingRepository;
+import com.omar.bookingappback.booking.dto.BookedPeriodDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AvailabilityIndexTest {
+
+    private static final UUID LISTING = UUID.randomUUID();
+
+    private static final UUID OTHER_LISTING = UUID.randomUUID();
+
+    private final OffsetDateTime today = LocalDate.now(ZoneOffset.UTC).atStartOfDay().atOffset(ZoneOffset.UTC);
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private BookingRepository bookingRepository;
+
+    private AvailabilityIndex availabilityIndex;
+
+    @BeforeEach
+    void setUp() {
+        bookingRepository = mock(BookingRepository.class);
+        availabilityIndex = new AvailabilityIndex(bookingRepository, mock(PlatformTransactionManager.class),
+                Duration.ofDays(30), meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void nothingIsFreeBeforeTheIndexIsBuilt() {
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(1), today.plusDays(2))).isFalse();
+    }
+
+    @Test
+    void rebuildMarksTheDaysOverlappedByTheBookings() {
+        givenBookedPeriods(booked(LISTING, today.plusDays(3).plusHours(14), today.plusDays(5).plusHours(11)));
+
+        availabilityIndex.rebuild();
+
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(1), today.plusDays(3))).isTrue();
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(2), today.plusDays(4))).isFalse();
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(5), today.plusDays(6))).isFalse();
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(6), today.plusDays(8))).isTrue();
+        assertThat(availabilityIndex.isFree(OTHER_LISTING, today.plusDays(3), today.plusDays(5))).isTrue();
+    }
+
+    @Test
+    void periodsOutsideTheHorizonAreNeverFree() {
+        givenBookedPeriods();
+
+        availabilityIndex.rebuild();
+
+        assertThat(availabilityIndex.isFree(LISTING, today.minusDays(1), today.plusDays(1))).isFalse();
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(29), today.plusDays(31))).isFalse();
+    }
+
+    @Test
+    void markBookedIsAppliedOnceTheTransactionIsCommitted() {
+        givenBookedPeriods();
+        availabilityIndex.rebuild();
+        TransactionSynchronizationManager.initSynchronization();
+
+        availabilityIndex.markBooked(LISTING, today.plusDays(2), today.plusDays(4));
+
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(2), today.plusDays(4))).isTrue();
+        commit();
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(2), today.plusDays(4))).isFalse();
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(4), today.plusDays(6))).isTrue();
+    }
+
+    @Test
+    void refreshReplacesTheBookedDaysWithTheBookingsLeft() {
+        givenBookedPeriods(booked(LISTING, today.plusDays(2), today.plusDays(4)),
+                booked(LISTING, today.plusDays(6), today.plusDays(8)),
+                booked(OTHER_LISTING, today.plusDays(2), today.plusDays(4)));
+        availabilityIndex.rebuild();
+        givenQueuedBookedPeriods(booked(LISTING, today.plusDays(6), today.plusDays(8)));
+
+        availabilityIndex.refresh(LISTING);
+        availabilityIndex.refreshQueued();
+
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(2), today.plusDays(4))).isTrue();
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(6), today.plusDays(8))).isFalse();
+        assertThat(availabilityIndex.isFree(OTHER_LISTING, today.plusDays(2), today.plusDays(4))).isFalse();
+        verify(bookingRepository).findAllBookedPeriodsByFkListingInMatchWithDate(eq(List.of(LISTING)), any(), any());
+    }
+
+    @Test
+    void refreshIsQueuedOnceTheTransactionIsCommitted() {
+        givenBookedPeriods(booked(LISTING, today.plusDays(2), today.plusDays(4)));
+        availabilityIndex.rebuild();
+        givenQueuedBookedPeriods();
+        TransactionSynchronizationManager.initSynchronization();
+
+        availabilityIndex.refresh(LISTING);
+        availabilityIndex.refreshQueued();
+
+        verify(bookingRepository, never()).findAllBookedPeriodsByFkListingInMatchWithDate(any(), any(), any());
+        commit();
+        availabilityIndex.refreshQueued();
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(2), today.plusDays(4))).isTrue();
+    }
+
+    @Test
+    void refreshKeepsTheBookingsMarkedWhileReading() {
+        givenBookedPeriods(booked(LISTING, today.plusDays(2), today.plusDays(4)));
+        availabilityIndex.rebuild();
+        when(bookingRepository.findAllBookedPeriodsByFkListingInMatchWithDate(any(), any(), any())).thenAnswer(invocation -> {
+            // The cancelled booking is gone, and a booking is committed through this node after the read
+            availabilityIndex.markBooked(LISTING, today.plusDays(10), today.plusDays(12));
+            return List.of();
+        });
+
+        availabilityIndex.refresh(LISTING);
+        availabilityIndex.refreshQueued();
+
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(2), today.plusDays(4))).isTrue();
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(10), today.plusDays(12))).isFalse();
+    }
+
+    @Test
+    void rebuildReplaysTheChangesAppliedWhileRebuilding() {
+        when(bookingRepository.findAllBookedPeriodsMatchWithDate(any(), any())).thenAnswer(invocation -> {
+            // Booked through this node while the bookings are being read
+            availabilityIndex.markBooked(OTHER_LISTING, today.plusDays(1), today.plusDays(2));
+            return List.of(booked(LISTING, today.plusDays(3), today.plusDays(4)));
+        });
+
+        availabilityIndex.rebuild();
+
+        assertThat(availabilityIndex.isFree(LISTING, today.plusDays(3), today.plusDays(4))).isFalse();
+        assertThat(availabilityIndex.isFree(OTHER_LISTING, today.plusDays(1), today.plusDays(2))).isFalse();
+    }
+
+    @Test
+    void metricsReportTheChecksAndTheFootprint() {
+        givenBookedPeriods(booked(LISTING, today.plusDays(2), today.plusDays(4)));
+        availabilityIndex.rebuild();
+
+        availabilityIndex.isFree(LISTING, today.plusDays(2), today.plusDays(3));
+        availabilityIndex.isFree(OTHER_LISTING, today.plusDays(2), today.plusDays(3));
+        availabilityIndex.recordFalsePositives(1);
+        availabilityIndex.recordMissedBookings(1);
+
+        assertThat(meterRegistry.get("availability.index.checks").tag("result", "free").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("availability.index.checks").tag("result", "possibly-booked").counter().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("availability.index.false-positive.rate").gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.get("availability.index.missed-bookings").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("availability.index.listings").gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.get("availability.index.size").gauge().value()).isPositive();
+    }
+
+    private void givenBookedPeriods(BookedPeriodDTO... bookedPeriods) {
+        when(bookingRepository.findAllBookedPeriodsMatchWithDate(any(), any())).thenReturn(List.of(bookedPeriods));
+    }
+
+    private void givenQueuedBookedPeriods(BookedPeriodDTO... bookedPeriods) {
+        when(bookingRepository.findAllBookedPeriodsByFkListingInMatchWithDate(any(), any(), any()))
+                .thenReturn(List.of(bookedPeriods));
+    }
+
+    private static void commit() {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+    }
+
+    private static BookedPeriodDTO booked(UUID listingPublicId, OffsetDateTime startDate, OffsetDateTime endDate) {
+        return new BookedPeriodDTO(listingPublicId, startDate, endDate);
+    }
+}
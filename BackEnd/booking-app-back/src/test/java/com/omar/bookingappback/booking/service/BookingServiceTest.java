@@ -0,0 +1,285 @@
+package com.omar.bookingappback.booking.service;
+
+import com.omar.bookingappback.booking.Booking;
+import com.omar.bookingappback.booking.BookingRepository;
+import com.omar.bookingappback.booking.availability.AvailabilityIndex;
+import com.omar.bookingappback.booking.dto.BookedDateDTO;
+import com.omar.bookingappback.booking.dto.BookedPeriodDTO;
+import com.omar.bookingappback.booking.dto.CompactAvailabilityDTO;
+import com.omar.bookingappback.booking.dto.ListingAvailabilityDTO;
+import com.omar.bookingappback.booking.dto.NewBookingDTO;
+import com.omar.bookingappback.booking.mapper.BookingMapper;
+import com.omar.bookingappback.listing.dto.ListingCreateBookingDTO;
+import com.omar.bookingappback.listing.dto.vo.PriceVO;
+import com.omar.bookingappback.listing.service.LandlordService;
+import com.omar.bookingappback.shared.state.State;
+import com.omar.bookingappback.shared.state.StatusNotification;
+import com.omar.bookingappback.user.dto.ReadUserDTO;
+import com.omar.bookingappback.user.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BookingServiceTest {
+
+    private static final OffsetDateTime WINDOW_START = OffsetDateTime.parse("2030-06-01T14:00:00Z");
+
+    private static final OffsetDateTime WINDOW_END = WINDOW_START.plusDays(10);
+
+    private static final UUID LISTING = UUID.randomUUID();
+
+    private static final UUID OTHER_LISTING = UUID.randomUUID();
+
+    private BookingRepository bookingRepository;
+
+    private AvailabilityIndex availabilityIndex;
+
+    private TakenIntervals takenIntervals;
+
+    private BookingService bookingService;
+
+    @BeforeEach
+    void setUp() {
+        bookingRepository = mock(BookingRepository.class);
+        availabilityIndex = mock(AvailabilityIndex.class);
+        takenIntervals = new TakenIntervals(Duration.ofMinutes(1));
+        BookingMapper bookingMapper = mock(BookingMapper.class);
+        when(bookingMapper.newBookingToBooking(any())).thenAnswer(invocation -> {
+            NewBookingDTO newBookingDTO = invocation.getArgument(0);
+            Booking booking = new Booking();
+            booking.setStartDate(newBookingDTO.startDate());
+            booking.setEndDate(newBookingDTO.endDate());
+            return booking;
+        });
+        LandlordService landlordService = mock(LandlordService.class);
+        when(landlordService.getByListingPublicId(LISTING))
+                .thenReturn(Optional.of(new ListingCreateBookingDTO(LISTING, new PriceVO(100))));
+        UserService userService = mock(UserService.class);
+        when(userService.getAuthenticatedUserFromSecurityContext())
+                .thenReturn(new ReadUserDTO(UUID.randomUUID(), null, null, null, null, Set.of()));
+        bookingService = new BookingService(bookingRepository, bookingMapper, userService, landlordService,
+                availabilityIndex, mock(ListingOccupancyService.class), takenIntervals, Period.ofDays(30));
+    }
+
+    @Test
+    void createSkipsTheOverlapQueryForDatesKnownFree() {
+        when(availabilityIndex.isFree(LISTING, WINDOW_START, WINDOW_END)).thenReturn(true);
+
+        State<Void, String> createState = bookingService.create(new NewBookingDTO(WINDOW_START, WINDOW_END, LISTING));
+
+        assertThat(createState.getStatus()).isEqualTo(StatusNotification.OK);
+        verify(bookingRepository, never()).bookingExistsAtInterval(any(), any(), any());
+        verify(bookingRepository).saveAndFlush(any());
+        verify(availabilityIndex).markBooked(LISTING, WINDOW_START, WINDOW_END);
+    }
+
+    @Test
+    void createQueriesTheOverlapsOfDatesPossiblyBooked() {
+        when(bookingRepository.bookingExistsAtInterval(WINDOW_START, WINDOW_END, LISTING)).thenReturn(true);
+
+        State<Void, String> createState = bookingService.create(new NewBookingDTO(WINDOW_START, WINDOW_END, LISTING));
+
+        assertThat(createState.getStatus()).isEqualTo(StatusNotification.ERROR);
+        verify(bookingRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    void createReportsTheFalsePositivesOfTheIndex() {
+        State<Void, String> createState = bookingService.create(new NewBookingDTO(WINDOW_START, WINDOW_END, LISTING));
+
+        assertThat(createState.getStatus()).isEqualTo(StatusNotification.OK);
+        verify(availabilityIndex).recordFalsePositives(1);
+    }
+
+    @Test
+    void createReportsTheBookingsMissedByTheIndex() {
+        when(availabilityIndex.isFree(LISTING, WINDOW_START, WINDOW_END)).thenReturn(true);
+        when(bookingRepository.saveAndFlush(any())).thenThrow(new DataIntegrityViolationException("overlap"));
+
+        assertThatThrownBy(() -> bookingService.create(new NewBookingDTO(WINDOW_START, WINDOW_END, LISTING)))
+                .isInstanceOf(DataIntegrityViolationException.class);
+        verify(availabilityIndex).recordMissedBookings(1);
+    }
+
+    @Test
+    void calendarMergesTheOverlappingAndAdjacentBookings() {
+        givenBookedPeriods(
+                booked(LISTING, WINDOW_START.plusDays(1), WINDOW_START.plusDays(3)),
+                // Overlaps the previous booking
+                booked(LISTING, WINDOW_START.plusDays(2), WINDOW_START.plusDays(4)),
+                // Starts when the previous booking ends
+                booked(LISTING, WINDOW_START.plusDays(4), WINDOW_START.plusDays(5)),
+                // Within the previous bookings
+                booked(LISTING, WINDOW_START.plusDays(2), WINDOW_START.plusDays(3)),
+                booked(LISTING, WINDOW_START.plusDays(6), WINDOW_START.plusDays(7)));
+
+        List<BookedDateDTO> bookedDates = getCalendar(List.of(LISTING)).getValue().get(0).bookedDates();
+
+        assertThat(bookedDates).containsExactly(
+                new BookedDateDTO(WINDOW_START.plusDays(1), WINDOW_START.plusDays(5)),
+                new BookedDateDTO(WINDOW_START.plusDays(6), WINDOW_START.plusDays(7)));
+    }
+
+    @Test
+    void calendarClipsTheBookingsToTheWindow() {
+        givenBookedPeriods(
+                booked(LISTING, WINDOW_START.minusDays(3), WINDOW_START.plusDays(1)),
+                booked(LISTING, WINDOW_END.minusDays(1), WINDOW_END.plusDays(5)));
+
+        List<BookedDateDTO> bookedDates = getCalendar(List.of(LISTING)).getValue().get(0).bookedDates();
+
+        assertThat(bookedDates).containsExactly(
+                new BookedDateDTO(WINDOW_START, WINDOW_START.plusDays(1)),
+                new BookedDateDTO(WINDOW_END.minusDays(1), WINDOW_END));
+    }
+
+    @Test
+    void calendarListsEachRequestedListingInTheRequestedOrder() {
+        givenBookedPeriods(
+                booked(LISTING, WINDOW_START.plusDays(1), WINDOW_START.plusDays(2)),
+                booked(OTHER_LISTING, WINDOW_START.plusDays(3), WINDOW_START.plusDays(4)));
+        UUID freeListing = UUID.randomUUID();
+
+        List<ListingAvailabilityDTO> calendar = getCalendar(List.of(OTHER_LISTING, freeListing, LISTING)).getValue();
+
+        assertThat(calendar).containsExactly(
+                new ListingAvailabilityDTO(OTHER_LISTING, List.of(new BookedDateDTO(WINDOW_START.plusDays(3), WINDOW_START.plusDays(4)))),
+                new ListingAvailabilityDTO(freeListing, List.of()),
+                new ListingAvailabilityDTO(LISTING, List.of(new BookedDateDTO(WINDOW_START.plusDays(1), WINDOW_START.plusDays(2)))));
+    }
+
+    @Test
+    void calendarRejectsTooManyListingsAndInvalidWindows() {
+        List<UUID> tooManyListings = Collections.nCopies(BookingService.MAX_CALENDAR_LISTINGS + 1, LISTING);
+
+        assertThat(getCalendar(List.of()).getStatus()).isEqualTo(StatusNotification.ERROR);
+        assertThat(getCalendar(tooManyListings).getStatus()).isEqualTo(StatusNotification.ERROR);
+        assertThat(bookingService.getAvailabilityCalendar(List.of(LISTING), WINDOW_END, WINDOW_START).getStatus())
+                .isEqualTo(StatusNotification.ERROR);
+        assertThat(bookingService.getAvailabilityCalendar(List.of(LISTING), WINDOW_START,
+                WINDOW_START.plusDays(BookingService.MAX_CALENDAR_DAYS + 1)).getStatus()).isEqualTo(StatusNotification.ERROR);
+        verify(bookingRepository, never()).findAllBookedPeriodsByFkListingInMatchWithDate(anyList(), any(), any());
+    }
+
+    @Test
+    void compactAvailabilityEncodesTheBookedDaysAsABitmap() {
+        givenBookedPeriods(
+                // Within the first day of the window
+                booked(LISTING, WINDOW_START.plusHours(2), WINDOW_START.plusHours(20)),
+                // Exactly the fourth and fifth days
+                booked(LISTING, WINDOW_START.plusDays(3), WINDOW_START.plusDays(5)),
+                // From the middle of the sixth day to the middle of the seventh day
+                booked(LISTING, WINDOW_START.plusDays(5).plusHours(2), WINDOW_START.plusDays(6).plusHours(1)),
+                // Ends after the window
+                booked(LISTING, WINDOW_END.minusHours(18), WINDOW_END.plusDays(2)));
+
+        CompactAvailabilityDTO availability = bookingService.checkAvailabilityCompact(LISTING, WINDOW_START, WINDOW_END)
+                .getValue();
+
+        assertThat(availability.startDate()).isEqualTo(WINDOW_START);
+        assertThat(availability.days()).isEqualTo(10);
+        // Days 0, 3, 4, 5, 6 and 9, bit i of the bitmap being bit i % 8 of byte i / 8
+        assertThat(Base64.getDecoder().decode(availability.bookedDays())).containsExactly(0b0111_1001, 0b0000_0010);
+    }
+
+    @Test
+    void compactAvailabilityCoversTheLastPartialDayOfTheWindow() {
+        givenBookedPeriods();
+
+        CompactAvailabilityDTO availability = bookingService.checkAvailabilityCompact(LISTING, WINDOW_START,
+                WINDOW_START.plusDays(8).plusHours(1)).getValue();
+
+        assertThat(availability.days()).isEqualTo(9);
+        assertThat(Base64.getDecoder().decode(availability.bookedDays())).containsExactly(0, 0);
+    }
+
+    @Test
+    void compactAvailabilityRejectsAnInvalidWindow() {
+        State<CompactAvailabilityDTO, String> availabilityState = bookingService.checkAvailabilityCompact(LISTING,
+                WINDOW_END, WINDOW_START);
+
+        assertThat(availabilityState.getStatus()).isEqualTo(StatusNotification.ERROR);
+    }
+
+    @Test
+    void cancelForgetsTheTakenIntervalsOnceCommitted() {
+        NewBookingDTO newBookingDTO = new NewBookingDTO(WINDOW_START, WINDOW_END, LISTING);
+        takenIntervals.remember(newBookingDTO);
+        Booking booking = new Booking();
+        booking.setFkListing(LISTING);
+        UUID bookingPublicId = UUID.randomUUID();
+        when(bookingRepository.deleteBookingByFkTenantAndPublicId(any(), any())).thenReturn(List.of(booking));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            State<UUID, String> cancelState = bookingService.cancel(bookingPublicId, LISTING, false);
+
+            assertThat(cancelState.getValue()).isEqualTo(bookingPublicId);
+            assertThat(takenIntervals.isTaken(newBookingDTO)).isTrue();
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(takenIntervals.isTaken(newBookingDTO)).isFalse();
+    }
+
+    @Test
+    void failedCancelKeepsTheTakenIntervals() {
+        NewBookingDTO newBookingDTO = new NewBookingDTO(WINDOW_START, WINDOW_END, LISTING);
+        takenIntervals.remember(newBookingDTO);
+        when(bookingRepository.deleteBookingByFkTenantAndPublicId(any(), any())).thenReturn(List.of());
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            State<UUID, String> cancelState = bookingService.cancel(UUID.randomUUID(), LISTING, false);
+
+            assertThat(cancelState.getStatus()).isEqualTo(StatusNotification.ERROR);
+            assertThat(TransactionSynchronizationManager.getSynchronizations()).isEmpty();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(takenIntervals.isTaken(newBookingDTO)).isTrue();
+    }
+
+    private State<List<ListingAvailabilityDTO>, String> getCalendar(List<UUID> listingPublicIds) {
+        return bookingService.getAvailabilityCalendar(listingPublicIds, WINDOW_START, WINDOW_END);
+    }
+
+    private void givenBookedPeriods(BookedPeriodDTO... bookedPeriods) {
+        // Sorted by listing then by start date, as the query does
+        List<BookedPeriodDTO> sortedPeriods = new ArrayList<>(List.of(bookedPeriods));
+        sortedPeriods.sort((first, second) -> first.listingPublicId().equals(second.listingPublicId())
+                ? first.startDate().compareTo(second.startDate())
+                : first.listingPublicId().compareTo(second.listingPublicId()));
+        when(bookingRepository.findAllBookedPeriodsByFkListingInMatchWithDate(anyList(), any(), any()))
+                .thenReturn(sortedPeriods);
+    }
+
+    private static BookedPeriodDTO booked(UUID listingPublicId, OffsetDateTime startDate, OffsetDateTime endDate) {
+        return new BookedPeriodDTO(listingPublicId, startDate, endDate);
+    }
+}
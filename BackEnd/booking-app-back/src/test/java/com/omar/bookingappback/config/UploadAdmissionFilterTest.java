@@ -0,0 +1,143 @@
+package com.omar.bookingappback.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UploadAdmissionFilterTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void admitsAnUploadWithinTheBudgetAndReleasesItsBytes() throws Exception {
+        UploadAdmissionFilter filter = filter(Duration.ofMillis(50));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(upload(4096), response, (request, resp) ->
+                assertThat(inFlightBytes()).isEqualTo(4096));
+
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(inFlightBytes()).isZero();
+        assertThat(meterRegistry.get("upload.admission.in-flight.requests").gauge().value()).isZero();
+    }
+
+    @Test
+    void rejectsAnUploadExceedingTheBudgetWithRetryAfter() throws Exception {
+        UploadAdmissionFilter filter = filter(Duration.ofMillis(50));
+        MockHttpServletResponse rejectedResponse = new MockHttpServletResponse();
+
+        // The second upload arrives while the first one holds 8 of the 10 KiB of the budget
+        filter.doFilter(upload(8 * 1024), new MockHttpServletResponse(), (request, response) ->
+                filter.doFilter(upload(4 * 1024), rejectedResponse, new MockFilterChain()));
+
+        assertThat(rejectedResponse.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+        assertThat(rejectedResponse.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("30");
+        assertThat(rejectedResponse.getContentType()).isEqualTo(MediaType.APPLICATION_PROBLEM_JSON_VALUE);
+        assertThat(rejectedResponse.getContentAsString()).contains("Too many uploads in progress");
+        assertThat(meterRegistry.get("upload.admission.rejected").counter().count()).isEqualTo(1);
+        assertThat(inFlightBytes()).isZero();
+    }
+
+    @Test
+    void reservesTheMaximumRequestSizeForAnUploadOfUnknownLength() throws Exception {
+        UploadAdmissionFilter filter = filter(Duration.ofMillis(50));
+        MockHttpServletResponse rejectedResponse = new MockHttpServletResponse();
+
+        filter.doFilter(upload(-1), new MockHttpServletResponse(), (request, response) -> {
+            assertThat(inFlightBytes()).isEqualTo(8 * 1024);
+            filter.doFilter(upload(4 * 1024), rejectedResponse, new MockFilterChain());
+        });
+
+        assertThat(rejectedResponse.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+    }
+
+    @Test
+    void queuedUploadIsAdmittedOnceTheUploadsInFlightComplete() throws Exception {
+        UploadAdmissionFilter filter = filter(Duration.ofSeconds(10));
+        CountDownLatch firstAdmitted = new CountDownLatch(1);
+        CountDownLatch firstReleased = new CountDownLatch(1);
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> doFilter(filter, upload(8 * 1024),
+                new MockHttpServletResponse(), (request, response) -> {
+                    firstAdmitted.countDown();
+                    await(firstReleased);
+                }));
+        await(firstAdmitted);
+
+        MockHttpServletResponse queuedResponse = new MockHttpServletResponse();
+        CompletableFuture<Void> queued = CompletableFuture.runAsync(() ->
+                doFilter(filter, upload(4 * 1024), queuedResponse, new MockFilterChain()));
+        while (meterRegistry.get("upload.admission.queued.requests").gauge().value() == 0) {
+            Thread.onSpinWait();
+        }
+        firstReleased.countDown();
+        CompletableFuture.allOf(first, queued).get(10, TimeUnit.SECONDS);
+
+        assertThat(queuedResponse.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(meterRegistry.get("upload.admission.rejected").counter().count()).isZero();
+        assertThat(inFlightBytes()).isZero();
+    }
+
+    @Test
+    void otherRequestsBypassTheBudget() throws Exception {
+        UploadAdmissionFilter filter = filter(Duration.ofMillis(50));
+        MockHttpServletRequest getRequest = new MockHttpServletRequest("GET", "/api/picture-uploads/1");
+        MockHttpServletResponse getResponse = new MockHttpServletResponse();
+
+        filter.doFilter(upload(10 * 1024), new MockHttpServletResponse(), (request, response) ->
+                filter.doFilter(getRequest, getResponse, new MockFilterChain()));
+
+        assertThat(getResponse.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(meterRegistry.get("upload.admission.rejected").counter().count()).isZero();
+    }
+
+    private UploadAdmissionFilter filter(Duration queueTimeout) {
+        return new UploadAdmissionFilter(DataSize.ofKilobytes(10), DataSize.ofKilobytes(8), queueTimeout,
+                Duration.ofSeconds(30), new ObjectMapper(), meterRegistry);
+    }
+
+    private double inFlightBytes() {
+        return meterRegistry.get("upload.admission.in-flight.bytes").gauge().value();
+    }
+
+    private static MockHttpServletRequest upload(int contentLength) {
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/api/picture-uploads/1");
+        if (contentLength >= 0) {
+            request.setContent(new byte[contentLength]);
+        }
+        return request;
+    }
+
+    private static void doFilter(UploadAdmissionFilter filter, MockHttpServletRequest request,
+                                 HttpServletResponse response, FilterChain filterChain) {
+        try {
+            filter.doFilter(request, response, filterChain);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException ie) {
+            throw new IllegalStateException(ie);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.omar.bookingappback.listing.service;
+
+import com.omar.bookingappback.listing.PictureUpload;
+import com.omar.bookingappback.listing.dto.CreatePictureUploadDTO;
+import com.omar.bookingappback.listing.dto.PictureUploadDTO;
+import com.omar.bookingappback.listing.repository.PictureUploadRepository;
+import com.omar.bookingappback.shared.state.State;
+import com.omar.bookingappback.shared.state.StatusNotification;
+import com.omar.bookingappback.user.dto.ReadUserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PictureUploadServiceTest {
+
+    private static final UUID OWNER = UUID.randomUUID();
+
+    private static final int PICTURE_SIZE = 10;
+
+    @TempDir
+    Path directory;
+
+    private PictureUploadRepository pictureUploadRepository;
+
+    private PictureUploadService pictureUploadService;
+
+    private PictureUpload pictureUpload;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        pictureUploadRepository = mock(PictureUploadRepository.class);
+        pictureUploadService = new PictureUploadService(pictureUploadRepository, directory.toString(),
+                DataSize.ofKilobytes(1), 2, Duration.ofHours(24));
+        pictureUpload = new PictureUpload();
+        pictureUpload.setPublicId(UUID.randomUUID());
+        pictureUpload.setOwnerPublicId(OWNER);
+        pictureUpload.setFileContentType("image/jpeg");
+        pictureUpload.setSize(PICTURE_SIZE);
+        when(pictureUploadRepository.findByPublicIdAndOwnerPublicId(pictureUpload.getPublicId(), OWNER))
+                .thenReturn(Optional.of(pictureUpload));
+        Files.createFile(directory.resolve(pictureUpload.getPublicId().toString()));
+    }
+
+    @Test
+    void chunkIsAppended() throws IOException {
+        State<PictureUploadDTO, String> appendState = append(0, 4, new ByteArrayInputStream(new byte[4]));
+
+        assertThat(appendState.getStatus()).isEqualTo(StatusNotification.OK);
+        assertThat(appendState.getValue().offset()).isEqualTo(4);
+        assertThat(receivedSize()).isEqualTo(4);
+    }
+
+    @Test
+    void tooLongChunkIsRejectedBeforeBeingRead() throws IOException {
+        InputStream unreadable = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("The chunk should not be read");
+            }
+        };
+
+        State<PictureUploadDTO, String> appendState = append(0, PICTURE_SIZE + 1, unreadable);
+
+        assertThat(appendState.getStatus()).isEqualTo(StatusNotification.ERROR);
+        assertThat(appendState.getValue().offset()).isZero();
+        assertThat(receivedSize()).isZero();
+    }
+
+    @Test
+    void tooLongChunkOfUnknownLengthIsDiscarded() throws IOException {
+        append(0, 4, new ByteArrayInputStream(new byte[4]));
+
+        State<PictureUploadDTO, String> appendState = append(4, -1, new ByteArrayInputStream(new byte[PICTURE_SIZE]));
+
+        assertThat(appendState.getStatus()).isEqualTo(StatusNotification.ERROR);
+        assertThat(appendState.getValue().offset()).isEqualTo(4);
+        assertThat(receivedSize()).isEqualTo(4);
+    }
+
+    @Test
+    void interruptedChunkIsResumable() throws IOException {
+        InputStream dropped = new SequenceInputStream(new ByteArrayInputStream(new byte[3]), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset by peer");
+            }
+        });
+
+        State<PictureUploadDTO, String> appendState = append(0, PICTURE_SIZE, dropped);
+
+        assertThat(appendState.getStatus()).isEqualTo(StatusNotification.ERROR);
+        assertThat(appendState.getValue().offset()).isEqualTo(receivedSize()).isEqualTo(3);
+    }
+
+    @Test
+    void wrongOffsetReturnsTheOffsetReceived() throws IOException {
+        append(0, 4, new ByteArrayInputStream(new byte[4]));
+
+        State<PictureUploadDTO, String> appendState = append(0, 4, new ByteArrayInputStream(new byte[4]));
+
+        assertThat(appendState.getStatus()).isEqualTo(StatusNotification.ERROR);
+        assertThat(appendState.getValue().offset()).isEqualTo(4);
+    }
+
+    @Test
+    void uploadsBeyondTheOpenLimitAreRejected() {
+        when(pictureUploadRepository.countByOwnerPublicIdAndCreatedDateAfter(eq(OWNER), any())).thenReturn(2L);
+
+        State<PictureUploadDTO, String> createState = pictureUploadService.create(
+                new CreatePictureUploadDTO("image/jpeg", PICTURE_SIZE), new ReadUserDTO(OWNER, null, null, null, null, Set.of()));
+
+        assertThat(createState.getStatus()).isEqualTo(StatusNotification.ERROR);
+        verify(pictureUploadRepository, never()).saveAndFlush(any());
+    }
+
+    private State<PictureUploadDTO, String> append(long offset, long length, InputStream chunk) {
+        return pictureUploadService.appendChunk(pictureUpload.getPublicId(), OWNER, offset, length, chunk);
+    }
+
+    private long receivedSize() throws IOException {
+        return Files.size(directory.resolve(pictureUpload.getPublicId().toString()));
+    }
+}
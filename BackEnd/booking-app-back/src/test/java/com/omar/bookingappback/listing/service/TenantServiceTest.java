@@ -0,0 +1,166 @@
+package com.omar.bookingappback.listing.service;
+
+import com.omar.bookingappback.booking.dto.BookedDateDTO;
+import com.omar.bookingappback.listing.Listing;
+import com.omar.bookingappback.listing.dto.AvailableListingDTO;
+import com.omar.bookingappback.listing.dto.DisplayCardListingDTO;
+import com.omar.bookingappback.listing.dto.FlexibleSearchDTO;
+import com.omar.bookingappback.listing.dto.sub.ListingBookedPeriodDTO;
+import com.omar.bookingappback.listing.dto.sub.ListingInfoDTO;
+import com.omar.bookingappback.listing.dto.vo.BathsVO;
+import com.omar.bookingappback.listing.dto.vo.BedroomsVO;
+import com.omar.bookingappback.listing.dto.vo.BedsVO;
+import com.omar.bookingappback.listing.dto.vo.GuestsVO;
+import com.omar.bookingappback.listing.mapper.ListingMapper;
+import com.omar.bookingappback.listing.repository.ListingRepository;
+import com.omar.bookingappback.shared.state.State;
+import com.omar.bookingappback.shared.state.StatusNotification;
+import com.omar.bookingappback.user.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TenantServiceTest {
+
+    private static final OffsetDateTime SPAN_START = OffsetDateTime.parse("2030-06-01T14:00:00Z");
+
+    private static final OffsetDateTime SPAN_END = SPAN_START.plusDays(10);
+
+    private ListingRepository listingRepository;
+
+    private TenantService tenantService;
+
+    @BeforeEach
+    void setUp() {
+        listingRepository = mock(ListingRepository.class);
+        ListingMapper listingMapper = mock(ListingMapper.class);
+        when(listingMapper.listingToDisplayCardListingDTO(any())).thenAnswer(invocation -> {
+            Listing listing = invocation.getArgument(0);
+            return new DisplayCardListingDTO(null, "listing-" + listing.getId(), null, null, UUID.randomUUID());
+        });
+        when(listingRepository.findAllByIdInFetchCoverPicture(anyList())).thenAnswer(invocation -> {
+            List<Long> ids = invocation.getArgument(0);
+            return ids.stream().map(id -> {
+                Listing listing = new Listing();
+                listing.setId(id);
+                return listing;
+            }).toList();
+        });
+        tenantService = new TenantService(listingRepository, listingMapper, mock(UserService.class));
+    }
+
+    @Test
+    void searchFlexibleFindsTheEarliestFreeStayOfEachListing() {
+        givenBookedPeriods(
+                // No booking in the span
+                free(1L),
+                // Booked the first two days, free from the third day
+                booked(2L, SPAN_START.minusDays(1), SPAN_START.plusDays(2)),
+                // Booked in the middle of the day: the stay starts at the next day boundary
+                booked(3L, SPAN_START.plusDays(1), SPAN_START.plusDays(3).plusHours(2)),
+                // Gaps of one night only, too short for the stay
+                booked(4L, SPAN_START, SPAN_START.plusDays(4)),
+                booked(4L, SPAN_START.plusDays(5), SPAN_END),
+                // Free in the gap between two bookings
+                booked(5L, SPAN_START.plusDays(1), SPAN_START.plusDays(2)),
+                booked(5L, SPAN_START.plusDays(6), SPAN_START.plusDays(7)));
+
+        List<AvailableListingDTO> availableListings = searchFlexible(PageRequest.of(0, 10), 3).getValue().getContent();
+
+        assertThat(availableListings).extracting(availableListing -> availableListing.listing().location())
+                .containsExactly("listing-1", "listing-2", "listing-5", "listing-3");
+        assertThat(availableListings).extracting(AvailableListingDTO::earliestDates).containsExactly(
+                new BookedDateDTO(SPAN_START, SPAN_START.plusDays(3)),
+                new BookedDateDTO(SPAN_START.plusDays(2), SPAN_START.plusDays(5)),
+                new BookedDateDTO(SPAN_START.plusDays(2), SPAN_START.plusDays(5)),
+                new BookedDateDTO(SPAN_START.plusDays(4), SPAN_START.plusDays(7)));
+    }
+
+    @Test
+    void searchFlexibleRejectsAStayEndingAfterTheSpan() {
+        givenBookedPeriods(booked(1L, SPAN_START, SPAN_START.plusDays(8)));
+
+        Page<AvailableListingDTO> page = searchFlexible(PageRequest.of(0, 10), 3).getValue();
+
+        assertThat(page.getContent()).isEmpty();
+        assertThat(page.getTotalElements()).isZero();
+    }
+
+    @Test
+    void searchFlexiblePagesOverTheFreeStays() {
+        givenBookedPeriods(
+                booked(1L, SPAN_START, SPAN_START.plusDays(3)),
+                free(2L),
+                booked(3L, SPAN_START, SPAN_START.plusDays(1)),
+                booked(4L, SPAN_START, SPAN_START.plusDays(2)));
+
+        Page<AvailableListingDTO> firstPage = searchFlexible(PageRequest.of(0, 3), 2).getValue();
+        Page<AvailableListingDTO> secondPage = searchFlexible(PageRequest.of(1, 3), 2).getValue();
+        Page<AvailableListingDTO> pastLastPage = searchFlexible(PageRequest.of(2, 3), 2).getValue();
+
+        assertThat(firstPage.getContent()).extracting(availableListing -> availableListing.listing().location())
+                .containsExactly("listing-2", "listing-3", "listing-4");
+        assertThat(secondPage.getContent()).extracting(availableListing -> availableListing.listing().location())
+                .containsExactly("listing-1");
+        assertThat(pastLastPage.getContent()).isEmpty();
+        assertThat(firstPage.getTotalElements()).isEqualTo(4);
+        assertThat(secondPage.getTotalElements()).isEqualTo(4);
+    }
+
+    @Test
+    void searchFlexibleRejectsASpanShorterThanTheStay() {
+        State<Page<AvailableListingDTO>, String> searchState = searchFlexible(PageRequest.of(0, 10), 11);
+
+        assertThat(searchState.getStatus()).isEqualTo(StatusNotification.ERROR);
+        verify(listingRepository, never()).findAllBookedPeriodsByCriteria(anyString(), anyInt(), anyInt(), anyInt(),
+                anyInt(), any(), any());
+    }
+
+    @Test
+    void searchFlexibleRejectsATooLongSpan() {
+        FlexibleSearchDTO search = new FlexibleSearchDTO(new BookedDateDTO(SPAN_START, SPAN_START.plusDays(400)), 3,
+                infos(), "Paris");
+
+        State<Page<AvailableListingDTO>, String> searchState = tenantService.searchFlexible(PageRequest.of(0, 10), search);
+
+        assertThat(searchState.getStatus()).isEqualTo(StatusNotification.ERROR);
+    }
+
+    private State<Page<AvailableListingDTO>, String> searchFlexible(PageRequest pageRequest, int nights) {
+        FlexibleSearchDTO search = new FlexibleSearchDTO(new BookedDateDTO(SPAN_START, SPAN_END), nights, infos(), "Paris");
+        return tenantService.searchFlexible(pageRequest, search);
+    }
+
+    private void givenBookedPeriods(ListingBookedPeriodDTO... bookedPeriods) {
+        when(listingRepository.findAllBookedPeriodsByCriteria("Paris", 1, 1, 2, 1, SPAN_START, SPAN_END))
+                .thenReturn(Arrays.asList(bookedPeriods));
+    }
+
+    private static ListingInfoDTO infos() {
+        return new ListingInfoDTO(new GuestsVO(2), new BedroomsVO(1), new BedsVO(1), new BathsVO(1));
+    }
+
+    private static ListingBookedPeriodDTO free(Long listingId) {
+        return new ListingBookedPeriodDTO(listingId, null, null);
+    }
+
+    private static ListingBookedPeriodDTO booked(Long listingId, OffsetDateTime startDate, OffsetDateTime endDate) {
+        return new ListingBookedPeriodDTO(listingId, startDate, endDate);
+    }
+}
@@ -0,0 +1,110 @@
+package com.omar.bookingappback.listing.storage;
+
+import com.omar.bookingappback.listing.PictureVariant;
+import com.omar.bookingappback.listing.dto.sub.PictureContentDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PictureCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void localFileIsCachedByReference() throws IOException {
+        Path stored = Files.writeString(Files.createTempFile("picture", ".jpg"), "content");
+        PictureCache cache = cache(DataSize.ofBytes(1), 10);
+        UUID publicId = UUID.randomUUID();
+
+        cache.get(publicId, PictureVariant.FULL, () -> Optional.of(content(new FileSystemResource(stored))));
+        Optional<PictureContentDTO> hit = cache.get(publicId, PictureVariant.FULL, failingLoader());
+
+        assertThat(hit).isPresent();
+        assertThat(hit.get().content().getFile().toPath()).isEqualTo(stored);
+        assertThat(hit.get().eTag()).isEqualTo("etag");
+        assertThat(directory).isEmptyDirectory();
+    }
+
+    @Test
+    void evictionKeepsTheFilesOfThePictureStorage() throws IOException {
+        Path stored = Files.writeString(Files.createTempFile("picture", ".jpg"), "content");
+        PictureCache cache = cache(DataSize.ofKilobytes(1), 10);
+        UUID publicId = UUID.randomUUID();
+        cache.get(publicId, PictureVariant.FULL, () -> Optional.of(content(new FileSystemResource(stored))));
+
+        cache.evict(publicId);
+
+        assertThat(stored).exists();
+    }
+
+    @Test
+    void otherContentIsCopied() throws IOException {
+        PictureCache cache = cache(DataSize.ofKilobytes(1), 10);
+        UUID publicId = UUID.randomUUID();
+
+        cache.get(publicId, PictureVariant.FULL, () -> Optional.of(content(new ByteArrayResource("content".getBytes()))));
+        Optional<PictureContentDTO> hit = cache.get(publicId, PictureVariant.FULL, failingLoader());
+
+        assertThat(hit.get().content().getContentAsByteArray()).isEqualTo("content".getBytes());
+        assertThat(hit.get().content().getFile().toPath().getParent()).isEqualTo(directory);
+    }
+
+    @Test
+    void leastRecentlyServedPictureIsEvictedBeyondTheMaximumEntries() throws IOException {
+        Path stored = Files.writeString(Files.createTempFile("picture", ".jpg"), "content");
+        PictureCache cache = cache(DataSize.ofKilobytes(1), 2);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+
+        for (UUID publicId : new UUID[]{first, second, third}) {
+            cache.get(publicId, PictureVariant.FULL, () -> Optional.of(content(new FileSystemResource(stored))));
+        }
+        boolean[] reloaded = new boolean[1];
+        cache.get(first, PictureVariant.FULL, () -> {
+            reloaded[0] = true;
+            return Optional.of(content(new FileSystemResource(stored)));
+        });
+
+        assertThat(reloaded[0]).isTrue();
+    }
+
+    @Test
+    void startupOnlyDeletesTheCopies() throws IOException {
+        Path copy = Files.writeString(directory.resolve("picture-cache-" + UUID.randomUUID() + "-FULL"), "copy");
+        Path other = Files.writeString(directory.resolve("other.jpg"), "other");
+
+        cache(DataSize.ofKilobytes(1), 10);
+
+        assertThat(copy).doesNotExist();
+        assertThat(other).exists();
+    }
+
+    private PictureCache cache(DataSize maxSize, int maxEntries) {
+        return new PictureCache(directory.toString(), maxSize, maxEntries, new SimpleMeterRegistry());
+    }
+
+    private static PictureContentDTO content(Resource resource) {
+        return new PictureContentDTO(resource, "image/jpeg", "etag");
+    }
+
+    private static Supplier<Optional<PictureContentDTO>> failingLoader() {
+        return () -> {
+            throw new AssertionError("The picture should be served from the cache");
+        };
+    }
+}
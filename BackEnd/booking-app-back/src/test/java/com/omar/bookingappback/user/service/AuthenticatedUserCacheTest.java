@@ -0,0 +1,122 @@
+package com.omar.bookingappback.user.service;
+
+import com.omar.bookingappback.user.dto.ReadUserDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuthenticatedUserCacheTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final Map<String, Integer> loads = new HashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void cachedUserIsReusedUntilItExpires() {
+        AuthenticatedUserCache cache = cache(Duration.ofHours(1), 10);
+
+        ReadUserDTO first = cache.get("alice", loader("alice"));
+        ReadUserDTO second = cache.get("alice", loader("alice"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(loads).containsEntry("alice", 1);
+        assertThat(count("hit")).isEqualTo(1);
+        assertThat(count("miss")).isEqualTo(1);
+    }
+
+    @Test
+    void expiredUserIsReloaded() {
+        AuthenticatedUserCache cache = cache(Duration.ZERO, 10);
+
+        cache.get("alice", loader("alice"));
+        cache.get("alice", loader("alice"));
+
+        assertThat(loads).containsEntry("alice", 2);
+        assertThat(count("hit")).isZero();
+    }
+
+    @Test
+    void evictedUserIsReloaded() {
+        AuthenticatedUserCache cache = cache(Duration.ofHours(1), 10);
+        cache.get("alice", loader("alice"));
+        cache.get("bob", loader("bob"));
+
+        cache.evict("alice");
+        cache.get("alice", loader("alice"));
+        cache.get("bob", loader("bob"));
+
+        assertThat(loads).containsEntry("alice", 2).containsEntry("bob", 1);
+    }
+
+    @Test
+    void leastRecentlyResolvedUserIsEvictedFirst() {
+        AuthenticatedUserCache cache = cache(Duration.ofHours(1), 2);
+        cache.get("alice", loader("alice"));
+        cache.get("bob", loader("bob"));
+        cache.get("alice", loader("alice"));
+
+        cache.get("carol", loader("carol"));
+
+        assertThat(meterRegistry.get("authenticated.user.cache.entries").gauge().value()).isEqualTo(2);
+        cache.get("alice", loader("alice"));
+        cache.get("bob", loader("bob"));
+        assertThat(loads).containsEntry("alice", 1).containsEntry("bob", 2).containsEntry("carol", 1);
+    }
+
+    @Test
+    void userIsResolvedOncePerRequestEvenWhenExpired() {
+        AuthenticatedUserCache cache = cache(Duration.ZERO, 10);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+
+        cache.get("alice", loader("alice"));
+        cache.get("alice", loader("alice"));
+        cache.get("bob", loader("bob"));
+
+        assertThat(loads).containsEntry("alice", 1).containsEntry("bob", 1);
+    }
+
+    @Test
+    void evictionForgetsTheUserResolvedInTheRequest() {
+        AuthenticatedUserCache cache = cache(Duration.ofHours(1), 10);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        cache.get("alice", loader("alice"));
+
+        cache.evict("alice");
+        cache.get("alice", loader("alice"));
+
+        assertThat(loads).containsEntry("alice", 2);
+    }
+
+    private AuthenticatedUserCache cache(Duration ttl, int maxSize) {
+        return new AuthenticatedUserCache(ttl, maxSize, meterRegistry);
+    }
+
+    private Supplier<ReadUserDTO> loader(String subject) {
+        return () -> {
+            loads.merge(subject, 1, Integer::sum);
+            return new ReadUserDTO(UUID.randomUUID(), subject, null, subject + "@example.com", null, Set.of());
+        };
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("authenticated.user.cache.gets").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,234 @@
+package com.omar.bookingappback.user.service;
+
+import com.auth0.exception.Auth0Exception;
+import com.omar.bookingappback.user.entity.RoleAssignment;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RoleAssignmentWorkerTest {
+
+    private static final Duration LEASE = Duration.ofMinutes(5);
+
+    private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(30);
+
+    private static final Duration MAX_BACKOFF = Duration.ofHours(1);
+
+    private static final int MAX_ATTEMPTS = 48;
+
+    private static final int BATCH_SIZE = 50;
+
+    private static final int FAILURE_THRESHOLD = 2;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private RoleAssignmentService roleAssignmentService;
+
+    private Auth0Service auth0Service;
+
+    @BeforeEach
+    void setUp() throws Auth0Exception {
+        roleAssignmentService = mock(RoleAssignmentService.class);
+        auth0Service = mock(Auth0Service.class);
+        when(auth0Service.findUserIdByEmail(anyString())).thenAnswer(invocation ->
+                Optional.of("auth0|" + invocation.getArgument(0)));
+    }
+
+    @Test
+    void assignsEachRoleInASingleCall() throws Auth0Exception {
+        RoleAssignment first = roleAssignment(1L, "role-landlord", 0);
+        RoleAssignment second = roleAssignment(2L, "role-landlord", 0);
+        RoleAssignment other = roleAssignment(3L, "role-other", 0);
+        givenClaimed(first, second, other);
+
+        worker(Duration.ofMinutes(1)).process();
+
+        verify(auth0Service).assignRole("role-landlord", List.of("auth0|user1@example.com", "auth0|user2@example.com"));
+        verify(auth0Service).assignRole("role-other", List.of("auth0|user3@example.com"));
+        verify(roleAssignmentService).complete(List.of(first, second));
+        verify(roleAssignmentService).complete(List.of(other));
+        verify(roleAssignmentService, never()).reschedule(any(), any(), any());
+        assertThat(count("assigned")).isEqualTo(3);
+    }
+
+    @Test
+    void userNotFoundInAuth0IsRetriedAfterTheInitialBackoff() throws Auth0Exception {
+        RoleAssignment missing = roleAssignment(1L, "role-landlord", 0);
+        RoleAssignment found = roleAssignment(2L, "role-landlord", 0);
+        when(auth0Service.findUserIdByEmail("user1@example.com")).thenReturn(Optional.empty());
+        givenClaimed(missing, found);
+
+        Instant before = Instant.now();
+        worker(Duration.ofMinutes(1)).process();
+
+        assertThat(nextAttemptDelay(missing, before)).isBetween(INITIAL_BACKOFF.dividedBy(2), INITIAL_BACKOFF.plusSeconds(1));
+        verify(auth0Service).assignRole("role-landlord", List.of("auth0|user2@example.com"));
+        verify(roleAssignmentService).complete(List.of(found));
+        assertThat(count("failed")).isEqualTo(1);
+    }
+
+    @Test
+    void backoffDoublesWithTheAttemptsUpToTheMaximum() throws Auth0Exception {
+        RoleAssignment thirdRetry = roleAssignment(1L, "role-landlord", 3);
+        RoleAssignment manyRetries = roleAssignment(2L, "role-landlord", 40);
+        when(auth0Service.findUserIdByEmail(anyString())).thenReturn(Optional.empty());
+        givenClaimed(thirdRetry, manyRetries);
+
+        Instant before = Instant.now();
+        worker(Duration.ofMinutes(1)).process();
+
+        Duration thirdRetryBackoff = INITIAL_BACKOFF.multipliedBy(8);
+        assertThat(nextAttemptDelay(thirdRetry, before)).isBetween(thirdRetryBackoff.dividedBy(2), thirdRetryBackoff.plusSeconds(1));
+        assertThat(nextAttemptDelay(manyRetries, before)).isBetween(MAX_BACKOFF.dividedBy(2), MAX_BACKOFF.plusSeconds(1));
+    }
+
+    @Test
+    void assignmentIsParkedAfterTheMaximumAttempts() throws Auth0Exception {
+        RoleAssignment lastAttempt = roleAssignment(1L, "role-landlord", MAX_ATTEMPTS - 1);
+        RoleAssignment retried = roleAssignment(2L, "role-landlord", MAX_ATTEMPTS - 2);
+        when(auth0Service.findUserIdByEmail(anyString())).thenReturn(Optional.empty());
+        givenClaimed(lastAttempt, retried);
+
+        worker(Duration.ofMinutes(1)).process();
+
+        verify(roleAssignmentService).park(lastAttempt, "User not found in Auth0");
+        verify(roleAssignmentService, never()).reschedule(eq(lastAttempt), any(), any());
+        verify(roleAssignmentService).reschedule(eq(retried), any(), anyString());
+        assertThat(count("parked")).isEqualTo(1);
+        assertThat(count("failed")).isEqualTo(1);
+    }
+
+    @Test
+    void failedCallRetriesOnlyTheAssignmentsNotCompleted() throws Auth0Exception {
+        RoleAssignment assigned = roleAssignment(1L, "role-landlord", 0);
+        RoleAssignment failed = roleAssignment(2L, "role-other", 0);
+        doThrow(new Auth0Exception("Auth0 is down")).when(auth0Service).assignRole(eq("role-other"), any());
+        givenClaimed(assigned, failed);
+
+        worker(Duration.ofMinutes(1)).process();
+
+        verify(roleAssignmentService).complete(List.of(assigned));
+        verify(roleAssignmentService).reschedule(eq(failed), any(), anyString());
+        verify(roleAssignmentService, never()).reschedule(eq(assigned), any(), any());
+    }
+
+    @Test
+    void circuitOpensAfterConsecutiveFailuresAndStopsClaiming() throws Auth0Exception {
+        doThrow(new Auth0Exception("Auth0 is down")).when(auth0Service).assignRole(anyString(), any());
+        when(roleAssignmentService.claim(any(), anyInt())).thenAnswer(invocation ->
+                List.of(roleAssignment(1L, "role-landlord", 0)));
+        RoleAssignmentWorker worker = worker(Duration.ofMinutes(1));
+
+        worker.process();
+        assertThat(circuitOpen()).isZero();
+        worker.process();
+        assertThat(circuitOpen()).isEqualTo(1);
+        worker.process();
+
+        verify(roleAssignmentService, times(FAILURE_THRESHOLD)).claim(LEASE, BATCH_SIZE);
+    }
+
+    @Test
+    void halfOpenCircuitTriesASingleAssignmentAndClosesOnSuccess() throws Auth0Exception {
+        doThrow(new Auth0Exception("Auth0 is down")).doThrow(new Auth0Exception("Auth0 is down")).doNothing()
+                .when(auth0Service).assignRole(anyString(), any());
+        when(roleAssignmentService.claim(any(), anyInt())).thenAnswer(invocation ->
+                List.of(roleAssignment(1L, "role-landlord", 0)));
+        // Opened for no time, so the circuit is half-open as soon as it opens
+        RoleAssignmentWorker worker = worker(Duration.ZERO);
+        worker.process();
+        worker.process();
+
+        worker.process();
+
+        verify(roleAssignmentService).claim(LEASE, 1);
+        assertThat(circuitOpen()).isZero();
+        worker.process();
+        verify(roleAssignmentService, times(FAILURE_THRESHOLD + 1)).claim(LEASE, BATCH_SIZE);
+    }
+
+    @Test
+    void halfOpenCircuitOpensAgainOnFailure() throws Auth0Exception {
+        doThrow(new Auth0Exception("Auth0 is down")).when(auth0Service).assignRole(anyString(), any());
+        when(roleAssignmentService.claim(any(), anyInt())).thenAnswer(invocation ->
+                List.of(roleAssignment(1L, "role-landlord", 0)));
+        RoleAssignmentWorker worker = worker(Duration.ZERO);
+        worker.process();
+        worker.process();
+
+        worker.process();
+        worker.process();
+
+        verify(roleAssignmentService, times(2)).claim(LEASE, 1);
+        assertThat(circuitOpen()).isEqualTo(1);
+    }
+
+    @Test
+    void idleHalfOpenCircuitStaysHalfOpen() throws Auth0Exception {
+        doThrow(new Auth0Exception("Auth0 is down")).when(auth0Service).assignRole(anyString(), any());
+        when(roleAssignmentService.claim(any(), anyInt()))
+                .thenReturn(List.of(roleAssignment(1L, "role-landlord", 0)))
+                .thenReturn(List.of(roleAssignment(2L, "role-landlord", 0)))
+                .thenReturn(List.of());
+        RoleAssignmentWorker worker = worker(Duration.ZERO);
+        worker.process();
+        worker.process();
+
+        worker.process();
+        worker.process();
+
+        verify(roleAssignmentService, times(2)).claim(LEASE, 1);
+        assertThat(circuitOpen()).isEqualTo(1);
+    }
+
+    private RoleAssignmentWorker worker(Duration openDuration) {
+        return new RoleAssignmentWorker(roleAssignmentService, auth0Service, BATCH_SIZE, LEASE, INITIAL_BACKOFF,
+                MAX_BACKOFF, MAX_ATTEMPTS, FAILURE_THRESHOLD, openDuration, meterRegistry);
+    }
+
+    private void givenClaimed(RoleAssignment... roleAssignments) {
+        when(roleAssignmentService.claim(LEASE, BATCH_SIZE)).thenReturn(List.of(roleAssignments));
+    }
+
+    private Duration nextAttemptDelay(RoleAssignment roleAssignment, Instant before) {
+        ArgumentCaptor<Instant> nextAttemptDate = ArgumentCaptor.forClass(Instant.class);
+        verify(roleAssignmentService).reschedule(eq(roleAssignment), nextAttemptDate.capture(), anyString());
+        return Duration.between(before, nextAttemptDate.getValue());
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("role.assignment.processed").tag("result", result).counter().count();
+    }
+
+    private double circuitOpen() {
+        return meterRegistry.get("role.assignment.circuit.open").gauge().value();
+    }
+
+    private static RoleAssignment roleAssignment(Long id, String roleId, int attempts) {
+        RoleAssignment roleAssignment = new RoleAssignment();
+        roleAssignment.setId(id);
+        roleAssignment.setEmail("user" + id + "@example.com");
+        roleAssignment.setRoleId(roleId);
+        roleAssignment.setAttempts(attempts);
+        return roleAssignment;
+    }
+}
@@ -0,0 +1,203 @@
+package com.omar.bookingappback.user.service;
+
+import com.auth0.exception.Auth0Exception;
+import com.omar.bookingappback.config.SecurityUtils;
+import com.omar.bookingappback.user.dto.ReadUserDTO;
+import com.omar.bookingappback.user.entity.User;
+import com.omar.bookingappback.user.mapper.UserMapper;
+import com.omar.bookingappback.user.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.hibernate.exception.ConstraintViolationException;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.InsufficientAuthenticationException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserServiceTest {
+
+    private static final String SUBJECT = "auth0|alice";
+
+    private UserRepository userRepository;
+
+    private Auth0Service auth0Service;
+
+    private UserService userService;
+
+    @BeforeEach
+    void setUp() {
+        userRepository = mock(UserRepository.class);
+        auth0Service = mock(Auth0Service.class);
+        UserMapper userMapper = mock(UserMapper.class);
+        when(userMapper.readUserDTOToUser(any())).thenAnswer(invocation -> {
+            User user = invocation.getArgument(0);
+            return new ReadUserDTO(user.getPublicId(), null, null, user.getEmail(), null, Set.of());
+        });
+        AuthenticatedUserCache authenticatedUserCache = new AuthenticatedUserCache(Duration.ofHours(1), 10,
+                new SimpleMeterRegistry());
+        userService = new UserService(userRepository, userMapper, authenticatedUserCache, auth0Service,
+                mock(PlatformTransactionManager.class));
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void knownUserIsResolvedBySubject() {
+        User alice = user("alice@example.com");
+        when(userRepository.findOneWithAuthoritiesByIdpSubject(SUBJECT)).thenReturn(Optional.of(alice));
+        authenticate(jwt(Map.of()));
+
+        ReadUserDTO user = userService.getAuthenticatedUserFromSecurityContext();
+
+        assertThat(user.publicId()).isEqualTo(alice.getPublicId());
+        verify(userRepository, never()).upsertFromIdp(any(), any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void unknownLoginUserIsSynchronizedFromTheirClaims() throws Auth0Exception {
+        User alice = user("alice@example.com");
+        when(userRepository.findOneWithAuthoritiesByIdpSubject(SUBJECT)).thenReturn(Optional.empty(), Optional.of(alice));
+        authenticate(new OAuth2AuthenticationToken(new DefaultOAuth2User(List.of(),
+                Map.of("sub", SUBJECT, "email", "alice@example.com"), "sub"), List.of(), "okta"));
+
+        ReadUserDTO user = userService.getAuthenticatedUserFromSecurityContext();
+
+        assertThat(user.email()).isEqualTo("alice@example.com");
+        verify(userRepository).claimIdpSubject(SUBJECT, "alice@example.com");
+        verify(userRepository).upsertFromIdp(any(), eq(SUBJECT), eq("alice@example.com"), any(), any(), any(), any(), any());
+        verify(auth0Service, never()).findUserById(anyString());
+    }
+
+    @Test
+    void unknownJwtUserIsSynchronizedFromTheIdp() throws Auth0Exception {
+        User alice = user("alice@example.com");
+        when(userRepository.findOneWithAuthoritiesByIdpSubject(SUBJECT)).thenReturn(Optional.empty(), Optional.of(alice));
+        com.auth0.json.mgmt.users.User idpUser = new com.auth0.json.mgmt.users.User();
+        idpUser.setEmail("alice@example.com");
+        idpUser.setGivenName("Alice");
+        when(auth0Service.findUserById(SUBJECT)).thenReturn(Optional.of(idpUser));
+        authenticate(jwt(Map.of(SecurityUtils.CLAIMS_NAMESPACE, List.of(SecurityUtils.ROLE_TENANT))));
+
+        ReadUserDTO user = userService.getAuthenticatedUserFromSecurityContext();
+
+        assertThat(user.email()).isEqualTo("alice@example.com");
+        verify(userRepository).upsertFromIdp(any(), eq(SUBJECT), eq("alice@example.com"), eq("Alice"), any(), any(), any(),
+                eq(new String[]{SecurityUtils.ROLE_TENANT}));
+    }
+
+    @Test
+    void jwtUserUnknownAtTheIdpIsRejected() throws Auth0Exception {
+        when(userRepository.findOneWithAuthoritiesByIdpSubject(SUBJECT)).thenReturn(Optional.empty());
+        when(auth0Service.findUserById(SUBJECT)).thenReturn(Optional.empty());
+        authenticate(jwt(Map.of()));
+
+        assertThatThrownBy(() -> userService.getAuthenticatedUserFromSecurityContext())
+                .isInstanceOf(InsufficientAuthenticationException.class);
+        verify(userRepository, never()).upsertFromIdp(any(), any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void unavailableIdpIsAnAuthenticationFailure() throws Auth0Exception {
+        when(userRepository.findOneWithAuthoritiesByIdpSubject(SUBJECT)).thenReturn(Optional.empty());
+        when(auth0Service.findUserById(SUBJECT)).thenThrow(new Auth0Exception("timeout"));
+        authenticate(jwt(Map.of()));
+
+        assertThatThrownBy(() -> userService.getAuthenticatedUserFromSecurityContext())
+                .isInstanceOf(AuthenticationServiceException.class);
+    }
+
+    @Test
+    void missingSubjectIsRejected() {
+        assertThatThrownBy(() -> userService.getAuthenticatedUserFromSecurityContext())
+                .isInstanceOf(AuthenticationCredentialsNotFoundException.class);
+    }
+
+    @Test
+    void unchangedClaimsAreNotWritten() {
+        Map<String, Object> claims = Map.of("sub", SUBJECT, "email", "alice@example.com");
+        userService.syncWithIdp(new DefaultOAuth2User(List.of(), claims, "sub"), false);
+        ArgumentCaptor<String> fingerprint = ArgumentCaptor.forClass(String.class);
+        verify(userRepository).upsertFromIdp(any(), eq(SUBJECT), any(), any(), any(), any(),
+                fingerprint.capture(), any());
+        when(userRepository.findIdpFingerprintByIdpSubject(SUBJECT)).thenReturn(Optional.of(fingerprint.getValue()));
+
+        userService.syncWithIdp(new DefaultOAuth2User(List.of(), claims, "sub"), false);
+
+        verify(userRepository).claimIdpSubject(SUBJECT, "alice@example.com");
+        verify(userRepository).upsertFromIdp(any(), any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void identityWithTheEmailOfAnotherIdentityIsRejected() {
+        when(userRepository.findOneWithAuthoritiesByIdpSubject(SUBJECT)).thenReturn(Optional.empty());
+        when(userRepository.upsertFromIdp(any(), eq(SUBJECT), eq("alice@example.com"), any(), any(), any(), any(), any()))
+                .thenThrow(new DataIntegrityViolationException("duplicate key", new ConstraintViolationException(
+                        "duplicate key", new SQLException("duplicate key", "23505"), "ux_user_email")));
+        authenticate(new OAuth2AuthenticationToken(new DefaultOAuth2User(List.of(),
+                Map.of("sub", SUBJECT, "email", "alice@example.com"), "sub"), List.of(), "okta"));
+
+        assertThatThrownBy(() -> userService.getAuthenticatedUserFromSecurityContext())
+                .isInstanceOf(InsufficientAuthenticationException.class);
+    }
+
+    @Test
+    void otherIntegrityViolationsAreNotAuthenticationFailures() {
+        when(userRepository.upsertFromIdp(any(), any(), any(), any(), any(), any(), any(), any()))
+                .thenThrow(new DataIntegrityViolationException("duplicate key", new ConstraintViolationException(
+                        "duplicate key", new SQLException("duplicate key", "23505"), "ux_user_public_id")));
+
+        assertThatThrownBy(() -> userService.syncWithIdp(new DefaultOAuth2User(List.of(),
+                Map.of("sub", SUBJECT, "email", "alice@example.com"), "sub"), false))
+                .isInstanceOf(DataIntegrityViolationException.class);
+    }
+
+    private static void authenticate(Authentication authentication) {
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+    }
+
+    private static JwtAuthenticationToken jwt(Map<String, Object> claims) {
+        return new JwtAuthenticationToken(Jwt.withTokenValue("token").header("alg", "none").subject(SUBJECT)
+                .claims(jwtClaims -> jwtClaims.putAll(claims)).build());
+    }
+
+    private static User user(String email) {
+        User user = new User();
+        user.setPublicId(UUID.randomUUID());
+        user.setEmail(email);
+        return user;
+    }
+}
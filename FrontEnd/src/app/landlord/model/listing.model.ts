@@ -28,7 +28,7 @@ export interface CreatedListing {
 }
 
 export interface DisplayPicture {
-  file?: string,
+  url?: string,
   fileContentType?: string,
   isCover?: boolean
 }